@@ -18,11 +18,17 @@ package com.ok2c.http.client.benchmark;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.Header;
 import org.apache.http.HttpException;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpInetConnection;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.config.RequestConfig;
@@ -30,6 +36,7 @@ import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.config.ConnectionConfig;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.entity.ContentType;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.impl.nio.client.HttpAsyncClients;
@@ -38,125 +45,318 @@ import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
 import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.nio.ContentDecoder;
 import org.apache.http.nio.IOControl;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.NHttpClientConnectionManager;
 import org.apache.http.nio.entity.NFileEntity;
 import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
 import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
 import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.VersionInfo;
 
-public class ApacheHttpAsyncClientV4 implements HttpAgent {
+public class ApacheHttpAsyncClientV4 implements HttpAgent, PoolTelemetry.Source {
 
-    private final ConnectingIOReactor ioreactor;
-    private final PoolingNHttpClientConnectionManager mgr;
-    private final CloseableHttpAsyncClient httpclient;
+    private PoolingNHttpClientConnectionManager[] mgrs;
+    private LeaseTrackingConnectionManager[] leaseTrackers;
+    private CloseableHttpAsyncClient[] httpclients;
 
-    public ApacheHttpAsyncClientV4() throws Exception {
+    public ApacheHttpAsyncClientV4() {
         super();
-        this.ioreactor = new DefaultConnectingIOReactor(IOReactorConfig.custom()
-                .setConnectTimeout(60000)
-                .setSoTimeout(60000)
-                .build());
-        this.mgr = new PoolingNHttpClientConnectionManager(this.ioreactor);
-        this.mgr.setDefaultConnectionConfig(ConnectionConfig.custom()
-                .setBufferSize(8 * 1024)
-                .setFragmentSizeHint(8 * 1024)
-                .build());
-        this.httpclient = HttpAsyncClients.createMinimal(this.mgr);
     }
 
     @Override
-    public void init() {
-        this.httpclient.start();
+    public void init(final BenchmarkConfig config) throws Exception {
+        // Each shard is an independent client with its own I/O reactor and connection pool
+        final int shards = Math.max(config.getShards(), 1);
+        this.mgrs = new PoolingNHttpClientConnectionManager[shards];
+        this.leaseTrackers = new LeaseTrackingConnectionManager[shards];
+        this.httpclients = new CloseableHttpAsyncClient[shards];
+        for (int i = 0; i < shards; i++) {
+            final IOReactorConfig.Builder ioReactorConfigBuilder = IOReactorConfig.custom()
+                    .setConnectTimeout(60000)
+                    .setSoTimeout(60000)
+                    .setRcvBufSize(config.getSocketRcvBufSize())
+                    .setSndBufSize(config.getSocketSndBufSize())
+                    .setTcpNoDelay(config.isTcpNoDelay());
+            if (config.getIoThreads() > 0) {
+                ioReactorConfigBuilder.setIoThreadCount(config.getIoThreads());
+            }
+            final ConnectingIOReactor ioreactor = new DefaultConnectingIOReactor(ioReactorConfigBuilder.build());
+            this.mgrs[i] = new PoolingNHttpClientConnectionManager(ioreactor);
+            this.mgrs[i].setDefaultConnectionConfig(ConnectionConfig.custom()
+                    .setBufferSize(config.getIoBufferSize())
+                    .setFragmentSizeHint(config.getChunkSizeHint())
+                    .build());
+            this.leaseTrackers[i] = new LeaseTrackingConnectionManager(this.mgrs[i]);
+            this.httpclients[i] = config.isFullChain()
+                    ? HttpAsyncClients.custom().setConnectionManager(this.leaseTrackers[i]).build()
+                    : HttpAsyncClients.createMinimal(this.leaseTrackers[i]);
+            this.httpclients[i].start();
+        }
     }
 
     @Override
     public void shutdown() throws IOException {
-        this.httpclient.close();
+        for (final CloseableHttpAsyncClient httpclient : this.httpclients) {
+            httpclient.close();
+        }
     }
 
     @Override
     public Stats execute(final BenchmarkConfig config) throws Exception {
-        this.mgr.setDefaultMaxPerRoute(config.getConcurrency());
-        this.mgr.setMaxTotal(2000);
+        final int shards = this.httpclients.length;
+        for (final PoolingNHttpClientConnectionManager mgr : this.mgrs) {
+            mgr.setDefaultMaxPerRoute((config.getConcurrency() + shards - 1) / shards);
+            mgr.setMaxTotal(Math.max(2000, (config.getConcurrency() + shards - 1) / shards));
+        }
         final Stats stats = new Stats(config.getRequests(), config.getConcurrency());
 
-        final URI target = config.getUri();
         final RequestConfig requestConfig = RequestConfig.custom()
                 .setConnectTimeout(config.getTimeout())
                 .setSocketTimeout(config.getTimeout())
                 .build();
 
-        final Semaphore semaphore = new Semaphore(config.getConcurrency());
-        for (int i = 0; i < config.getRequests(); i++) {
+        final Semaphore semaphore = InFlightLimit.create(config);
+        final HttpHost sharedHost = config.isReuseRequests() && config.getUris().isEmpty()
+                ? new HttpHost(config.getUri().getHost(), config.getUri().getPort(), config.getUri().getScheme()) : null;
+        final FutureCallback<Void> sharedCallback = config.isReuseRequests() ? releasingCallback(semaphore) : null;
+        final List<Map.Entry<String, String>> requestHeaders = HeaderProfile.getRequestHeaders(config);
+        final MethodMix mix = MethodMix.of(config);
+        for (int i = 0; i < config.getRequests() && !stats.isClosed(); i++) {
+            final URI target = config.getUri(i);
+            final MethodMix.Method method = mix.get(i);
+            // Request messages get modified by protocol interceptors and cannot be shared
             final HttpRequest request;
-            if (config.getFile() == null) {
-                request = RequestBuilder.get(target)
+            if (method.getFile() == null) {
+                request = RequestBuilder.create(method.getName())
+                        .setUri(target)
                         .build();
             } else {
-                request = RequestBuilder.put(target)
+                request = RequestBuilder.create(method.getName())
+                        .setUri(target)
                         .setEntity(new NFileEntity(
-                                config.getFile(),
-                                config.getContentType() != null ? ContentType.parse(config.getContentType()) : null))
+                                method.getFile(),
+                                method.getContentType() != null ? ContentType.parse(method.getContentType()) : null))
                         .build();
             }
             if (!config.isKeepAlive()) {
                 request.addHeader(HttpHeaders.CONNECTION, "close");
             }
-            final HttpHost targetHost = new HttpHost(target.getHost(), target.getPort(), target.getScheme());
+            if (config.isCompression()) {
+                request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+            }
+            for (final Map.Entry<String, String> header : requestHeaders) {
+                request.addHeader(header.getKey(), header.getValue());
+            }
+            final HttpHost targetHost = sharedHost != null
+                    ? sharedHost : new HttpHost(target.getHost(), target.getPort(), target.getScheme());
             final HttpClientContext clientContext = HttpClientContext.create();
             clientContext.setRequestConfig(requestConfig);
+            final long admissionTime = System.nanoTime();
             semaphore.acquire();
-            this.httpclient.execute(
+            final long startTime = System.nanoTime();
+            BenchmarkEvents.requestStart(startTime);
+            stats.admission(admissionTime, startTime);
+            final BenchmarkResponseConsumer responseConsumer = new BenchmarkResponseConsumer(
+                    stats, startTime, method, config.getReadBufferSize(), config.getResponseHeaderCount() > 0);
+            final int shard = i % shards;
+            this.leaseTrackers[shard].expectLease(responseConsumer);
+            this.httpclients[shard].execute(
                     new BasicAsyncRequestProducer(targetHost, request),
-                    new BenchmarkResponseConsumer(stats),
+                    responseConsumer,
                     clientContext,
-                    new FutureCallback<Void>() {
+                    sharedCallback != null ? sharedCallback : releasingCallback(semaphore));
+        }
+
+        stats.waitFor();
+        return stats;
+    }
+
+    static FutureCallback<Void> releasingCallback(final Semaphore semaphore) {
+        return new FutureCallback<Void>() {
+
+            @Override
+            public void completed(final Void result) {
+                semaphore.release();
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                semaphore.release();
+            }
+
+            @Override
+            public void cancelled() {
+                semaphore.release();
+            }
+
+        };
+    }
+
+    /**
+     * Notifies the response consumer of the next request submitted by the calling
+     * thread once a connection has been leased for it. The minimal client requests
+     * connections from within {@code execute} on the calling thread. Leases of new
+     * connections complete once they have been connected.
+     */
+    static class LeaseTrackingConnectionManager implements NHttpClientConnectionManager {
+
+        private final NHttpClientConnectionManager connManager;
+        private final ThreadLocal<BenchmarkResponseConsumer> pending;
+
+        LeaseTrackingConnectionManager(final NHttpClientConnectionManager connManager) {
+            this.connManager = connManager;
+            this.pending = new ThreadLocal<>();
+        }
+
+        void expectLease(final BenchmarkResponseConsumer responseConsumer) {
+            this.pending.set(responseConsumer);
+        }
+
+        @Override
+        public void execute(final IOEventDispatch eventDispatch) throws IOException {
+            this.connManager.execute(eventDispatch);
+        }
+
+        @Override
+        public Future<NHttpClientConnection> requestConnection(
+                final HttpRoute route,
+                final Object state,
+                final long connectTimeout,
+                final long leaseTimeout,
+                final TimeUnit tunit,
+                final FutureCallback<NHttpClientConnection> callback) {
+            final BenchmarkResponseConsumer responseConsumer = this.pending.get();
+            this.pending.remove();
+            if (responseConsumer == null) {
+                return this.connManager.requestConnection(route, state, connectTimeout, leaseTimeout, tunit, callback);
+            }
+            return this.connManager.requestConnection(route, state, connectTimeout, leaseTimeout, tunit,
+                    new FutureCallback<NHttpClientConnection>() {
 
                         @Override
-                        public void completed(final Void result) {
-                            semaphore.release();
+                        public void completed(final NHttpClientConnection conn) {
+                            responseConsumer.leased(conn);
+                            if (callback != null) {
+                                callback.completed(conn);
+                            }
                         }
 
                         @Override
                         public void failed(final Exception ex) {
-                            semaphore.release();
+                            if (callback != null) {
+                                callback.failed(ex);
+                            }
                         }
 
                         @Override
                         public void cancelled() {
-                            semaphore.release();
+                            if (callback != null) {
+                                callback.cancelled();
+                            }
                         }
 
                     });
         }
 
-        stats.waitFor();
-        return stats;
+        @Override
+        public void releaseConnection(
+                final NHttpClientConnection conn, final Object newState, final long validDuration, final TimeUnit tunit) {
+            this.connManager.releaseConnection(conn, newState, validDuration, tunit);
+        }
+
+        @Override
+        public void startRoute(
+                final NHttpClientConnection conn, final HttpRoute route, final HttpContext context) throws IOException {
+            this.connManager.startRoute(conn, route, context);
+        }
+
+        @Override
+        public void upgrade(
+                final NHttpClientConnection conn, final HttpRoute route, final HttpContext context) throws IOException {
+            this.connManager.upgrade(conn, route, context);
+        }
+
+        @Override
+        public void routeComplete(final NHttpClientConnection conn, final HttpRoute route, final HttpContext context) {
+            this.connManager.routeComplete(conn, route, context);
+        }
+
+        @Override
+        public boolean isRouteComplete(final NHttpClientConnection conn) {
+            return this.connManager.isRouteComplete(conn);
+        }
+
+        @Override
+        public void closeIdleConnections(final long idletime, final TimeUnit tunit) {
+            this.connManager.closeIdleConnections(idletime, tunit);
+        }
+
+        @Override
+        public void closeExpiredConnections() {
+            this.connManager.closeExpiredConnections();
+        }
+
+        @Override
+        public void shutdown() throws IOException {
+            this.connManager.shutdown();
+        }
+
     }
 
     static class BenchmarkResponseConsumer implements HttpAsyncResponseConsumer<Void> {
 
         private final Stats stats;
+        private final long startTime;
+        private final MethodMix.Method method;
+        private final int bufferSize;
+        private final boolean readHeaders;
 
+        private volatile long leaseTime = Stats.UNKNOWN;
+        private volatile long connectionId;
         private ByteBuffer bbuf;
         private int status;
+        private long headersTime;
         private long contentLen = 0;
         private Exception ex;
         private boolean done = false;
-
-        BenchmarkResponseConsumer(final Stats stats) {
+        private GzipDecoder decoder;
+
+        BenchmarkResponseConsumer(
+                final Stats stats,
+                final long startTime,
+                final MethodMix.Method method,
+                final int bufferSize,
+                final boolean readHeaders) {
             super();
             this.stats = stats;
+            this.startTime = startTime;
+            this.method = method;
+            this.bufferSize = bufferSize;
+            this.readHeaders = readHeaders;
+        }
+
+        void leased(final NHttpClientConnection conn) {
+            if (this.leaseTime == Stats.UNKNOWN) {
+                this.leaseTime = System.nanoTime();
+            }
+            // Managed connections are connected by the time their lease completes
+            this.connectionId = conn instanceof HttpInetConnection ? ((HttpInetConnection) conn).getLocalPort() : 0;
         }
 
         @Override
         public void close() throws IOException {
             if (!this.done) {
                 this.done = true;
-                this.stats.failure(contentLen);
+                this.stats.failure(startTime, leaseTime, 0, connectionId, contentLen, method);
             }
             bbuf = null;
+            if (decoder != null) {
+                decoder.release();
+                decoder = null;
+            }
         }
 
         @Override
@@ -168,25 +368,40 @@ public class ApacheHttpAsyncClientV4 implements HttpAgent {
         @Override
         public void responseReceived(final HttpResponse response) throws IOException, HttpException {
             this.status = response.getStatusLine().getStatusCode();
+            this.headersTime = this.stats.responseHeaders(this.startTime, this.status);
+            if (this.readHeaders) {
+                ApacheHttpClientV4.readHeaders(response, this.stats);
+            }
+            // HttpAsyncClient 4.1 has no content decoding of its own
+            final Header contentEncoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+            if (contentEncoding != null && GzipDecoder.isGzip(contentEncoding.getValue())) {
+                this.decoder = new GzipDecoder();
+            }
         }
 
         @Override
         public void consumeContent(final ContentDecoder decoder, final IOControl ioctrl) throws IOException {
             if (this.bbuf == null) {
-                this.bbuf = ByteBuffer.allocate(4096);
+                this.bbuf = ByteBuffer.allocate(this.bufferSize);
             }
             for (;;) {
                 final int bytesRead = decoder.read(this.bbuf);
                 if (bytesRead <= 0) {
                     break;
                 }
-                this.contentLen += bytesRead;
+                if (this.decoder != null) {
+                    this.bbuf.flip();
+                    this.contentLen += this.decoder.decode(this.bbuf);
+                } else {
+                    this.contentLen += bytesRead;
+                }
                 this.bbuf.clear();
             }
         }
 
         @Override
         public void responseCompleted(final HttpContext context) {
+            this.stats.responseBody(this.headersTime);
         }
 
         @Override
@@ -201,10 +416,10 @@ public class ApacheHttpAsyncClientV4 implements HttpAgent {
 
         @Override
         public Void getResult() {
-            if (this.status == 200 && this.ex == null) {
-                stats.success(contentLen);
+            if (Stats.isSuccessful(this.status) && this.ex == null) {
+                stats.success(startTime, leaseTime, this.status, connectionId, contentLen, method);
             } else {
-                stats.failure(contentLen);
+                stats.failure(startTime, leaseTime, this.status, connectionId, contentLen, method);
             }
             this.done = true;
             return null;
@@ -217,6 +432,23 @@ public class ApacheHttpAsyncClientV4 implements HttpAgent {
 
     };
 
+    @Override
+    public PoolTelemetry.Sample samplePool() {
+        int leased = 0;
+        int available = 0;
+        int pending = 0;
+        int max = 0;
+        for (final PoolingNHttpClientConnectionManager mgr : this.mgrs) {
+            final PoolStats totals = mgr.getTotalStats();
+            leased += totals.getLeased();
+            available += totals.getAvailable();
+            pending += totals.getPending();
+            // The benchmark executes requests against a single route
+            max += Math.min(totals.getMax(), mgr.getDefaultMaxPerRoute());
+        }
+        return new PoolTelemetry.Sample(leased, available, pending, max);
+    }
+
     @Override
     public String getClientName() {
         final VersionInfo vinfo = VersionInfo.loadVersionInfo(
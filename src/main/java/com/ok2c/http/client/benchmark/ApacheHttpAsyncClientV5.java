@@ -16,10 +16,22 @@
 package com.ok2c.http.client.benchmark;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.URI;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.hc.client5.http.DnsResolver;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.SystemDefaultDnsResolver;
 import org.apache.hc.client5.http.async.methods.AbstractBinResponseConsumer;
 import org.apache.hc.client5.http.config.ConnectionConfig;
 import org.apache.hc.client5.http.config.TlsConfig;
@@ -27,131 +39,483 @@ import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
 import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
 import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
 import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.nio.AsyncClientConnectionManager;
+import org.apache.hc.client5.http.nio.AsyncConnectionEndpoint;
 import org.apache.hc.client5.http.protocol.HttpClientContext;
 import org.apache.hc.core5.concurrent.FutureCallback;
 import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HeaderElements;
 import org.apache.hc.core5.http.HttpException;
 import org.apache.hc.core5.http.HttpHeaders;
 import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.Message;
 import org.apache.hc.core5.http.config.Http1Config;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.apache.hc.core5.http.message.BasicHttpRequest;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
 import org.apache.hc.core5.http.nio.AsyncRequestProducer;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
 import org.apache.hc.core5.http.nio.entity.FileEntityProducer;
 import org.apache.hc.core5.http.nio.support.AsyncRequestBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
 import org.apache.hc.core5.http2.HttpVersionPolicy;
 import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.reactive.ReactiveResponseConsumer;
+import org.apache.hc.core5.reactor.ConnectionInitiator;
 import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
 import org.apache.hc.core5.util.Timeout;
 import org.apache.hc.core5.util.VersionInfo;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 
-public class ApacheHttpAsyncClientV5 implements HttpAgent {
+public class ApacheHttpAsyncClientV5 implements HttpAgent, HttpAgent.Variants, PoolTelemetry.Source {
 
-    private final PoolingAsyncClientConnectionManager mgr;
-    private final CloseableHttpAsyncClient httpclient;
+    /**
+     * Consumes content as fast as it arrives without ever limiting the input capacity.
+     */
+    static final String UNBOUNDED = "unbounded";
 
-    public ApacheHttpAsyncClientV5() throws Exception {
+    /**
+     * Grants input capacity of one session buffer and replenishes it only as
+     * content gets processed.
+     */
+    static final String BOUNDED = "bounded";
+
+    /**
+     * Consumes content as a reactive streams publisher, requesting one chunk at a time.
+     */
+    static final String REACTIVE = "reactive";
+
+    private PoolingAsyncClientConnectionManager[] mgrs;
+    private LeaseTrackingConnectionManager[] leaseTrackers;
+    private TimingDnsResolver[] dnsResolvers;
+    private CloseableHttpAsyncClient[] httpclients;
+
+    public ApacheHttpAsyncClientV5() {
         super();
-        this.mgr = PoolingAsyncClientConnectionManagerBuilder.create()
-                .build();
-        this.httpclient = HttpAsyncClients.createMinimal(
-                H2Config.DEFAULT,
-                Http1Config.custom()
-                        .setBufferSize(8 * 1024)
-                        .setChunkSizeHint(8 * 1024)
-                        .build(),
-                IOReactorConfig.custom()
-                        .setRcvBufSize(8 * 1024)
-                        .setSndBufSize(8 * 1024)
-                        .setSoTimeout(Timeout.ofMinutes(1))
-                        .build(),
-                this.mgr);
     }
 
     @Override
-    public void init() {
-        this.httpclient.start();
+    public void init(final BenchmarkConfig config) {
+        final String variant = config.getVariant();
+        if (variant != null && !UNBOUNDED.equals(variant) && !BOUNDED.equals(variant) && !REACTIVE.equals(variant)) {
+            throw new IllegalArgumentException("Unsupported variant: " + variant);
+        }
+        // Each shard is an independent client with its own I/O reactor and connection pool
+        final int shards = Math.max(config.getShards(), 1);
+        this.mgrs = new PoolingAsyncClientConnectionManager[shards];
+        this.leaseTrackers = new LeaseTrackingConnectionManager[shards];
+        this.dnsResolvers = new TimingDnsResolver[shards];
+        this.httpclients = new CloseableHttpAsyncClient[shards];
+        for (int i = 0; i < shards; i++) {
+            final IOReactorConfig.Builder ioReactorConfigBuilder = IOReactorConfig.custom()
+                    .setRcvBufSize(config.getSocketRcvBufSize())
+                    .setSndBufSize(config.getSocketSndBufSize())
+                    .setTcpNoDelay(config.isTcpNoDelay())
+                    .setSoTimeout(Timeout.ofMinutes(1));
+            if (config.getIoThreads() > 0) {
+                ioReactorConfigBuilder.setIoThreadCount(config.getIoThreads());
+            }
+            this.dnsResolvers[i] = new TimingDnsResolver(SystemDefaultDnsResolver.INSTANCE);
+            this.mgrs[i] = PoolingAsyncClientConnectionManagerBuilder.create()
+                    .setDnsResolver(this.dnsResolvers[i])
+                    .build();
+            this.leaseTrackers[i] = new LeaseTrackingConnectionManager(this.mgrs[i]);
+            final Http1Config http1Config = Http1Config.custom()
+                    .setBufferSize(config.getIoBufferSize())
+                    .setChunkSizeHint(config.getChunkSizeHint())
+                    .build();
+            if (config.isFullChain()) {
+                this.httpclients[i] = HttpAsyncClients.custom()
+                        .setH2Config(H2Config.DEFAULT)
+                        .setHttp1Config(http1Config)
+                        .setIOReactorConfig(ioReactorConfigBuilder.build())
+                        .setConnectionManager(this.leaseTrackers[i])
+                        .build();
+            } else {
+                this.httpclients[i] = HttpAsyncClients.createMinimal(
+                        H2Config.DEFAULT,
+                        http1Config,
+                        ioReactorConfigBuilder.build(),
+                        this.leaseTrackers[i]);
+            }
+            this.httpclients[i].start();
+        }
     }
 
     @Override
     public void shutdown() throws IOException {
-        this.httpclient.close();
+        for (final CloseableHttpAsyncClient httpclient : this.httpclients) {
+            httpclient.close();
+        }
     }
 
     @Override
     public Stats execute(final BenchmarkConfig config) throws Exception {
-        this.mgr.setDefaultTlsConfig(TlsConfig.custom()
-                .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_1)
-                .build());
-        this.mgr.setDefaultConnectionConfig(ConnectionConfig.custom()
-                .setSocketTimeout(Timeout.ofMilliseconds(config.getTimeout()))
-                .setConnectTimeout(Timeout.ofMilliseconds(config.getTimeout()))
-                .build());
-        this.mgr.setDefaultMaxPerRoute(config.getConcurrency());
-        this.mgr.setMaxTotal(2000);
+        final int shards = this.httpclients.length;
+        for (final PoolingAsyncClientConnectionManager mgr : this.mgrs) {
+            mgr.setDefaultTlsConfig(TlsConfig.custom()
+                    .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_1)
+                    .build());
+            mgr.setDefaultConnectionConfig(ConnectionConfig.custom()
+                    .setSocketTimeout(Timeout.ofMilliseconds(config.getTimeout()))
+                    .setConnectTimeout(Timeout.ofMilliseconds(config.getTimeout()))
+                    .build());
+            mgr.setDefaultMaxPerRoute((config.getConcurrency() + shards - 1) / shards);
+            mgr.setMaxTotal(Math.max(2000, (config.getConcurrency() + shards - 1) / shards));
+        }
+        final String variant = config.getVariant() != null ? config.getVariant() : UNBOUNDED;
         final Stats stats = new Stats(config.getRequests(), config.getConcurrency());
+        for (int i = 0; i < shards; i++) {
+            this.leaseTrackers[i].setStats(stats);
+            this.dnsResolvers[i].setStats(stats);
+        }
+        final ContentProcessor processor = ContentProcessor.create(config);
 
-        final URI target = config.getUri();
-
-        final Semaphore semaphore = new Semaphore(config.getConcurrency());
-        for (int i = 0; i < config.getRequests(); i++) {
-            final AsyncRequestBuilder requestBuilder;
-            if (config.getFile() == null) {
-                requestBuilder = AsyncRequestBuilder.get(target);
+        final Semaphore semaphore = InFlightLimit.create(config);
+        final Header[] headers = config.isReuseRequests() ? createHeaders(config) : null;
+        final List<Map.Entry<String, String>> requestHeaders = HeaderProfile.getRequestHeaders(config);
+        final boolean readHeaders = config.getResponseHeaderCount() > 0;
+        final FutureCallback<Void> sharedCallback = config.isReuseRequests() ? releasingCallback(semaphore) : null;
+        final MethodMix mix = MethodMix.of(config);
+        for (int i = 0; i < config.getRequests() && !stats.isClosed(); i++) {
+            final URI target = config.getUri(i);
+            final MethodMix.Method method = mix.get(i);
+            final AsyncRequestProducer request;
+            if (headers != null) {
+                // Request messages get modified by protocol interceptors and cannot be shared
+                final BasicHttpRequest message = new BasicHttpRequest(method.getName(), target);
+                message.setHeaders(headers);
+                request = new BasicRequestProducer(message, createEntityProducer(method));
             } else {
-                requestBuilder = AsyncRequestBuilder.put(target)
-                        .setEntity(new FileEntityProducer(
-                                config.getFile(),
-                                config.getContentType() != null ? ContentType.parse(config.getContentType()) : null));
+                final AsyncRequestBuilder requestBuilder = AsyncRequestBuilder.create(method.getName())
+                        .setUri(target)
+                        .setEntity(createEntityProducer(method));
+                if (!config.isKeepAlive()) {
+                    requestBuilder.addHeader(HttpHeaders.CONNECTION, HeaderElements.CLOSE);
+                }
+                if (config.isCompression()) {
+                    requestBuilder.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+                }
+                for (final Map.Entry<String, String> header : requestHeaders) {
+                    requestBuilder.addHeader(header.getKey(), header.getValue());
+                }
+                request = requestBuilder.build();
             }
-            if (!config.isKeepAlive()) {
-                requestBuilder.addHeader(HttpHeaders.CONNECTION, HeaderElements.CLOSE);
-            }
-            final AsyncRequestProducer request = requestBuilder.build();
             final HttpClientContext clientContext = HttpClientContext.create();
+            final long admissionTime = System.nanoTime();
             semaphore.acquire();
-            this.httpclient.execute(
-                    request,
-                    new BenchmarkResponseConsumer(stats),
-                    clientContext,
-                    new FutureCallback<Void>() {
+            final long startTime = System.nanoTime();
+            BenchmarkEvents.requestStart(startTime);
+            stats.admission(admissionTime, startTime);
+            final int shard = i % shards;
+            if (UNBOUNDED.equals(variant) && processor == null) {
+                final BenchmarkResponseConsumer responseConsumer = new BenchmarkResponseConsumer(
+                        stats, startTime, method, clientContext, readHeaders);
+                this.leaseTrackers[shard].expectLease(responseConsumer);
+                this.httpclients[shard].execute(
+                        request,
+                        responseConsumer,
+                        clientContext,
+                        sharedCallback != null ? sharedCallback : releasingCallback(semaphore));
+            } else {
+                // The exchange holds its permit until all content has been processed
+                final ProcessingExchange exchange;
+                if (REACTIVE.equals(variant)) {
+                    exchange = new ReactiveExchange(
+                            stats, startTime, method, clientContext, semaphore, processor, readHeaders);
+                } else {
+                    exchange = new ProcessingResponseConsumer(
+                            stats, startTime, method, clientContext, semaphore, processor, readHeaders,
+                            BOUNDED.equals(variant) ? config.getIoBufferSize() : Integer.MAX_VALUE);
+                }
+                this.leaseTrackers[shard].expectLease(exchange);
+                this.httpclients[shard].execute(
+                        request,
+                        exchange.getResponseConsumer(),
+                        clientContext,
+                        null);
+            }
+        }
+
+        stats.waitFor();
+        if (processor != null) {
+            stats.setPeakBuffered(processor.getPeakBuffered());
+            processor.shutdown();
+        }
+        return stats;
+    }
+
+    static Header[] createHeaders(final BenchmarkConfig config) {
+        final List<Header> headers = new ArrayList<>();
+        if (!config.isKeepAlive()) {
+            headers.add(new BasicHeader(HttpHeaders.CONNECTION, HeaderElements.CLOSE));
+        }
+        if (config.isCompression()) {
+            headers.add(new BasicHeader(HttpHeaders.ACCEPT_ENCODING, "gzip"));
+        }
+        for (final Map.Entry<String, String> header : HeaderProfile.getRequestHeaders(config)) {
+            headers.add(new BasicHeader(header.getKey(), header.getValue()));
+        }
+        return headers.toArray(new Header[0]);
+    }
+
+    static AsyncEntityProducer createEntityProducer(final MethodMix.Method method) {
+        if (method.getFile() == null) {
+            return null;
+        }
+        return new FileEntityProducer(
+                method.getFile(),
+                method.getContentType() != null ? ContentType.parse(method.getContentType()) : null);
+    }
+
+    static FutureCallback<Void> releasingCallback(final Semaphore semaphore) {
+        return new FutureCallback<Void>() {
+
+            @Override
+            public void completed(final Void result) {
+                semaphore.release();
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                semaphore.release();
+            }
+
+            @Override
+            public void cancelled() {
+                semaphore.release();
+            }
+
+        };
+    }
+
+    interface LeaseListener {
+
+        void leased();
+
+    }
+
+    /**
+     * Notifies the lease listener of the next request submitted by the calling
+     * thread once a connection has been leased for it. The minimal client leases
+     * connections from within {@code execute} on the calling thread, and the pool
+     * completes the lease either right away or once another request releases
+     * its connection. Connects of new connections get timed as well.
+     */
+    static class LeaseTrackingConnectionManager implements AsyncClientConnectionManager {
+
+        private final AsyncClientConnectionManager connManager;
+        private final ThreadLocal<LeaseListener> pending;
+
+        private volatile Stats stats;
+
+        LeaseTrackingConnectionManager(final AsyncClientConnectionManager connManager) {
+            this.connManager = connManager;
+            this.pending = new ThreadLocal<>();
+        }
+
+        void setStats(final Stats stats) {
+            this.stats = stats;
+        }
+
+        void expectLease(final LeaseListener listener) {
+            pending.set(listener);
+        }
+
+        @Override
+        public Future<AsyncConnectionEndpoint> lease(
+                final String id,
+                final HttpRoute route,
+                final Object state,
+                final Timeout requestTimeout,
+                final FutureCallback<AsyncConnectionEndpoint> callback) {
+            final LeaseListener listener = pending.get();
+            pending.remove();
+            if (listener == null) {
+                return connManager.lease(id, route, state, requestTimeout, callback);
+            }
+            return connManager.lease(id, route, state, requestTimeout, new FutureCallback<AsyncConnectionEndpoint>() {
+
+                @Override
+                public void completed(final AsyncConnectionEndpoint endpoint) {
+                    listener.leased();
+                    if (callback != null) {
+                        callback.completed(endpoint);
+                    }
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    if (callback != null) {
+                        callback.failed(ex);
+                    }
+                }
+
+                @Override
+                public void cancelled() {
+                    if (callback != null) {
+                        callback.cancelled();
+                    }
+                }
+
+            });
+        }
+
+        @Override
+        public void release(final AsyncConnectionEndpoint endpoint, final Object newState, final TimeValue validDuration) {
+            connManager.release(endpoint, newState, validDuration);
+        }
+
+        @Override
+        public Future<AsyncConnectionEndpoint> connect(
+                final AsyncConnectionEndpoint endpoint,
+                final ConnectionInitiator connectionInitiator,
+                final Timeout connectTimeout,
+                final Object attachment,
+                final HttpContext context,
+                final FutureCallback<AsyncConnectionEndpoint> callback) {
+            final Stats current = stats;
+            if (current == null) {
+                return connManager.connect(endpoint, connectionInitiator, connectTimeout, attachment, context, callback);
+            }
+            final long connectStartTime = System.nanoTime();
+            return connManager.connect(endpoint, connectionInitiator, connectTimeout, attachment, context,
+                    new FutureCallback<AsyncConnectionEndpoint>() {
 
                         @Override
-                        public void completed(final Void result) {
-                            semaphore.release();
+                        public void completed(final AsyncConnectionEndpoint result) {
+                            current.connect(connectStartTime, System.nanoTime());
+                            if (callback != null) {
+                                callback.completed(result);
+                            }
                         }
 
                         @Override
                         public void failed(final Exception ex) {
-                            semaphore.release();
+                            if (callback != null) {
+                                callback.failed(ex);
+                            }
                         }
 
                         @Override
                         public void cancelled() {
-                            semaphore.release();
+                            if (callback != null) {
+                                callback.cancelled();
+                            }
                         }
 
                     });
         }
 
-        stats.waitFor();
-        return stats;
+        @Override
+        public void upgrade(final AsyncConnectionEndpoint endpoint, final Object attachment, final HttpContext context) {
+            connManager.upgrade(endpoint, attachment, context);
+        }
+
+        @Override
+        public void close(final CloseMode closeMode) {
+            connManager.close(closeMode);
+        }
+
+        @Override
+        public void close() throws IOException {
+            connManager.close();
+        }
+
     }
 
-    static class BenchmarkResponseConsumer extends AbstractBinResponseConsumer<Void> {
+    /**
+     * Times host name resolution. The connection operator resolves names while
+     * connecting, so resolution is part of the connect time too.
+     */
+    static class TimingDnsResolver implements DnsResolver {
+
+        private final DnsResolver dnsResolver;
+
+        private volatile Stats stats;
+
+        TimingDnsResolver(final DnsResolver dnsResolver) {
+            this.dnsResolver = dnsResolver;
+        }
+
+        void setStats(final Stats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        public InetAddress[] resolve(final String host) throws UnknownHostException {
+            final long startTime = System.nanoTime();
+            final InetAddress[] addresses = dnsResolver.resolve(host);
+            final Stats current = stats;
+            if (current != null) {
+                current.dns(startTime, System.nanoTime());
+            }
+            return addresses;
+        }
+
+        @Override
+        public String resolveCanonicalHostname(final String host) throws UnknownHostException {
+            return dnsResolver.resolveCanonicalHostname(host);
+        }
+
+    }
+
+    static class BenchmarkResponseConsumer extends AbstractBinResponseConsumer<Void> implements LeaseListener {
 
         private final Stats stats;
+        private final long startTime;
+        private final MethodMix.Method method;
+        private final HttpClientContext clientContext;
+        private final boolean readHeaders;
 
+        private volatile long leaseTime = Stats.UNKNOWN;
         private int status;
+        private long headersTime;
         private long contentLen = 0;
+        private GzipDecoder decoder;
 
-        BenchmarkResponseConsumer(final Stats stats) {
+        BenchmarkResponseConsumer(
+                final Stats stats,
+                final long startTime,
+                final MethodMix.Method method,
+                final HttpClientContext clientContext,
+                final boolean readHeaders) {
             super();
             this.stats = stats;
+            this.startTime = startTime;
+            this.method = method;
+            this.clientContext = clientContext;
+            this.readHeaders = readHeaders;
+        }
+
+        @Override
+        public void leased() {
+            if (leaseTime == Stats.UNKNOWN) {
+                leaseTime = System.nanoTime();
+            }
         }
 
         @Override
         protected void start(final HttpResponse response, final ContentType contentType) throws HttpException, IOException {
             status = response.getCode();
+            headersTime = stats.responseHeaders(startTime, status);
+            if (readHeaders) {
+                ApacheHttpClientV5.readHeaders(response, stats);
+            }
+            // HttpAsyncClient 5.2 has no content decoding of its own
+            final Header contentEncoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+            if (contentEncoding != null && GzipDecoder.isGzip(contentEncoding.getValue())) {
+                decoder = new GzipDecoder();
+            }
         }
 
         @Override
@@ -161,28 +525,351 @@ public class ApacheHttpAsyncClientV5 implements HttpAgent {
 
         @Override
         protected void data(final ByteBuffer src, final boolean endOfStream) throws IOException {
-            contentLen += src.remaining();
+            if (decoder != null) {
+                contentLen += decoder.decode(src);
+            } else {
+                contentLen += src.remaining();
+            }
         }
 
         @Override
         public void failed(final Exception ex) {
-            stats.failure(contentLen);
+            stats.failure(startTime, leaseTime, 0, ApacheHttpClientV5.getConnectionId(clientContext),
+                    contentLen, method);
         }
 
         @Override
         protected Void buildResult() {
-            if (this.status == 200) {
-                stats.success(contentLen);
+            stats.responseBody(headersTime);
+            final long connectionId = ApacheHttpClientV5.getConnectionId(clientContext);
+            if (Stats.isSuccessful(this.status)) {
+                stats.success(startTime, leaseTime, this.status, connectionId, contentLen, method);
             } else {
-                stats.failure(contentLen);
+                stats.failure(startTime, leaseTime, this.status, connectionId, contentLen, method);
             }
             return null;
         }
 
         @Override
         public void releaseResources() {
+            if (decoder != null) {
+                decoder.release();
+                decoder = null;
+            }
+        }
+
+    }
+
+    /**
+     * Response exchange whose content is handed to a {@link ContentProcessor}
+     * if one is given, or processed as it arrives otherwise. The exchange
+     * counts as completed once all of its content has been processed.
+     */
+    abstract static class ProcessingExchange implements LeaseListener, ContentProcessor.Listener {
+
+        private final Stats stats;
+        private final long startTime;
+        private final MethodMix.Method method;
+        private final HttpClientContext clientContext;
+        private final Semaphore semaphore;
+        private final ContentProcessor.Channel channel;
+        private final boolean readHeaders;
+        private final AtomicBoolean done;
+
+        private volatile long leaseTime = Stats.UNKNOWN;
+        private volatile int status;
+        private volatile long headersTime;
+        private volatile GzipDecoder decoder;
+        private long contentLen = 0;
+
+        ProcessingExchange(
+                final Stats stats,
+                final long startTime,
+                final MethodMix.Method method,
+                final HttpClientContext clientContext,
+                final Semaphore semaphore,
+                final ContentProcessor processor,
+                final boolean readHeaders) {
+            this.stats = stats;
+            this.startTime = startTime;
+            this.method = method;
+            this.clientContext = clientContext;
+            this.semaphore = semaphore;
+            this.channel = processor != null ? processor.open(this) : null;
+            this.readHeaders = readHeaders;
+            this.done = new AtomicBoolean();
         }
 
+        abstract AsyncResponseConsumer<Void> getResponseConsumer();
+
+        /**
+         * Signals that the given number of bytes has been processed and more
+         * content can be accepted.
+         */
+        abstract void demand(int processed);
+
+        @Override
+        public void leased() {
+            if (leaseTime == Stats.UNKNOWN) {
+                leaseTime = System.nanoTime();
+            }
+        }
+
+        void responseReceived(final HttpResponse response) {
+            status = response.getCode();
+            headersTime = stats.responseHeaders(startTime, status);
+            if (readHeaders) {
+                ApacheHttpClientV5.readHeaders(response, stats);
+            }
+            final Header contentEncoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+            if (contentEncoding != null && GzipDecoder.isGzip(contentEncoding.getValue())) {
+                decoder = new GzipDecoder();
+            }
+        }
+
+        void contentReceived(final ByteBuffer src) throws IOException {
+            if (channel != null) {
+                channel.submit(src);
+            } else {
+                processed(src);
+            }
+        }
+
+        void contentEnded() {
+            if (channel != null) {
+                channel.end();
+            } else {
+                completed();
+            }
+        }
+
+        @Override
+        public void processed(final ByteBuffer src) throws IOException {
+            final int len = src.remaining();
+            if (decoder != null) {
+                contentLen += decoder.decode(src);
+            } else {
+                contentLen += len;
+            }
+            demand(len);
+        }
+
+        @Override
+        public void completed() {
+            finish(Stats.isSuccessful(status));
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            if (channel != null) {
+                channel.close();
+            }
+            finish(false);
+        }
+
+        private void finish(final boolean success) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            if (status != 0) {
+                // Includes processing of the content by a slow consumer
+                stats.responseBody(headersTime);
+            }
+            final long connectionId = ApacheHttpClientV5.getConnectionId(clientContext);
+            if (success) {
+                stats.success(startTime, leaseTime, status, connectionId, contentLen, method);
+            } else {
+                stats.failure(startTime, leaseTime, status, connectionId, contentLen, method);
+            }
+            if (decoder != null) {
+                decoder.release();
+                decoder = null;
+            }
+            semaphore.release();
+        }
+
+    }
+
+    /**
+     * Response consumer that drives the {@link CapacityChannel} itself: it grants
+     * the given capacity up front and returns capacity only for content that
+     * has been processed.
+     */
+    static class ProcessingResponseConsumer extends ProcessingExchange implements AsyncResponseConsumer<Void> {
+
+        private final int window;
+
+        private volatile CapacityChannel capacityChannel;
+        private boolean granted;
+
+        ProcessingResponseConsumer(
+                final Stats stats,
+                final long startTime,
+                final MethodMix.Method method,
+                final HttpClientContext clientContext,
+                final Semaphore semaphore,
+                final ContentProcessor processor,
+                final boolean readHeaders,
+                final int window) {
+            super(stats, startTime, method, clientContext, semaphore, processor, readHeaders);
+            this.window = window;
+        }
+
+        @Override
+        AsyncResponseConsumer<Void> getResponseConsumer() {
+            return this;
+        }
+
+        @Override
+        void demand(final int processed) {
+            final CapacityChannel channel = capacityChannel;
+            if (window != Integer.MAX_VALUE && channel != null && processed > 0) {
+                try {
+                    channel.update(processed);
+                } catch (final IOException ex) {
+                    failed(ex);
+                }
+            }
+        }
+
+        @Override
+        public void consumeResponse(
+                final HttpResponse response,
+                final EntityDetails entityDetails,
+                final HttpContext context,
+                final FutureCallback<Void> resultCallback) throws HttpException, IOException {
+            responseReceived(response);
+            if (entityDetails == null) {
+                contentEnded();
+            }
+            if (resultCallback != null) {
+                resultCallback.completed(null);
+            }
+        }
+
+        @Override
+        public void informationResponse(final HttpResponse response, final HttpContext context) {
+        }
+
+        @Override
+        public void updateCapacity(final CapacityChannel capacityChannel) throws IOException {
+            this.capacityChannel = capacityChannel;
+            if (window == Integer.MAX_VALUE) {
+                capacityChannel.update(Integer.MAX_VALUE);
+            } else if (!granted) {
+                granted = true;
+                capacityChannel.update(window);
+            }
+        }
+
+        @Override
+        public void consume(final ByteBuffer src) throws IOException {
+            contentReceived(src);
+        }
+
+        @Override
+        public void streamEnd(final List<? extends Header> trailers) {
+            contentEnded();
+        }
+
+        @Override
+        public void releaseResources() {
+        }
+
+    }
+
+    /**
+     * Exchange based on {@link ReactiveResponseConsumer}. Content is requested
+     * from the publisher one chunk at a time, each once the previous one has
+     * been processed.
+     */
+    static class ReactiveExchange extends ProcessingExchange
+            implements FutureCallback<Message<HttpResponse, Publisher<ByteBuffer>>>, Subscriber<ByteBuffer> {
+
+        private final ReactiveResponseConsumer responseConsumer;
+
+        private volatile Subscription subscription;
+
+        ReactiveExchange(
+                final Stats stats,
+                final long startTime,
+                final MethodMix.Method method,
+                final HttpClientContext clientContext,
+                final Semaphore semaphore,
+                final ContentProcessor processor,
+                final boolean readHeaders) {
+            super(stats, startTime, method, clientContext, semaphore, processor, readHeaders);
+            this.responseConsumer = new ReactiveResponseConsumer(this);
+        }
+
+        @Override
+        AsyncResponseConsumer<Void> getResponseConsumer() {
+            return responseConsumer;
+        }
+
+        @Override
+        void demand(final int processed) {
+            subscription.request(1);
+        }
+
+        @Override
+        public void completed(final Message<HttpResponse, Publisher<ByteBuffer>> message) {
+            responseReceived(message.getHead());
+            if (message.getBody() != null) {
+                message.getBody().subscribe(this);
+            } else {
+                contentEnded();
+            }
+        }
+
+        @Override
+        public void cancelled() {
+            failed(new CancellationException());
+        }
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(final ByteBuffer src) {
+            try {
+                contentReceived(src);
+            } catch (final IOException ex) {
+                subscription.cancel();
+                failed(ex);
+            }
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            failed(throwable instanceof Exception ? (Exception) throwable : new ExecutionException(throwable));
+        }
+
+        @Override
+        public void onComplete() {
+            contentEnded();
+        }
+
+    }
+
+    @Override
+    public PoolTelemetry.Sample samplePool() {
+        int leased = 0;
+        int available = 0;
+        int pending = 0;
+        int max = 0;
+        for (final PoolingAsyncClientConnectionManager mgr : this.mgrs) {
+            final PoolStats totals = mgr.getTotalStats();
+            leased += totals.getLeased();
+            available += totals.getAvailable();
+            pending += totals.getPending();
+            // The benchmark executes requests against a single route
+            max += Math.min(totals.getMax(), mgr.getDefaultMaxPerRoute());
+        }
+        return new PoolTelemetry.Sample(leased, available, pending, max);
     }
 
     @Override
@@ -18,11 +18,18 @@ package com.ok2c.http.client.benchmark;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.List;
+import java.util.Map;
 
+import org.apache.http.Header;
+import org.apache.http.HttpConnection;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpInetConnection;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipDecompressingEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
@@ -32,30 +39,44 @@ import org.apache.http.config.SocketConfig;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.FileEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.VersionInfo;
 
-public class ApacheHttpClientV4 implements HttpAgent {
+public class ApacheHttpClientV4 implements HttpAgent, PoolTelemetry.Source {
 
-    private final PoolingHttpClientConnectionManager mgr;
-    private final CloseableHttpClient httpclient;
+    private PoolingHttpClientConnectionManager mgr;
+    private CloseableHttpClient httpclient;
 
     public ApacheHttpClientV4() {
         super();
+    }
+
+    @Override
+    public void init(final BenchmarkConfig config) {
         this.mgr = new PoolingHttpClientConnectionManager();
         this.mgr.setDefaultConnectionConfig(ConnectionConfig.custom()
-                .setBufferSize(8 * 1024)
-                .setFragmentSizeHint(8 * 1024)
+                .setBufferSize(config.getIoBufferSize())
+                .setFragmentSizeHint(config.getChunkSizeHint())
                 .build());
         this.mgr.setDefaultSocketConfig(SocketConfig.custom()
                 .setSoTimeout(60000)
+                .setRcvBufSize(config.getSocketRcvBufSize())
+                .setSndBufSize(config.getSocketSndBufSize())
+                .setTcpNoDelay(config.isTcpNoDelay())
                 .build());
-        this.httpclient = HttpClients.createMinimal(this.mgr);
-    }
-
-    @Override
-    public void init() {
+        if (config.isFullChain()) {
+            final HttpClientBuilder builder = HttpClients.custom()
+                    .setConnectionManager(this.mgr);
+            if (!config.isCompression()) {
+                builder.disableContentCompression();
+            }
+            this.httpclient = builder.build();
+        } else {
+            this.httpclient = HttpClients.createMinimal(this.mgr);
+        }
     }
 
     @Override
@@ -65,13 +86,13 @@ public class ApacheHttpClientV4 implements HttpAgent {
 
     @Override
     public Stats execute(final BenchmarkConfig config) throws Exception {
-        this.mgr.setMaxTotal(2000);
+        this.mgr.setMaxTotal(Math.max(2000, config.getConcurrency()));
         this.mgr.setDefaultMaxPerRoute(config.getConcurrency());
 
         final Stats stats = new Stats(config.getRequests(), config.getConcurrency());
         final WorkerThread[] workers = new WorkerThread[config.getConcurrency()];
         for (int i = 0; i < workers.length; i++) {
-            workers[i] = new WorkerThread(stats, config);
+            workers[i] = new WorkerThread(stats, config, i);
         }
         for (final WorkerThread worker : workers) {
             worker.start();
@@ -86,47 +107,81 @@ public class ApacheHttpClientV4 implements HttpAgent {
 
         private final Stats stats;
         private final BenchmarkConfig config;
+        private final int index;
 
-        WorkerThread(final Stats stats, final BenchmarkConfig config) {
+        WorkerThread(final Stats stats, final BenchmarkConfig config, final int index) {
             super();
             this.stats = stats;
             this.config = config;
+            this.index = index;
         }
 
         @Override
         public void run() {
-            final byte[] buffer = new byte[4096];
+            final byte[] buffer = new byte[config.getReadBufferSize()];
 
-            final URI target = config.getUri();
+            // Workers stick to one target, so that connections do not get spread over all of them
+            final URI target = config.getUri(index);
+            // Limits workers executing requests at a time during load profile runs
+            final InFlightLimit limit = config.getInFlightLimit();
+            final List<Map.Entry<String, String>> requestHeaders = HeaderProfile.getRequestHeaders(config);
 
             final HttpHost targetHost = new HttpHost(target.getHost(), target.getPort(), target.getScheme());
             final RequestConfig requestConfig = RequestConfig.custom()
                     .setConnectTimeout(config.getTimeout())
                     .setSocketTimeout(config.getTimeout())
                     .build();
+            final MethodMix mix = MethodMix.of(config);
 
-            while (!this.stats.isComplete()) {
+            for (long n = 0; !this.stats.isComplete(); n++) {
+                final MethodMix.Method method = mix.get(this.index + n * config.getConcurrency());
                 final HttpUriRequest request;
-                if (config.getFile() == null) {
-                    request = RequestBuilder.get(target)
+                if (method.getFile() == null) {
+                    request = RequestBuilder.create(method.getName())
+                            .setUri(target)
                             .build();
                 } else {
-                    request = RequestBuilder.put(target)
+                    request = RequestBuilder.create(method.getName())
+                            .setUri(target)
                             .setEntity(new FileEntity(
-                                    config.getFile(),
-                                    config.getContentType() != null ? ContentType.parse(config.getContentType()) : null))
+                                    method.getFile(),
+                                    method.getContentType() != null ? ContentType.parse(method.getContentType()) : null))
                             .build();
                 }
                 if (!config.isKeepAlive()) {
                     request.addHeader(HttpHeaders.CONNECTION, "close");
                 }
+                if (config.isCompression()) {
+                    request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+                }
+                for (final Map.Entry<String, String> header : requestHeaders) {
+                    request.addHeader(header.getKey(), header.getValue());
+                }
 
                 final HttpClientContext clientContext = HttpClientContext.create();
                 clientContext.setRequestConfig(requestConfig);
 
+                if (limit != null) {
+                    limit.acquireUninterruptibly();
+                }
+                final long startTime = System.nanoTime();
+                BenchmarkEvents.requestStart(startTime);
                 long contentLen = 0;
                 try (final CloseableHttpResponse response = httpclient.execute(targetHost, request, clientContext)) {
-                    final HttpEntity entity = response.getEntity();
+                    final long headersTime = this.stats.responseHeaders(startTime, response.getStatusLine().getStatusCode());
+                    // The connection is still leased while the response is open
+                    final long connectionId = getConnectionId(clientContext);
+                    if (config.getResponseHeaderCount() > 0) {
+                        readHeaders(response, this.stats);
+                    }
+                    HttpEntity entity = response.getEntity();
+                    // The full protocol chain has decoded content already
+                    if (entity != null && config.isCompression() && !config.isFullChain()
+                            && entity.getContentEncoding() != null
+                            && GzipDecoder.isGzip(entity.getContentEncoding().getValue())) {
+                        // Same decoding as done by ResponseContentEncoding of the full protocol chain
+                        entity = new GzipDecompressingEntity(entity);
+                    }
                     if (entity != null) {
                         final InputStream instream = entity.getContent();
                         contentLen = 0;
@@ -141,19 +196,56 @@ public class ApacheHttpClientV4 implements HttpAgent {
                             }
                         }
                     }
-                    if (response.getStatusLine().getStatusCode() == 200) {
-                        this.stats.success(contentLen);
+                    this.stats.responseBody(headersTime);
+                    final int status = response.getStatusLine().getStatusCode();
+                    if (Stats.isSuccessful(status)) {
+                        this.stats.success(startTime, Stats.UNKNOWN, status, connectionId, contentLen, method);
                     } else {
-                        this.stats.failure(contentLen);
+                        this.stats.failure(startTime, Stats.UNKNOWN, status, connectionId, contentLen, method);
                     }
                 } catch (final IOException ex) {
-                    this.stats.failure(contentLen);
+                    this.stats.failure(startTime, Stats.UNKNOWN, 0, 0, contentLen, method);
+                }
+                if (limit != null) {
+                    limit.release();
                 }
             }
         }
 
     }
 
+    /**
+     * Returns the local port of the connection the request was executed over
+     * or {@code 0} if not known.
+     */
+    static long getConnectionId(final HttpClientContext context) {
+        final HttpConnection conn = context.getConnection();
+        return conn instanceof HttpInetConnection ? ((HttpInetConnection) conn).getLocalPort() : 0;
+    }
+
+    /**
+     * Reads all response headers, as an application processing them would.
+     */
+    static void readHeaders(final HttpResponse response, final Stats stats) {
+        final Header[] headers = response.getAllHeaders();
+        long len = 0;
+        for (final Header header : headers) {
+            len += header.getName().length() + header.getValue().length();
+        }
+        stats.headersRead(headers.length, len);
+    }
+
+    @Override
+    public PoolTelemetry.Sample samplePool() {
+        final PoolStats totals = this.mgr.getTotalStats();
+        // The benchmark executes requests against a single route
+        return new PoolTelemetry.Sample(
+                totals.getLeased(),
+                totals.getAvailable(),
+                totals.getPending(),
+                Math.min(totals.getMax(), this.mgr.getDefaultMaxPerRoute()));
+    }
+
     @Override
     public String getClientName() {
         final VersionInfo vinfo = VersionInfo.loadVersionInfo(
@@ -17,10 +17,16 @@ package com.ok2c.http.client.benchmark;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.URI;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.entity.GzipDecompressingEntity;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.client5.http.impl.io.DefaultHttpResponseParserFactory;
 import org.apache.hc.client5.http.impl.io.ManagedHttpClientConnectionFactory;
@@ -30,39 +36,58 @@ import org.apache.hc.client5.http.protocol.HttpClientContext;
 import org.apache.hc.core5.http.ClassicHttpRequest;
 import org.apache.hc.core5.http.ClassicHttpResponse;
 import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EndpointDetails;
+import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HeaderElements;
 import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.HttpHeaders;
 import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.MessageHeaders;
 import org.apache.hc.core5.http.config.CharCodingConfig;
 import org.apache.hc.core5.http.config.Http1Config;
+import org.apache.hc.core5.http.io.SocketConfig;
 import org.apache.hc.core5.http.io.entity.FileEntity;
 import org.apache.hc.core5.http.io.support.ClassicRequestBuilder;
 import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
 import org.apache.hc.core5.util.Timeout;
 import org.apache.hc.core5.util.VersionInfo;
 
-public class ApacheHttpClientV5 implements HttpAgent {
+public class ApacheHttpClientV5 implements HttpAgent, PoolTelemetry.Source {
 
-    private final PoolingHttpClientConnectionManager mgr;
-    private final CloseableHttpClient httpclient;
+    private PoolingHttpClientConnectionManager mgr;
+    private CloseableHttpClient httpclient;
 
     public ApacheHttpClientV5() {
         super();
+    }
+
+    @Override
+    public void init(final BenchmarkConfig config) {
         this.mgr = PoolingHttpClientConnectionManagerBuilder.create()
                 .setConnectionFactory(new ManagedHttpClientConnectionFactory(
                         Http1Config.custom()
-                                .setBufferSize(8 * 1024)
-                                .setChunkSizeHint(8 * 1024)
+                                .setBufferSize(config.getIoBufferSize())
+                                .setChunkSizeHint(config.getChunkSizeHint())
                                 .build(),
                         CharCodingConfig.DEFAULT,
                         DefaultHttpResponseParserFactory.INSTANCE))
+                .setDefaultSocketConfig(SocketConfig.custom()
+                        .setRcvBufSize(config.getSocketRcvBufSize())
+                        .setSndBufSize(config.getSocketSndBufSize())
+                        .setTcpNoDelay(config.isTcpNoDelay())
+                        .build())
                 .build();
-        this.httpclient = HttpClients.createMinimal(this.mgr);
-    }
-
-    @Override
-    public void init() {
+        if (config.isFullChain()) {
+            final HttpClientBuilder builder = HttpClients.custom()
+                    .setConnectionManager(this.mgr);
+            if (!config.isCompression()) {
+                builder.disableContentCompression();
+            }
+            this.httpclient = builder.build();
+        } else {
+            this.httpclient = HttpClients.createMinimal(this.mgr);
+        }
     }
 
     @Override
@@ -72,7 +97,7 @@ public class ApacheHttpClientV5 implements HttpAgent {
 
     @Override
     public Stats execute(final BenchmarkConfig config) throws Exception {
-        this.mgr.setMaxTotal(2000);
+        this.mgr.setMaxTotal(Math.max(2000, config.getConcurrency()));
         this.mgr.setDefaultMaxPerRoute(config.getConcurrency());
         this.mgr.setDefaultConnectionConfig(ConnectionConfig.custom()
                 .setSocketTimeout(Timeout.ofMilliseconds(config.getTimeout()))
@@ -82,7 +107,7 @@ public class ApacheHttpClientV5 implements HttpAgent {
         final Stats stats = new Stats(config.getRequests(), config.getConcurrency());
         final WorkerThread[] workers = new WorkerThread[config.getConcurrency()];
         for (int i = 0; i < workers.length; i++) {
-            workers[i] = new WorkerThread(stats, config);
+            workers[i] = new WorkerThread(stats, config, i);
         }
         for (final WorkerThread worker : workers) {
             worker.start();
@@ -97,41 +122,69 @@ public class ApacheHttpClientV5 implements HttpAgent {
 
         private final Stats stats;
         private final BenchmarkConfig config;
+        private final int index;
 
-        WorkerThread(final Stats stats, final BenchmarkConfig config) {
+        WorkerThread(final Stats stats, final BenchmarkConfig config, final int index) {
             super();
             this.stats = stats;
             this.config = config;
+            this.index = index;
         }
 
         @Override
         public void run() {
-            final byte[] buffer = new byte[4096];
+            final byte[] buffer = new byte[config.getReadBufferSize()];
 
-            final URI target = config.getUri();
+            // Workers stick to one target, so that connections do not get spread over all of them
+            final URI target = config.getUri(index);
+            // Limits workers executing requests at a time during load profile runs
+            final InFlightLimit limit = config.getInFlightLimit();
+            final List<Map.Entry<String, String>> requestHeaders = HeaderProfile.getRequestHeaders(config);
 
             final HttpHost targetHost = new HttpHost(target.getScheme(), target.getHost(), target.getPort());
+            final MethodMix mix = MethodMix.of(config);
 
-            while (!this.stats.isComplete()) {
-                final ClassicRequestBuilder requestBuilder;
-                if (config.getFile() == null) {
-                    requestBuilder = ClassicRequestBuilder.get(target);
-                } else {
-                    requestBuilder = ClassicRequestBuilder.put(target)
-                            .setEntity(new FileEntity(
-                                    config.getFile(),
-                                    config.getContentType() != null ? ContentType.parse(config.getContentType()) : null));
+            for (long n = 0; !this.stats.isComplete(); n++) {
+                final MethodMix.Method method = mix.get(this.index + n * config.getConcurrency());
+                final ClassicRequestBuilder requestBuilder = ClassicRequestBuilder.create(method.getName())
+                        .setUri(target);
+                if (method.getFile() != null) {
+                    requestBuilder.setEntity(new FileEntity(
+                            method.getFile(),
+                            method.getContentType() != null ? ContentType.parse(method.getContentType()) : null));
                 }
                 if (!config.isKeepAlive()) {
                     requestBuilder.addHeader(HttpHeaders.CONNECTION, HeaderElements.CLOSE);
                 }
+                if (config.isCompression()) {
+                    requestBuilder.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+                }
+                for (final Map.Entry<String, String> header : requestHeaders) {
+                    requestBuilder.addHeader(header.getKey(), header.getValue());
+                }
 
                 final ClassicHttpRequest request = requestBuilder.build();
                 final HttpClientContext clientContext = HttpClientContext.create();
 
+                if (limit != null) {
+                    limit.acquireUninterruptibly();
+                }
+                final long startTime = System.nanoTime();
+                BenchmarkEvents.requestStart(startTime);
                 long contentLen = 0;
                 try (final ClassicHttpResponse response = httpclient.executeOpen(targetHost, request, clientContext)) {
-                    final HttpEntity entity = response.getEntity();
+                    final long headersTime = this.stats.responseHeaders(startTime, response.getCode());
+                    final long connectionId = getConnectionId(clientContext);
+                    if (config.getResponseHeaderCount() > 0) {
+                        readHeaders(response, this.stats);
+                    }
+                    HttpEntity entity = response.getEntity();
+                    // The full exec chain has decoded content already
+                    if (entity != null && config.isCompression() && !config.isFullChain()
+                            && GzipDecoder.isGzip(entity.getContentEncoding())) {
+                        // Same decoding as done by ContentCompressionExec of the full exec chain
+                        entity = new GzipDecompressingEntity(entity);
+                    }
                     if (entity != null) {
                         final InputStream instream = entity.getContent();
                         contentLen = 0;
@@ -146,19 +199,56 @@ public class ApacheHttpClientV5 implements HttpAgent {
                             }
                         }
                     }
-                    if (response.getCode() == 200) {
-                        this.stats.success(contentLen);
+                    this.stats.responseBody(headersTime);
+                    if (Stats.isSuccessful(response.getCode())) {
+                        this.stats.success(startTime, Stats.UNKNOWN, response.getCode(), connectionId, contentLen, method);
                     } else {
-                        this.stats.failure(contentLen);
+                        this.stats.failure(startTime, Stats.UNKNOWN, response.getCode(), connectionId, contentLen, method);
                     }
                 } catch (final IOException ex) {
-                    this.stats.failure(contentLen);
+                    this.stats.failure(startTime, Stats.UNKNOWN, 0, 0, contentLen, method);
+                }
+                if (limit != null) {
+                    limit.release();
                 }
             }
         }
 
     }
 
+    /**
+     * Reads all response headers, as an application processing them would.
+     */
+    static void readHeaders(final MessageHeaders response, final Stats stats) {
+        final Header[] headers = response.getHeaders();
+        long len = 0;
+        for (final Header header : headers) {
+            len += header.getName().length() + header.getValue().length();
+        }
+        stats.headersRead(headers.length, len);
+    }
+
+    /**
+     * Returns the local port of the connection the request was executed over
+     * or {@code 0} if not known.
+     */
+    static long getConnectionId(final HttpClientContext context) {
+        final EndpointDetails endpointDetails = context.getEndpointDetails();
+        final SocketAddress localAddress = endpointDetails != null ? endpointDetails.getLocalAddress() : null;
+        return localAddress instanceof InetSocketAddress ? ((InetSocketAddress) localAddress).getPort() : 0;
+    }
+
+    @Override
+    public PoolTelemetry.Sample samplePool() {
+        final PoolStats totals = this.mgr.getTotalStats();
+        // The benchmark executes requests against a single route
+        return new PoolTelemetry.Sample(
+                totals.getLeased(),
+                totals.getAvailable(),
+                totals.getPending(),
+                Math.min(totals.getMax(), this.mgr.getDefaultMaxPerRoute()));
+    }
+
     @Override
     public String getClientName() {
         final VersionInfo vinfo = VersionInfo.loadVersionInfo(
@@ -17,6 +17,8 @@ package com.ok2c.http.client.benchmark;
 
 import java.io.File;
 import java.net.URI;
+import java.util.Collections;
+import java.util.List;
 
 public final class BenchmarkConfig {
 
@@ -27,6 +29,50 @@ public final class BenchmarkConfig {
     private final File file;
     private final String contentType;
     private final int timeout;
+    private final int sweep;
+    private final int ioBufferSize;
+    private final int chunkSizeHint;
+    private final int socketRcvBufSize;
+    private final int socketSndBufSize;
+    private final boolean tcpNoDelay;
+    private final int readBufferSize;
+    private final ParameterMatrix matrix;
+    private final boolean compression;
+    private final List<Integer> compressionRatios;
+    private final int compressionContentLength;
+    private final int warmupTime;
+    private final boolean reuseRequests;
+    private final boolean harnessBaseline;
+    private final int poolTelemetryInterval;
+    private final boolean jfr;
+    private final File jfrFile;
+    private final int ioThreads;
+    private final int shards;
+    private final String variant;
+    private final int consumerDelay;
+    private final int maxMultiplex;
+    private final LoadProfile loadProfile;
+    private final InFlightLimit inFlightLimit;
+    private final int footprint;
+    private final List<URI> uris;
+    private final int extreme;
+    private final int loopbackAddresses;
+    private final int iterations;
+    private final boolean fork;
+    private final File resultsFile;
+    private final File eventLogFile;
+    private final int eventLogCapacity;
+    private final int requestHeaderCount;
+    private final int requestHeaderSize;
+    private final int responseHeaderCount;
+    private final int responseHeaderSize;
+    private final List<Long> payloadSizes;
+    private final MethodMix methodMix;
+    private final boolean fullChain;
+    private final boolean chainCost;
+    private final File unixSocket;
+    private final boolean unixSocketCompare;
+    private final LinkProfile linkProfile;
 
     private BenchmarkConfig(
             final URI uri,
@@ -35,7 +81,51 @@ public final class BenchmarkConfig {
             final boolean keepAlive,
             final File file,
             final String contentType,
-            final int timeout) {
+            final int timeout,
+            final int sweep,
+            final int ioBufferSize,
+            final int chunkSizeHint,
+            final int socketRcvBufSize,
+            final int socketSndBufSize,
+            final boolean tcpNoDelay,
+            final int readBufferSize,
+            final ParameterMatrix matrix,
+            final boolean compression,
+            final List<Integer> compressionRatios,
+            final int compressionContentLength,
+            final int warmupTime,
+            final boolean reuseRequests,
+            final boolean harnessBaseline,
+            final int poolTelemetryInterval,
+            final boolean jfr,
+            final File jfrFile,
+            final int ioThreads,
+            final int shards,
+            final String variant,
+            final int consumerDelay,
+            final int maxMultiplex,
+            final LoadProfile loadProfile,
+            final InFlightLimit inFlightLimit,
+            final int footprint,
+            final List<URI> uris,
+            final int extreme,
+            final int loopbackAddresses,
+            final int iterations,
+            final boolean fork,
+            final File resultsFile,
+            final File eventLogFile,
+            final int eventLogCapacity,
+            final int requestHeaderCount,
+            final int requestHeaderSize,
+            final int responseHeaderCount,
+            final int responseHeaderSize,
+            final List<Long> payloadSizes,
+            final MethodMix methodMix,
+            final boolean fullChain,
+            final boolean chainCost,
+            final File unixSocket,
+            final boolean unixSocketCompare,
+            final LinkProfile linkProfile) {
         this.uri = uri;
         this.requests = requests;
         this.concurrency = concurrency;
@@ -43,6 +133,50 @@ public final class BenchmarkConfig {
         this.file = file;
         this.contentType = contentType;
         this.timeout = timeout;
+        this.sweep = sweep;
+        this.ioBufferSize = ioBufferSize;
+        this.chunkSizeHint = chunkSizeHint;
+        this.socketRcvBufSize = socketRcvBufSize;
+        this.socketSndBufSize = socketSndBufSize;
+        this.tcpNoDelay = tcpNoDelay;
+        this.readBufferSize = readBufferSize;
+        this.matrix = matrix;
+        this.compression = compression;
+        this.compressionRatios = compressionRatios;
+        this.compressionContentLength = compressionContentLength;
+        this.warmupTime = warmupTime;
+        this.reuseRequests = reuseRequests;
+        this.harnessBaseline = harnessBaseline;
+        this.poolTelemetryInterval = poolTelemetryInterval;
+        this.jfr = jfr;
+        this.jfrFile = jfrFile;
+        this.ioThreads = ioThreads;
+        this.shards = shards;
+        this.variant = variant;
+        this.consumerDelay = consumerDelay;
+        this.maxMultiplex = maxMultiplex;
+        this.loadProfile = loadProfile;
+        this.inFlightLimit = inFlightLimit;
+        this.footprint = footprint;
+        this.uris = uris;
+        this.extreme = extreme;
+        this.loopbackAddresses = loopbackAddresses;
+        this.iterations = iterations;
+        this.fork = fork;
+        this.resultsFile = resultsFile;
+        this.eventLogFile = eventLogFile;
+        this.eventLogCapacity = eventLogCapacity;
+        this.requestHeaderCount = requestHeaderCount;
+        this.requestHeaderSize = requestHeaderSize;
+        this.responseHeaderCount = responseHeaderCount;
+        this.responseHeaderSize = responseHeaderSize;
+        this.payloadSizes = payloadSizes;
+        this.methodMix = methodMix;
+        this.fullChain = fullChain;
+        this.chainCost = chainCost;
+        this.unixSocket = unixSocket;
+        this.unixSocketCompare = unixSocketCompare;
+        this.linkProfile = linkProfile;
     }
 
     public static Builder create() {
@@ -57,7 +191,51 @@ public final class BenchmarkConfig {
                 .setKeepAlive(config.isKeepAlive())
                 .setFile(config.getFile())
                 .setContentType(config.getContentType())
-                .setTimeout(config.getTimeout());
+                .setTimeout(config.getTimeout())
+                .setSweep(config.getSweep())
+                .setIoBufferSize(config.getIoBufferSize())
+                .setChunkSizeHint(config.getChunkSizeHint())
+                .setSocketRcvBufSize(config.getSocketRcvBufSize())
+                .setSocketSndBufSize(config.getSocketSndBufSize())
+                .setTcpNoDelay(config.isTcpNoDelay())
+                .setReadBufferSize(config.getReadBufferSize())
+                .setMatrix(config.getMatrix())
+                .setCompression(config.isCompression())
+                .setCompressionRatios(config.getCompressionRatios())
+                .setCompressionContentLength(config.getCompressionContentLength())
+                .setWarmupTime(config.getWarmupTime())
+                .setReuseRequests(config.isReuseRequests())
+                .setHarnessBaseline(config.isHarnessBaseline())
+                .setPoolTelemetryInterval(config.getPoolTelemetryInterval())
+                .setJfr(config.isJfr())
+                .setJfrFile(config.getJfrFile())
+                .setIoThreads(config.getIoThreads())
+                .setShards(config.getShards())
+                .setVariant(config.getVariant())
+                .setConsumerDelay(config.getConsumerDelay())
+                .setMaxMultiplex(config.getMaxMultiplex())
+                .setLoadProfile(config.getLoadProfile())
+                .setInFlightLimit(config.getInFlightLimit())
+                .setFootprint(config.getFootprint())
+                .setUris(config.getUris())
+                .setExtreme(config.getExtreme())
+                .setLoopbackAddresses(config.getLoopbackAddresses())
+                .setIterations(config.getIterations())
+                .setFork(config.isFork())
+                .setResultsFile(config.getResultsFile())
+                .setEventLogFile(config.getEventLogFile())
+                .setEventLogCapacity(config.getEventLogCapacity())
+                .setRequestHeaderCount(config.getRequestHeaderCount())
+                .setRequestHeaderSize(config.getRequestHeaderSize())
+                .setResponseHeaderCount(config.getResponseHeaderCount())
+                .setResponseHeaderSize(config.getResponseHeaderSize())
+                .setPayloadSizes(config.getPayloadSizes())
+                .setMethodMix(config.getMethodMix())
+                .setFullChain(config.isFullChain())
+                .setChainCost(config.isChainCost())
+                .setUnixSocket(config.getUnixSocket())
+                .setUnixSocketCompare(config.isUnixSocketCompare())
+                .setLinkProfile(config.getLinkProfile());
     }
 
     public URI getUri() {
@@ -88,6 +266,334 @@ public final class BenchmarkConfig {
         return timeout;
     }
 
+    /**
+     * Returns the maximum concurrency level of a concurrency sweep
+     * or {@code 0} if the sweep mode is disabled.
+     */
+    public int getSweep() {
+        return sweep;
+    }
+
+    /**
+     * Returns size of the session I/O buffers used by agents that allow it to be configured.
+     */
+    public int getIoBufferSize() {
+        return ioBufferSize;
+    }
+
+    /**
+     * Returns size of chunks used to write out request content.
+     */
+    public int getChunkSizeHint() {
+        return chunkSizeHint;
+    }
+
+    /**
+     * Returns SO_RCVBUF value or {@code 0} to leave it to the system default.
+     */
+    public int getSocketRcvBufSize() {
+        return socketRcvBufSize;
+    }
+
+    /**
+     * Returns SO_SNDBUF value or {@code 0} to leave it to the system default.
+     */
+    public int getSocketSndBufSize() {
+        return socketSndBufSize;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Returns size of the buffer used by worker threads to read response content.
+     */
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    /**
+     * Returns parameters whose cartesian product is to be executed by the matrix mode.
+     */
+    public ParameterMatrix getMatrix() {
+        return matrix;
+    }
+
+    /**
+     * Returns {@code true} if agents are to request gzip compressed responses
+     * and decode them using the native content decoding of their client.
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Returns compression ratios of the compression scenario or an empty list
+     * if the scenario is disabled.
+     */
+    public List<Integer> getCompressionRatios() {
+        return compressionRatios;
+    }
+
+    /**
+     * Returns length of decoded content of the compression scenario.
+     */
+    public int getCompressionContentLength() {
+        return compressionContentLength;
+    }
+
+    /**
+     * Maximum warmup time in seconds. 0 disables warmup.
+     */
+    public int getWarmupTime() {
+        return warmupTime;
+    }
+
+    /**
+     * Whether agents reuse immutable request templates and callbacks where the client allows it.
+     */
+    public boolean isReuseRequests() {
+        return reuseRequests;
+    }
+
+    /**
+     * Whether to measure harness cost per request with {@link NullHttpAgent}.
+     */
+    public boolean isHarnessBaseline() {
+        return harnessBaseline;
+    }
+
+    /**
+     * Pool telemetry sampling interval in milliseconds. 0 disables pool telemetry.
+     */
+    public int getPoolTelemetryInterval() {
+        return poolTelemetryInterval;
+    }
+
+    /**
+     * Whether to record the measured run with JFR.
+     */
+    public boolean isJfr() {
+        return jfr;
+    }
+
+    /**
+     * JFR recording file. If not set the file is named after the agent.
+     */
+    public File getJfrFile() {
+        return jfrFile;
+    }
+
+    /**
+     * Number of I/O dispatch threads per client instance. 0 leaves it to the client default.
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * Number of independent client instances requests get distributed over.
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * Agent specific implementation variant or {@code null} for the default one.
+     */
+    public String getVariant() {
+        return variant;
+    }
+
+    /**
+     * Processing time in microseconds the response consumer spends on every chunk of
+     * content, simulating application code slower than the network. 0 disables it.
+     */
+    public int getConsumerDelay() {
+        return consumerDelay;
+    }
+
+    /**
+     * Maximum number of concurrent requests per connection of multiplexing
+     * connection pools. 0 leaves it to the client and the server.
+     */
+    public int getMaxMultiplex() {
+        return maxMultiplex;
+    }
+
+    /**
+     * Load profile the in-flight limit follows over time or {@code null} for
+     * constant concurrency.
+     */
+    public LoadProfile getLoadProfile() {
+        return loadProfile;
+    }
+
+    /**
+     * In-flight limit shared with the load profile driver, set for the duration of
+     * a load profile run only.
+     */
+    public InFlightLimit getInFlightLimit() {
+        return inFlightLimit;
+    }
+
+    /**
+     * Returns the number of connections of the footprint scenario or {@code 0} if the scenario
+     * is not to be executed.
+     */
+    public int getFootprint() {
+        return footprint;
+    }
+
+    /**
+     * Returns targets to spread requests across. The URI is the only target if empty.
+     */
+    public List<URI> getUris() {
+        return uris;
+    }
+
+    /**
+     * Returns the n-th of the targets, wrapping around, or the URI if there is a single target.
+     */
+    public URI getUri(final int n) {
+        return uris.isEmpty() ? uri : uris.get(n % uris.size());
+    }
+
+    /**
+     * Returns the maximum concurrency of the extreme concurrency scenario or {@code 0} if the
+     * scenario is not to be executed.
+     */
+    public int getExtreme() {
+        return extreme;
+    }
+
+    /**
+     * Returns the number of loopback addresses of the extreme concurrency scenario or {@code 0}
+     * if the number is to be derived from concurrency.
+     */
+    public int getLoopbackAddresses() {
+        return loopbackAddresses;
+    }
+
+    /**
+     * Returns the number of times the measured phase is to be executed.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Returns {@code true} if every iteration is to be executed in a fresh JVM.
+     */
+    public boolean isFork() {
+        return fork;
+    }
+
+    /**
+     * Returns the file results of every iteration are to be appended to or {@code null}.
+     */
+    public File getResultsFile() {
+        return resultsFile;
+    }
+
+    /**
+     * Returns the file completed requests of the measured run are to be logged to or {@code null}.
+     */
+    public File getEventLogFile() {
+        return eventLogFile;
+    }
+
+    /**
+     * Returns the number of records the event log holds before the oldest get overwritten.
+     */
+    public int getEventLogCapacity() {
+        return eventLogCapacity;
+    }
+
+    /**
+     * Returns the number of synthetic headers sent with every request.
+     */
+    public int getRequestHeaderCount() {
+        return requestHeaderCount;
+    }
+
+    /**
+     * Returns the size of values of synthetic request headers in bytes.
+     */
+    public int getRequestHeaderSize() {
+        return requestHeaderSize;
+    }
+
+    /**
+     * Returns the number of synthetic headers of responses of the local target. Agents read all response headers through their API if greater than {@code 0}.
+     */
+    public int getResponseHeaderCount() {
+        return responseHeaderCount;
+    }
+
+    /**
+     * Returns the size of values of synthetic response headers in bytes.
+     */
+    public int getResponseHeaderSize() {
+        return responseHeaderSize;
+    }
+
+    /**
+     * Returns response and request content sizes of the payload sweep, or an empty list.
+     */
+    public List<Long> getPayloadSizes() {
+        return payloadSizes;
+    }
+
+    /**
+     * Returns the weighted mix of request methods or {@code null} for requests of the plain run. See {@link MethodMix#of(BenchmarkConfig)}.
+     */
+    public MethodMix getMethodMix() {
+        return methodMix;
+    }
+
+    /**
+     * Returns {@code true} if agents are to be built with the full protocol chain
+     * of the client, such as redirects, cookies, authentication and retries,
+     * rather than as minimal clients.
+     */
+    public boolean isFullChain() {
+        return fullChain;
+    }
+
+    /**
+     * Returns {@code true} if the cost of the full protocol chain relative
+     * to minimal clients is to be measured.
+     */
+    public boolean isChainCost() {
+        return chainCost;
+    }
+
+    /**
+     * Returns the path of the Unix domain socket agents are to connect to
+     * instead of the host and port of the target-URI, or {@code null}.
+     */
+    public File getUnixSocket() {
+        return unixSocket;
+    }
+
+    /**
+     * Returns {@code true} if runs over TCP loopback and over a Unix domain
+     * socket are to be compared.
+     */
+    public boolean isUnixSocketCompare() {
+        return unixSocketCompare;
+    }
+
+    /**
+     * Returns the conditions of the link emulated between the agent and the target,
+     * {@code null} to connect to the target directly.
+     */
+    public LinkProfile getLinkProfile() {
+        return linkProfile;
+    }
+
     public final static class Builder {
 
         private URI uri;
@@ -97,6 +603,50 @@ public final class BenchmarkConfig {
         private File file;
         private String contentType;
         private int timeout;
+        private int sweep;
+        private int ioBufferSize;
+        private int chunkSizeHint;
+        private int socketRcvBufSize;
+        private int socketSndBufSize;
+        private boolean tcpNoDelay;
+        private int readBufferSize;
+        private ParameterMatrix matrix;
+        private boolean compression;
+        private List<Integer> compressionRatios;
+        private int compressionContentLength;
+        private int warmupTime;
+        private boolean reuseRequests;
+        private boolean harnessBaseline;
+        private int poolTelemetryInterval;
+        private boolean jfr;
+        private File jfrFile;
+        private int ioThreads;
+        private int shards;
+        private String variant;
+        private int consumerDelay;
+        private int maxMultiplex;
+        private LoadProfile loadProfile;
+        private InFlightLimit inFlightLimit;
+        private int footprint;
+        private List<URI> uris;
+        private int extreme;
+        private int loopbackAddresses;
+        private int iterations;
+        private boolean fork;
+        private File resultsFile;
+        private File eventLogFile;
+        private int eventLogCapacity;
+        private int requestHeaderCount;
+        private int requestHeaderSize;
+        private int responseHeaderCount;
+        private int responseHeaderSize;
+        private List<Long> payloadSizes;
+        private MethodMix methodMix;
+        private boolean fullChain;
+        private boolean chainCost;
+        private File unixSocket;
+        private boolean unixSocketCompare;
+        private LinkProfile linkProfile;
 
         private Builder() {
             super();
@@ -104,6 +654,45 @@ public final class BenchmarkConfig {
             this.concurrency = 1;
             this.keepAlive = false;
             this.timeout = 60000;
+            this.ioBufferSize = 8 * 1024;
+            this.chunkSizeHint = 8 * 1024;
+            this.socketRcvBufSize = 0;
+            this.socketSndBufSize = 0;
+            this.tcpNoDelay = true;
+            this.readBufferSize = 4096;
+            this.matrix = ParameterMatrix.EMPTY;
+            this.compression = false;
+            this.compressionRatios = Collections.emptyList();
+            this.compressionContentLength = 64 * 1024;
+            this.warmupTime = Warmup.DEFAULT_MAX_TIME;
+            this.reuseRequests = false;
+            this.harnessBaseline = false;
+            this.poolTelemetryInterval = 0;
+            this.jfr = false;
+            this.jfrFile = null;
+            this.ioThreads = 0;
+            this.shards = 1;
+            this.consumerDelay = 0;
+            this.maxMultiplex = 0;
+            this.footprint = 0;
+            this.uris = Collections.emptyList();
+            this.extreme = 0;
+            this.loopbackAddresses = 0;
+            this.iterations = 1;
+            this.fork = false;
+            this.resultsFile = null;
+            this.eventLogFile = null;
+            this.eventLogCapacity = EventLog.DEFAULT_CAPACITY;
+            this.requestHeaderCount = 0;
+            this.requestHeaderSize = HeaderProfile.DEFAULT_SIZE;
+            this.responseHeaderCount = 0;
+            this.responseHeaderSize = HeaderProfile.DEFAULT_SIZE;
+            this.payloadSizes = Collections.emptyList();
+            this.methodMix = null;
+            this.fullChain = false;
+            this.chainCost = false;
+            this.unixSocket = null;
+            this.unixSocketCompare = false;
         }
 
         public URI getUri() {
@@ -169,8 +758,411 @@ public final class BenchmarkConfig {
             return this;
         }
 
+        public int getSweep() {
+            return sweep;
+        }
+
+        public Builder setSweep(final int sweep) {
+            this.sweep = sweep;
+            return this;
+        }
+
+        public int getIoBufferSize() {
+            return ioBufferSize;
+        }
+
+        public Builder setIoBufferSize(final int ioBufferSize) {
+            this.ioBufferSize = ioBufferSize;
+            return this;
+        }
+
+        public int getChunkSizeHint() {
+            return chunkSizeHint;
+        }
+
+        public Builder setChunkSizeHint(final int chunkSizeHint) {
+            this.chunkSizeHint = chunkSizeHint;
+            return this;
+        }
+
+        public int getSocketRcvBufSize() {
+            return socketRcvBufSize;
+        }
+
+        public Builder setSocketRcvBufSize(final int socketRcvBufSize) {
+            this.socketRcvBufSize = socketRcvBufSize;
+            return this;
+        }
+
+        public int getSocketSndBufSize() {
+            return socketSndBufSize;
+        }
+
+        public Builder setSocketSndBufSize(final int socketSndBufSize) {
+            this.socketSndBufSize = socketSndBufSize;
+            return this;
+        }
+
+        public boolean isTcpNoDelay() {
+            return tcpNoDelay;
+        }
+
+        public Builder setTcpNoDelay(final boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        public int getReadBufferSize() {
+            return readBufferSize;
+        }
+
+        public Builder setReadBufferSize(final int readBufferSize) {
+            this.readBufferSize = readBufferSize;
+            return this;
+        }
+
+        public ParameterMatrix getMatrix() {
+            return matrix;
+        }
+
+        public Builder setMatrix(final ParameterMatrix matrix) {
+            this.matrix = matrix;
+            return this;
+        }
+
+        public boolean isCompression() {
+            return compression;
+        }
+
+        public Builder setCompression(final boolean compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        public List<Integer> getCompressionRatios() {
+            return compressionRatios;
+        }
+
+        public Builder setCompressionRatios(final List<Integer> compressionRatios) {
+            this.compressionRatios = compressionRatios;
+            return this;
+        }
+
+        public int getCompressionContentLength() {
+            return compressionContentLength;
+        }
+
+        public Builder setCompressionContentLength(final int compressionContentLength) {
+            this.compressionContentLength = compressionContentLength;
+            return this;
+        }
+
+        public int getWarmupTime() {
+            return warmupTime;
+        }
+
+        public Builder setWarmupTime(final int warmupTime) {
+            this.warmupTime = warmupTime;
+            return this;
+        }
+
+        public boolean isReuseRequests() {
+            return reuseRequests;
+        }
+
+        public Builder setReuseRequests(final boolean reuseRequests) {
+            this.reuseRequests = reuseRequests;
+            return this;
+        }
+
+        public boolean isHarnessBaseline() {
+            return harnessBaseline;
+        }
+
+        public Builder setHarnessBaseline(final boolean harnessBaseline) {
+            this.harnessBaseline = harnessBaseline;
+            return this;
+        }
+
+        public int getPoolTelemetryInterval() {
+            return poolTelemetryInterval;
+        }
+
+        public Builder setPoolTelemetryInterval(final int poolTelemetryInterval) {
+            this.poolTelemetryInterval = poolTelemetryInterval;
+            return this;
+        }
+
+        public boolean isJfr() {
+            return jfr;
+        }
+
+        public Builder setJfr(final boolean jfr) {
+            this.jfr = jfr;
+            return this;
+        }
+
+        public File getJfrFile() {
+            return jfrFile;
+        }
+
+        public Builder setJfrFile(final File jfrFile) {
+            this.jfrFile = jfrFile;
+            return this;
+        }
+
+        public int getIoThreads() {
+            return ioThreads;
+        }
+
+        public Builder setIoThreads(final int ioThreads) {
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        public int getShards() {
+            return shards;
+        }
+
+        public Builder setShards(final int shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        public String getVariant() {
+            return variant;
+        }
+
+        public Builder setVariant(final String variant) {
+            this.variant = variant;
+            return this;
+        }
+
+        public int getConsumerDelay() {
+            return consumerDelay;
+        }
+
+        public Builder setConsumerDelay(final int consumerDelay) {
+            this.consumerDelay = consumerDelay;
+            return this;
+        }
+
+        public int getMaxMultiplex() {
+            return maxMultiplex;
+        }
+
+        public Builder setMaxMultiplex(final int maxMultiplex) {
+            this.maxMultiplex = maxMultiplex;
+            return this;
+        }
+
+        public LoadProfile getLoadProfile() {
+            return loadProfile;
+        }
+
+        public Builder setLoadProfile(final LoadProfile loadProfile) {
+            this.loadProfile = loadProfile;
+            return this;
+        }
+
+        public InFlightLimit getInFlightLimit() {
+            return inFlightLimit;
+        }
+
+        public Builder setInFlightLimit(final InFlightLimit inFlightLimit) {
+            this.inFlightLimit = inFlightLimit;
+            return this;
+        }
+
+        public int getFootprint() {
+            return footprint;
+        }
+
+        public Builder setFootprint(final int footprint) {
+            this.footprint = footprint;
+            return this;
+        }
+
+        public List<URI> getUris() {
+            return uris;
+        }
+
+        public Builder setUris(final List<URI> uris) {
+            this.uris = uris;
+            return this;
+        }
+
+        public int getExtreme() {
+            return extreme;
+        }
+
+        public Builder setExtreme(final int extreme) {
+            this.extreme = extreme;
+            return this;
+        }
+
+        public int getLoopbackAddresses() {
+            return loopbackAddresses;
+        }
+
+        public Builder setLoopbackAddresses(final int loopbackAddresses) {
+            this.loopbackAddresses = loopbackAddresses;
+            return this;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        public Builder setIterations(final int iterations) {
+            this.iterations = iterations;
+            return this;
+        }
+
+        public boolean isFork() {
+            return fork;
+        }
+
+        public Builder setFork(final boolean fork) {
+            this.fork = fork;
+            return this;
+        }
+
+        public File getResultsFile() {
+            return resultsFile;
+        }
+
+        public Builder setResultsFile(final File resultsFile) {
+            this.resultsFile = resultsFile;
+            return this;
+        }
+
+        public File getEventLogFile() {
+            return eventLogFile;
+        }
+
+        public Builder setEventLogFile(final File eventLogFile) {
+            this.eventLogFile = eventLogFile;
+            return this;
+        }
+
+        public int getEventLogCapacity() {
+            return eventLogCapacity;
+        }
+
+        public Builder setEventLogCapacity(final int eventLogCapacity) {
+            this.eventLogCapacity = eventLogCapacity;
+            return this;
+        }
+
+        public int getRequestHeaderCount() {
+            return requestHeaderCount;
+        }
+
+        public Builder setRequestHeaderCount(final int requestHeaderCount) {
+            this.requestHeaderCount = requestHeaderCount;
+            return this;
+        }
+
+        public int getRequestHeaderSize() {
+            return requestHeaderSize;
+        }
+
+        public Builder setRequestHeaderSize(final int requestHeaderSize) {
+            this.requestHeaderSize = requestHeaderSize;
+            return this;
+        }
+
+        public int getResponseHeaderCount() {
+            return responseHeaderCount;
+        }
+
+        public Builder setResponseHeaderCount(final int responseHeaderCount) {
+            this.responseHeaderCount = responseHeaderCount;
+            return this;
+        }
+
+        public int getResponseHeaderSize() {
+            return responseHeaderSize;
+        }
+
+        public Builder setResponseHeaderSize(final int responseHeaderSize) {
+            this.responseHeaderSize = responseHeaderSize;
+            return this;
+        }
+
+        public List<Long> getPayloadSizes() {
+            return payloadSizes;
+        }
+
+        public Builder setPayloadSizes(final List<Long> payloadSizes) {
+            this.payloadSizes = payloadSizes;
+            return this;
+        }
+
+        public MethodMix getMethodMix() {
+            return methodMix;
+        }
+
+        public Builder setMethodMix(final MethodMix methodMix) {
+            this.methodMix = methodMix;
+            return this;
+        }
+
+        public boolean isFullChain() {
+            return fullChain;
+        }
+
+        public Builder setFullChain(final boolean fullChain) {
+            this.fullChain = fullChain;
+            return this;
+        }
+
+        public boolean isChainCost() {
+            return chainCost;
+        }
+
+        public Builder setChainCost(final boolean chainCost) {
+            this.chainCost = chainCost;
+            return this;
+        }
+
+        public File getUnixSocket() {
+            return unixSocket;
+        }
+
+        public Builder setUnixSocket(final File unixSocket) {
+            this.unixSocket = unixSocket;
+            return this;
+        }
+
+        public boolean isUnixSocketCompare() {
+            return unixSocketCompare;
+        }
+
+        public Builder setUnixSocketCompare(final boolean unixSocketCompare) {
+            this.unixSocketCompare = unixSocketCompare;
+            return this;
+        }
+
+        public LinkProfile getLinkProfile() {
+            return linkProfile;
+        }
+
+        public Builder setLinkProfile(final LinkProfile linkProfile) {
+            this.linkProfile = linkProfile;
+            return this;
+        }
+
         public BenchmarkConfig build() {
-            return new BenchmarkConfig(uri, requests, concurrency, keepAlive, file, contentType, timeout);
+            return new BenchmarkConfig(uri, requests, concurrency, keepAlive, file, contentType, timeout, sweep,
+                    ioBufferSize, chunkSizeHint, socketRcvBufSize, socketSndBufSize, tcpNoDelay,
+                    readBufferSize, matrix, compression, compressionRatios, compressionContentLength,
+                    warmupTime, reuseRequests, harnessBaseline, poolTelemetryInterval, jfr, jfrFile, ioThreads,
+                    shards, variant, consumerDelay, maxMultiplex, loadProfile, inFlightLimit, footprint, uris,
+                    extreme, loopbackAddresses, iterations, fork, resultsFile, eventLogFile, eventLogCapacity,
+                    requestHeaderCount, requestHeaderSize, responseHeaderCount, responseHeaderSize,
+                    payloadSizes, methodMix, fullChain, chainCost, unixSocket, unixSocketCompare, linkProfile);
         }
 
     }
@@ -185,6 +1177,50 @@ public final class BenchmarkConfig {
                 ", file=" + file +
                 ", contentType='" + contentType + '\'' +
                 ", timeout=" + timeout +
+                ", sweep=" + sweep +
+                ", ioBufferSize=" + ioBufferSize +
+                ", chunkSizeHint=" + chunkSizeHint +
+                ", socketRcvBufSize=" + socketRcvBufSize +
+                ", socketSndBufSize=" + socketSndBufSize +
+                ", tcpNoDelay=" + tcpNoDelay +
+                ", readBufferSize=" + readBufferSize +
+                ", matrix=" + matrix +
+                ", compression=" + compression +
+                ", compressionRatios=" + compressionRatios +
+                ", compressionContentLength=" + compressionContentLength +
+                ", warmupTime=" + warmupTime +
+                ", reuseRequests=" + reuseRequests +
+                ", harnessBaseline=" + harnessBaseline +
+                ", poolTelemetryInterval=" + poolTelemetryInterval +
+                ", jfr=" + jfr +
+                ", jfrFile=" + jfrFile +
+                ", ioThreads=" + ioThreads +
+                ", shards=" + shards +
+                ", variant='" + variant + '\'' +
+                ", consumerDelay=" + consumerDelay +
+                ", maxMultiplex=" + maxMultiplex +
+                ", loadProfile=" + loadProfile +
+                ", inFlightLimit=" + inFlightLimit +
+                ", footprint=" + footprint +
+                ", uris=" + uris +
+                ", extreme=" + extreme +
+                ", loopbackAddresses=" + loopbackAddresses +
+                ", iterations=" + iterations +
+                ", fork=" + fork +
+                ", resultsFile=" + resultsFile +
+                ", eventLogFile=" + eventLogFile +
+                ", eventLogCapacity=" + eventLogCapacity +
+                ", requestHeaderCount=" + requestHeaderCount +
+                ", requestHeaderSize=" + requestHeaderSize +
+                ", responseHeaderCount=" + responseHeaderCount +
+                ", responseHeaderSize=" + responseHeaderSize +
+                ", payloadSizes=" + payloadSizes +
+                ", methodMix=" + methodMix +
+                ", fullChain=" + fullChain +
+                ", chainCost=" + chainCost +
+                ", unixSocket=" + unixSocket +
+                ", unixSocketCompare=" + unixSocketCompare +
+                ", linkProfile=" + linkProfile +
                 '}';
     }
 
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR events emitted by the agents for every request. Requests are identified
+ * by their start time as given by {@link System#nanoTime()}. The events cost
+ * next to nothing unless a recording has them enabled.
+ */
+final class BenchmarkEvents {
+
+    private BenchmarkEvents() {
+    }
+
+    @Name("com.ok2c.http.client.benchmark.RequestStart")
+    @Label("Request Start")
+    @Category({"HTTP Benchmark"})
+    @StackTrace(false)
+    static class RequestStart extends Event {
+
+        @Label("Request Id")
+        long requestId;
+
+    }
+
+    @Name("com.ok2c.http.client.benchmark.ResponseHeaders")
+    @Label("Response Headers")
+    @Category({"HTTP Benchmark"})
+    @StackTrace(false)
+    static class ResponseHeaders extends Event {
+
+        @Label("Request Id")
+        long requestId;
+
+        @Label("Status")
+        int status;
+
+        @Label("Time To First Byte")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+    }
+
+    @Name("com.ok2c.http.client.benchmark.BodyComplete")
+    @Label("Body Complete")
+    @Category({"HTTP Benchmark"})
+    @StackTrace(false)
+    static class BodyComplete extends Event {
+
+        @Label("Request Id")
+        long requestId;
+
+        @Label("Content Length")
+        @DataAmount
+        long contentLength;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+    }
+
+    @Name("com.ok2c.http.client.benchmark.RequestFailure")
+    @Label("Request Failure")
+    @Category({"HTTP Benchmark"})
+    static class RequestFailure extends Event {
+
+        @Label("Request Id")
+        long requestId;
+
+        @Label("Content Length")
+        @DataAmount
+        long contentLength;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+    }
+
+    static void requestStart(final long startTime) {
+        final RequestStart event = new RequestStart();
+        if (event.isEnabled()) {
+            event.requestId = startTime;
+            event.commit();
+        }
+    }
+
+    static void responseHeaders(final long startTime, final int status) {
+        final ResponseHeaders event = new ResponseHeaders();
+        if (event.isEnabled()) {
+            event.requestId = startTime;
+            event.status = status;
+            event.elapsed = System.nanoTime() - startTime;
+            event.commit();
+        }
+    }
+
+    static void bodyComplete(final long startTime, final long elapsed, final long contentLength) {
+        final BodyComplete event = new BodyComplete();
+        if (event.isEnabled()) {
+            event.requestId = startTime;
+            event.contentLength = contentLength;
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    static void failure(final long startTime, final long elapsed, final long contentLength) {
+        final RequestFailure event = new RequestFailure();
+        if (event.isEnabled()) {
+            event.requestId = startTime;
+            event.contentLength = contentLength;
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+}
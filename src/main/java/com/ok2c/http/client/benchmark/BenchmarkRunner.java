@@ -16,8 +16,17 @@
 package com.ok2c.http.client.benchmark;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -48,7 +57,31 @@ public class BenchmarkRunner {
                     return;
                 }
             }
-            BenchmarkRunner.execute(agent, config);
+            if ((config.getUnixSocket() != null || config.isUnixSocketCompare())
+                    && !(agent instanceof UnixDomainSockets.Capable)) {
+                System.out.println(agent.getClientName() + " cannot connect over Unix domain sockets");
+                return;
+            }
+            if (config.getVariant() != null && !(agent instanceof HttpAgent.Variants)) {
+                System.out.println(agent.getClientName() + " has no implementation variants");
+                return;
+            }
+            // Forked iterations get a proxy of their own
+            final LinkEmulator link = config.getLinkProfile() != null && !config.isFork()
+                    ? LinkEmulator.start(config) : null;
+            try {
+                final BenchmarkConfig runConfig = link != null ? link.route(config) : config;
+                if (config.getIterations() > 1 || config.isFork() || config.getResultsFile() != null) {
+                    Iterations.execute(agent, runConfig, args);
+                } else {
+                    BenchmarkRunner.execute(agent, runConfig);
+                }
+            } finally {
+                if (link != null) {
+                    link.close();
+                    link.printSummary();
+                }
+            }
         } catch (ParseException ex) {
             System.out.println(ex.getMessage());
             System.out.println();
@@ -82,12 +115,297 @@ public class BenchmarkRunner {
         popt.setRequired(false);
         nopt.setArgName("content type");
 
+        final Option sweepopt = new Option(null, "sweep", true, "Execute the benchmark at concurrency " +
+                "levels of 1, 2, 4 ... up to the given maximum (" + ConcurrencySweep.DEFAULT_MAX_CONCURRENCY +
+                " by default) and report where the agent stops scaling");
+        sweepopt.setRequired(false);
+        sweepopt.setOptionalArg(true);
+        sweepopt.setArgName("max concurrency");
+
+        final Option loadopt = new Option(null, "load", true, "Vary the in-flight limit over time " +
+                "following the given profile: ramp, step, spike or sine, with the concurrency as its peak. " +
+                "The run lasts for the profile duration regardless of the number of requests");
+        loadopt.setRequired(false);
+        loadopt.setArgName("profile");
+
+        final Option loaddurationopt = new Option(null, "load-duration", true, "Duration of the load " +
+                "profile in seconds. The default is " + LoadProfile.DEFAULT_DURATION);
+        loaddurationopt.setRequired(false);
+        loaddurationopt.setArgName("seconds");
+
+        final Option iobufopt = new Option(null, "io-buffer", true, "Session I/O buffer size(s), " +
+                "comma separated. Multiple values enable the matrix mode");
+        iobufopt.setRequired(false);
+        iobufopt.setArgName("sizes");
+
+        final Option chunkopt = new Option(null, "chunk-size", true, "Chunk size hint(s) for request " +
+                "content, comma separated");
+        chunkopt.setRequired(false);
+        chunkopt.setArgName("sizes");
+
+        final Option rcvbufopt = new Option(null, "rcvbuf", true, "SO_RCVBUF size(s), comma separated. " +
+                "0 leaves it to the system default");
+        rcvbufopt.setRequired(false);
+        rcvbufopt.setArgName("sizes");
+
+        final Option sndbufopt = new Option(null, "sndbuf", true, "SO_SNDBUF size(s), comma separated. " +
+                "0 leaves it to the system default");
+        sndbufopt.setRequired(false);
+        sndbufopt.setArgName("sizes");
+
+        final Option nodelayopt = new Option(null, "tcp-nodelay", true, "TCP_NODELAY value(s), " +
+                "comma separated");
+        nodelayopt.setRequired(false);
+        nodelayopt.setArgName("true|false");
+
+        final Option readbufopt = new Option(null, "read-buffer", true, "Size(s) of the buffer used " +
+                "to read response content, comma separated");
+        readbufopt.setRequired(false);
+        readbufopt.setArgName("sizes");
+
+        final Option iothreadsopt = new Option(null, "io-threads", true, "Number(s) of I/O dispatch " +
+                "threads per client instance of the Apache async agents, comma separated. 0 leaves it " +
+                "to the client default");
+        iothreadsopt.setRequired(false);
+        iothreadsopt.setArgName("counts");
+
+        final Option shardsopt = new Option(null, "shards", true, "Number(s) of independent client " +
+                "instances of the Apache async agents requests get distributed over round-robin, comma " +
+                "separated. The default is 1");
+        shardsopt.setRequired(false);
+        shardsopt.setArgName("counts");
+
+        final Option variantopt = new Option(null, "variant", true, "Agent specific implementation " +
+                "variant(s), comma separated. The Apache HttpAsyncClient 5 agent supports unbounded (the " +
+                "default), bounded and reactive response consumers. The JRE java.net.http agent supports " +
+                "default, shared, fixed, virtual and direct executors. The Jetty agents support duplex, " +
+                "round-robin, multiplex and random connection pools");
+        variantopt.setRequired(false);
+        variantopt.setArgName("variants");
+
+        final Option multiplexopt = new Option(null, "max-multiplex", true, "Maximum number(s) of " +
+                "concurrent requests per HTTP/2 connection of the Jetty HTTP/2 agent, capping the limit " +
+                "advertised by the server, comma separated. 0 leaves it to the server");
+        multiplexopt.setRequired(false);
+        multiplexopt.setArgName("counts");
+
+        final Option delayopt = new Option(null, "consumer-delay", true, "Time in microseconds the " +
+                "response consumer spends processing every chunk of content, off the I/O threads. " +
+                "Simulates application code slower than the network");
+        delayopt.setRequired(false);
+        delayopt.setArgName("micros");
+
+        final Option payloadopt = new Option(null, "payloads", true, "Request payload sizes of the matrix " +
+                "mode, comma separated. 0 stands for a GET request, any other size for a PUT request " +
+                "with generated content of that size");
+        payloadopt.setRequired(false);
+        payloadopt.setArgName("sizes");
+
+        final Option gzipopt = new Option(null, "gzip", false, "Request gzip compressed responses " +
+                "and decode them using the agent's native content decoding");
+        gzipopt.setRequired(false);
+
+        final Option compressionopt = new Option(null, "compression", true, "Execute the compression " +
+                "scenario against a local target serving gzip compressed content at the given " +
+                "compression ratios, comma separated. The target-URI is not required");
+        compressionopt.setRequired(false);
+        compressionopt.setArgName("ratios");
+
+        final Option compressionsizeopt = new Option(null, "compression-size", true, "Length of decoded " +
+                "content of the compression scenario. The default is 64k");
+        compressionsizeopt.setRequired(false);
+        compressionsizeopt.setArgName("size");
+
+        final Option payloadsweepopt = new Option(null, "payload-sweep", true, "Execute the payload " +
+                "sweep against a local target stepping GET response and PUT request content through " +
+                "the given sizes, comma separated. The default is 0,128,1k,16k,256k,4m,64m. " +
+                "The target-URI is not required");
+        payloadsweepopt.setRequired(false);
+        payloadsweepopt.setOptionalArg(true);
+        payloadsweepopt.setArgName("sizes");
+
+        final Option fullchainopt = new Option(null, "full-chain", false, "Build agents with the full " +
+                "protocol chain of the client, such as redirects, cookies, authentication and retries, " +
+                "rather than as minimal clients");
+        fullchainopt.setRequired(false);
+
+        final Option chaincostopt = new Option(null, "chain-cost", false, "Execute the benchmark with " +
+                "minimal clients and with the full protocol chain and report the cost of the chain in " +
+                "CPU time and bytes allocated per request. Without a target-URI a local target is used");
+        chaincostopt.setRequired(false);
+
+        final Option unixsocketopt = new Option(null, "unix-socket", true, "Connect to the target over " +
+                "the Unix domain socket at the given path rather than the host and port of the target-URI. " +
+                "Requires Java 16 or newer and an agent that supports them");
+        unixsocketopt.setRequired(false);
+        unixsocketopt.setArgName("path");
+
+        final Option udscompareopt = new Option(null, "uds-compare", false, "Execute the benchmark " +
+                "against a local target over TCP loopback and over a Unix domain socket and report both " +
+                "side by side. The target-URI is not required");
+        udscompareopt.setRequired(false);
+
+        final Option linkdelayopt = new Option(null, "link-delay", true, "Route the agent through a " +
+                "local proxy that emulates a network link with the given one-way delay in milliseconds. " +
+                "The agent sees the proxy as the target host and sends its loopback address and port as the " +
+                "Host header, so the target must not depend on virtual hosts. Does not apply to https targets");
+        linkdelayopt.setRequired(false);
+        linkdelayopt.setArgName("ms");
+
+        final Option linkjitteropt = new Option(null, "link-jitter", true, "Maximum deviation of the " +
+                "delay of the emulated link either way, in milliseconds");
+        linkjitteropt.setRequired(false);
+        linkjitteropt.setArgName("ms");
+
+        final Option linkbandwidthopt = new Option(null, "link-bandwidth", true, "Bandwidth of the " +
+                "emulated link in Mbit/s, each way, shared by all connections");
+        linkbandwidthopt.setRequired(false);
+        linkbandwidthopt.setArgName("Mbit/s");
+
+        final Option linkpauseopt = new Option(null, "link-pause", true, "Pause the emulated link for " +
+                "the given time in milliseconds once every interval, " +
+                LinkProfile.DEFAULT_PAUSE_INTERVAL_MILLIS + " ms by default");
+        linkpauseopt.setRequired(false);
+        linkpauseopt.setArgName("ms[/interval ms]");
+
+        final Option mixopt = new Option(null, "mix", true, "Execute a weighted mix of request " +
+                "methods, comma separated, such as GET:70,POST:20:1k,PUT:10. POST and PUT requests send " +
+                "random content of the given size or, if none is given, the file content");
+        mixopt.setRequired(false);
+        mixopt.setArgName("method:weight[:size]");
+
+        final Option headerprofileopt = new Option(null, "header-profile", true, "Execute the header " +
+                "scenario against a local target with the given number and value size of request headers " +
+                "and, after a comma, of response headers, such as 40x256 or 40x256,20x1k, and measure the " +
+                "overhead of header processing per request. The target-URI is not required");
+        headerprofileopt.setRequired(false);
+        headerprofileopt.setArgName("spec");
+
+        final Option footprintopt = new Option(null, "footprint", true, "Execute the footprint " +
+                "scenario against a local target holding the given number of connections and measure " +
+                "heap and direct memory retained per connection and per in-flight request. " +
+                "The target-URI is not required");
+        footprintopt.setRequired(false);
+        footprintopt.setArgName("connections");
+
+        final Option extremeopt = new Option(null, "extreme", true, "Execute the extreme concurrency " +
+                "scenario against a local target at increasing concurrency levels up to the given maximum " +
+                "or until the agent falls over. The target-URI is not required");
+        extremeopt.setRequired(false);
+        extremeopt.setArgName("concurrency");
+
+        final Option loopbackopt = new Option(null, "loopback-addresses", true, "Number of loopback " +
+                "addresses to spread connections of the extreme concurrency scenario across. The default " +
+                "is one per " + ExtremeScenario.CONNECTIONS_PER_ADDRESS + " connections");
+        loopbackopt.setRequired(false);
+        loopbackopt.setArgName("count");
+
+        final Option iterationsopt = new Option(null, "iterations", true, "Number of times to execute " +
+                "the measured phase. Throughput and p99 latency are reported as mean, standard deviation " +
+                "and 95% confidence interval across iterations");
+        iterationsopt.setRequired(false);
+        iterationsopt.setArgName("count");
+
+        final Option forkopt = new Option(null, "fork", false, "Execute every iteration in a fresh JVM " +
+                "with its own warmup");
+        forkopt.setRequired(false);
+
+        final Option resultsopt = new Option(null, "results", true, "Append results of every iteration " +
+                "to the given file for comparing agents with " + Compare.class.getSimpleName());
+        resultsopt.setRequired(false);
+        resultsopt.setArgName("file");
+
+        final Option warmupopt = new Option(null, "max-warmup", true, "Maximum warmup time in seconds. " +
+                "Warmup ends earlier once JIT compilation and throughput stabilize. The default is " +
+                Warmup.DEFAULT_MAX_TIME + ", 0 disables warmup");
+        warmupopt.setRequired(false);
+        warmupopt.setArgName("seconds");
+
+        final Option reuseopt = new Option(null, "reuse-requests", false, "Reuse immutable request " +
+                "templates and callbacks across requests where the client allows it");
+        reuseopt.setRequired(false);
+
+        final Option baselineopt = new Option(null, "harness-baseline", false, "Measure the cost of " +
+                "the harness alone with an in-memory agent and report it in nanoseconds per request");
+        baselineopt.setRequired(false);
+
+        final Option poolopt = new Option(null, "pool-telemetry", true, "Sample the connection pool " +
+                "of agents that expose it at the given interval in milliseconds (" +
+                PoolTelemetry.DEFAULT_INTERVAL + " by default) and report the series");
+        poolopt.setRequired(false);
+        poolopt.setOptionalArg(true);
+        poolopt.setArgName("interval");
+
+        final Option jfropt = new Option(null, "jfr", false, "Record the measured run with JFR and " +
+                "print the hot methods and top allocation sites");
+        jfropt.setRequired(false);
+
+        final Option jfrfileopt = new Option(null, "jfr-file", true, "JFR recording file. The default " +
+                "is a file named after the agent in the working directory");
+        jfrfileopt.setRequired(false);
+        jfrfileopt.setArgName("file");
+
+        final Option eventlogopt = new Option(null, "event-log", true, "Log every completed request " +
+                "of the measured run to the given memory-mapped file for analysis with " +
+                EventLogAnalyzer.class.getSimpleName());
+        eventlogopt.setRequired(false);
+        eventlogopt.setArgName("file");
+
+        final Option eventlogsizeopt = new Option(null, "event-log-size", true, "Number of records " +
+                "the event log holds before the oldest get overwritten. The default is " +
+                EventLog.DEFAULT_CAPACITY);
+        eventlogsizeopt.setRequired(false);
+        eventlogsizeopt.setArgName("records");
+
         final Options options = new Options();
         options.addOption(nopt);
         options.addOption(copt);
         options.addOption(kopt);
         options.addOption(popt);
         options.addOption(topt);
+        options.addOption(sweepopt);
+        options.addOption(loadopt);
+        options.addOption(loaddurationopt);
+        options.addOption(iobufopt);
+        options.addOption(chunkopt);
+        options.addOption(rcvbufopt);
+        options.addOption(sndbufopt);
+        options.addOption(nodelayopt);
+        options.addOption(readbufopt);
+        options.addOption(iothreadsopt);
+        options.addOption(shardsopt);
+        options.addOption(variantopt);
+        options.addOption(multiplexopt);
+        options.addOption(delayopt);
+        options.addOption(payloadopt);
+        options.addOption(gzipopt);
+        options.addOption(compressionopt);
+        options.addOption(compressionsizeopt);
+        options.addOption(fullchainopt);
+        options.addOption(chaincostopt);
+        options.addOption(unixsocketopt);
+        options.addOption(udscompareopt);
+        options.addOption(linkdelayopt);
+        options.addOption(linkjitteropt);
+        options.addOption(linkbandwidthopt);
+        options.addOption(linkpauseopt);
+        options.addOption(mixopt);
+        options.addOption(headerprofileopt);
+        options.addOption(payloadsweepopt);
+        options.addOption(footprintopt);
+        options.addOption(extremeopt);
+        options.addOption(loopbackopt);
+        options.addOption(iterationsopt);
+        options.addOption(forkopt);
+        options.addOption(resultsopt);
+        options.addOption(warmupopt);
+        options.addOption(reuseopt);
+        options.addOption(baselineopt);
+        options.addOption(poolopt);
+        options.addOption(jfropt);
+        options.addOption(jfrfileopt);
+        options.addOption(eventlogopt);
+        options.addOption(eventlogsizeopt);
 
         return options;
     }
@@ -126,6 +444,279 @@ public class BenchmarkRunner {
                 builder.setContentType(cmd.getOptionValue('t'));
             }
         }
+        if (cmd.hasOption("sweep")) {
+            final String s = cmd.getOptionValue("sweep");
+            try {
+                builder.setSweep(s != null ? Integer.parseInt(s) : ConcurrencySweep.DEFAULT_MAX_CONCURRENCY);
+            } catch (final NumberFormatException ex) {
+                throw new ParseException("Invalid number for max concurrency: " + s);
+            }
+        }
+        if (cmd.hasOption("load")) {
+            final String s = cmd.getOptionValue("load");
+            final LoadProfile.Shape shape;
+            try {
+                shape = LoadProfile.Shape.valueOf(s.trim().toUpperCase(Locale.ROOT));
+            } catch (final IllegalArgumentException ex) {
+                throw new ParseException("Invalid load profile: " + s);
+            }
+            final int duration = cmd.hasOption("load-duration")
+                    ? parseCount(cmd.getOptionValue("load-duration"))
+                    : LoadProfile.DEFAULT_DURATION;
+            if (duration == 0) {
+                throw new ParseException("Load profile duration must be positive");
+            }
+            builder.setLoadProfile(new LoadProfile(shape, duration));
+        }
+        if (cmd.hasOption("max-warmup")) {
+            final String s = cmd.getOptionValue("max-warmup");
+            try {
+                builder.setWarmupTime(Integer.parseInt(s));
+            } catch (final NumberFormatException ex) {
+                throw new ParseException("Invalid number for max warmup time: " + s);
+            }
+        }
+        if (cmd.hasOption("consumer-delay")) {
+            builder.setConsumerDelay(parseCount(cmd.getOptionValue("consumer-delay")));
+        }
+        if (cmd.hasOption("reuse-requests")) {
+            builder.setReuseRequests(true);
+        }
+        if (cmd.hasOption("harness-baseline")) {
+            builder.setHarnessBaseline(true);
+        }
+        if (cmd.hasOption("pool-telemetry")) {
+            final String s = cmd.getOptionValue("pool-telemetry");
+            try {
+                builder.setPoolTelemetryInterval(s != null ? Integer.parseInt(s) : PoolTelemetry.DEFAULT_INTERVAL);
+            } catch (final NumberFormatException ex) {
+                throw new ParseException("Invalid pool telemetry interval: " + s);
+            }
+        }
+        if (cmd.hasOption("jfr")) {
+            builder.setJfr(true);
+        }
+        if (cmd.hasOption("event-log")) {
+            builder.setEventLogFile(new File(cmd.getOptionValue("event-log")));
+        }
+        if (cmd.hasOption("event-log-size")) {
+            final int capacity = parseCount(cmd.getOptionValue("event-log-size"));
+            if (capacity < 1 || capacity > EventLog.MAX_CAPACITY) {
+                throw new ParseException("Invalid event log size: " + capacity
+                        + ", at most " + EventLog.MAX_CAPACITY + " records fit in a log");
+            }
+            builder.setEventLogCapacity(capacity);
+        }
+        if (cmd.hasOption("jfr-file")) {
+            builder.setJfr(true);
+            builder.setJfrFile(new File(cmd.getOptionValue("jfr-file")));
+        }
+        final ParameterMatrix.Builder matrixBuilder = ParameterMatrix.custom();
+        parseParameter(cmd, "io-buffer", builder, matrixBuilder,
+                BenchmarkRunner::parseIntSize, BenchmarkConfig.Builder::setIoBufferSize);
+        parseParameter(cmd, "chunk-size", builder, matrixBuilder,
+                BenchmarkRunner::parseIntSize, BenchmarkConfig.Builder::setChunkSizeHint);
+        parseParameter(cmd, "rcvbuf", builder, matrixBuilder,
+                BenchmarkRunner::parseIntSize, BenchmarkConfig.Builder::setSocketRcvBufSize);
+        parseParameter(cmd, "sndbuf", builder, matrixBuilder,
+                BenchmarkRunner::parseIntSize, BenchmarkConfig.Builder::setSocketSndBufSize);
+        parseParameter(cmd, "tcp-nodelay", builder, matrixBuilder,
+                BenchmarkRunner::parseBoolean, BenchmarkConfig.Builder::setTcpNoDelay);
+        parseParameter(cmd, "read-buffer", builder, matrixBuilder,
+                BenchmarkRunner::parseIntSize, BenchmarkConfig.Builder::setReadBufferSize);
+        parseParameter(cmd, "io-threads", builder, matrixBuilder,
+                BenchmarkRunner::parseCount, BenchmarkConfig.Builder::setIoThreads);
+        parseParameter(cmd, "shards", builder, matrixBuilder,
+                BenchmarkRunner::parseCount, BenchmarkConfig.Builder::setShards);
+        parseParameter(cmd, "variant", builder, matrixBuilder,
+                s -> s.toLowerCase(Locale.ROOT), BenchmarkConfig.Builder::setVariant);
+        parseParameter(cmd, "max-multiplex", builder, matrixBuilder,
+                BenchmarkRunner::parseCount, BenchmarkConfig.Builder::setMaxMultiplex);
+        if (cmd.hasOption("payloads")) {
+            final String contentType = cmd.hasOption('t') ? cmd.getOptionValue('t') : "application/octet-stream";
+            final List<String> labels = new ArrayList<>();
+            final List<Consumer<BenchmarkConfig.Builder>> setters = new ArrayList<>();
+            for (final String s : splitList(cmd.getOptionValue("payloads"))) {
+                final long size = parseSize(s);
+                if (size == 0) {
+                    labels.add("GET");
+                    setters.add(b -> b.setFile(null));
+                } else {
+                    final File file = createPayloadFile(size);
+                    labels.add("PUT " + formatSize(size));
+                    setters.add(b -> b.setFile(file).setContentType(contentType));
+                }
+            }
+            matrixBuilder.add(ParameterMatrix.PAYLOAD, labels, setters);
+        }
+        builder.setMatrix(matrixBuilder.build());
+        if (cmd.hasOption("gzip")) {
+            builder.setCompression(true);
+        }
+        if (cmd.hasOption("compression")) {
+            final List<Integer> ratios = new ArrayList<>();
+            for (final String s : splitList(cmd.getOptionValue("compression"))) {
+                try {
+                    ratios.add(Integer.parseInt(s));
+                } catch (final NumberFormatException ex) {
+                    throw new ParseException("Invalid compression ratio: " + s);
+                }
+            }
+            builder.setCompressionRatios(ratios);
+        }
+        if (cmd.hasOption("compression-size")) {
+            builder.setCompressionContentLength(parseIntSize(cmd.getOptionValue("compression-size")));
+        }
+        if (cmd.hasOption("payload-sweep")) {
+            final String value = cmd.getOptionValue("payload-sweep");
+            final List<Long> sizes = new ArrayList<>();
+            if (value != null) {
+                for (final String s : splitList(value)) {
+                    sizes.add(parseSize(s));
+                }
+            } else {
+                sizes.addAll(PayloadSweep.DEFAULT_SIZES);
+            }
+            if (sizes.isEmpty()) {
+                throw new ParseException("No payload sizes given");
+            }
+            builder.setPayloadSizes(sizes);
+        }
+        if (cmd.hasOption("full-chain")) {
+            builder.setFullChain(true);
+        }
+        if (cmd.hasOption("chain-cost")) {
+            builder.setChainCost(true);
+        }
+        if (cmd.hasOption("unix-socket")) {
+            builder.setUnixSocket(new File(cmd.getOptionValue("unix-socket")));
+        }
+        if (cmd.hasOption("uds-compare")) {
+            builder.setUnixSocketCompare(true);
+        }
+        if (cmd.hasOption("link-delay") || cmd.hasOption("link-jitter")
+                || cmd.hasOption("link-bandwidth") || cmd.hasOption("link-pause")) {
+            final long delay = cmd.hasOption("link-delay") ? parseMillis(cmd.getOptionValue("link-delay")) : 0;
+            final long jitter = cmd.hasOption("link-jitter") ? parseMillis(cmd.getOptionValue("link-jitter")) : 0;
+            long bandwidth = 0;
+            if (cmd.hasOption("link-bandwidth")) {
+                final String s = cmd.getOptionValue("link-bandwidth");
+                try {
+                    bandwidth = (long) (Double.parseDouble(s) * 1000000 / 8);
+                } catch (final NumberFormatException ex) {
+                    throw new ParseException("Invalid bandwidth: " + s);
+                }
+                if (bandwidth <= 0) {
+                    throw new ParseException("Invalid bandwidth: " + s);
+                }
+            }
+            long pause = 0;
+            long pauseInterval = LinkProfile.DEFAULT_PAUSE_INTERVAL_MILLIS * 1000000;
+            if (cmd.hasOption("link-pause")) {
+                final String s = cmd.getOptionValue("link-pause");
+                final int idx = s.indexOf('/');
+                pause = parseMillis(idx >= 0 ? s.substring(0, idx) : s);
+                if (idx >= 0) {
+                    pauseInterval = parseMillis(s.substring(idx + 1));
+                }
+                if (pause >= pauseInterval) {
+                    throw new ParseException("Link pause must be shorter than its interval: " + s);
+                }
+            }
+            builder.setLinkProfile(new LinkProfile(delay, jitter, bandwidth, pause, pauseInterval));
+        }
+        if (cmd.hasOption("mix")) {
+            if (cmd.hasOption("payloads")) {
+                throw new ParseException("Method mix does not apply to payload matrix");
+            }
+            final String contentType = cmd.hasOption('t') ? cmd.getOptionValue('t') : "application/octet-stream";
+            final MethodMix.Builder mixBuilder = MethodMix.custom();
+            final List<String> specs = splitList(cmd.getOptionValue("mix"));
+            if (specs.isEmpty()) {
+                throw new ParseException("No methods given for method mix");
+            }
+            for (final String spec : specs) {
+                final String[] tokens = spec.split(":");
+                if (tokens.length < 2 || tokens.length > 3) {
+                    throw new ParseException("Invalid method spec: " + spec);
+                }
+                final String name = tokens[0].trim().toUpperCase(Locale.ROOT);
+                if (name.isEmpty()) {
+                    throw new ParseException("Invalid method spec: " + spec);
+                }
+                final int weight = parseCount(tokens[1].trim());
+                if (weight == 0) {
+                    throw new ParseException("Method weight must be positive: " + spec);
+                }
+                final File file;
+                if (tokens.length > 2) {
+                    final long size = parseSize(tokens[2]);
+                    file = size > 0 ? createPayloadFile(size) : null;
+                } else if (name.equals("POST") || name.equals("PUT")) {
+                    file = builder.getFile();
+                } else {
+                    file = null;
+                }
+                mixBuilder.add(name, weight, file, file != null ? contentType : null);
+            }
+            builder.setMethodMix(mixBuilder.build());
+        }
+        if (cmd.hasOption("header-profile")) {
+            final List<String> specs = splitList(cmd.getOptionValue("header-profile"));
+            if (specs.isEmpty() || specs.size() > 2) {
+                throw new ParseException("Invalid header profile: " + cmd.getOptionValue("header-profile"));
+            }
+            final int[] request = parseHeaderSpec(specs.get(0));
+            final int[] response = specs.size() > 1 ? parseHeaderSpec(specs.get(1)) : request;
+            if (request[0] == 0 && response[0] == 0) {
+                throw new ParseException("Header profile without headers");
+            }
+            builder.setRequestHeaderCount(request[0]);
+            builder.setRequestHeaderSize(request[1]);
+            builder.setResponseHeaderCount(response[0]);
+            builder.setResponseHeaderSize(response[1]);
+        }
+        if (cmd.hasOption("footprint")) {
+            builder.setFootprint(parseCount(cmd.getOptionValue("footprint")));
+        }
+        if (cmd.hasOption("extreme")) {
+            builder.setExtreme(parseCount(cmd.getOptionValue("extreme")));
+        }
+        if (cmd.hasOption("loopback-addresses")) {
+            builder.setLoopbackAddresses(parseCount(cmd.getOptionValue("loopback-addresses")));
+        }
+        if (cmd.hasOption("iterations")) {
+            final int iterations = parseCount(cmd.getOptionValue("iterations"));
+            if (iterations < 1) {
+                throw new ParseException("Invalid number of iterations: " + iterations);
+            }
+            builder.setIterations(iterations);
+        }
+        if (cmd.hasOption("fork")) {
+            builder.setFork(true);
+        }
+        if (cmd.hasOption("results")) {
+            builder.setResultsFile(new File(cmd.getOptionValue("results")));
+        }
+        if ((builder.getIterations() > 1 || builder.isFork() || builder.getResultsFile() != null)
+                && (builder.getSweep() > 0 || builder.getLoadProfile() != null || !builder.getMatrix().isEmpty()
+                || !builder.getCompressionRatios().isEmpty() || builder.getFootprint() > 0
+                || builder.getExtreme() > 0 || isHeaderProfile(builder) || !builder.getPayloadSizes().isEmpty()
+                || builder.isChainCost() || builder.isUnixSocketCompare())) {
+            throw new ParseException("Iterations apply to the plain benchmark run only");
+        }
+        if (builder.getMethodMix() != null
+                && (!builder.getCompressionRatios().isEmpty() || builder.getFootprint() > 0
+                || builder.getExtreme() > 0 || isHeaderProfile(builder) || !builder.getPayloadSizes().isEmpty())) {
+            throw new ParseException("Method mix does not apply to scenarios");
+        }
+        final boolean localTarget = !builder.getCompressionRatios().isEmpty()
+                || isHeaderProfile(builder)
+                || !builder.getPayloadSizes().isEmpty()
+                || builder.getFootprint() > 0
+                || builder.getExtreme() > 0
+                || builder.isChainCost()
+                || builder.isUnixSocketCompare();
         final String[] cmdargs = cmd.getArgs();
         if (cmdargs.length > 0) {
             try {
@@ -133,50 +724,390 @@ public class BenchmarkRunner {
             } catch (final URISyntaxException ex) {
                 throw new ParseException("Invalid target-URI: " + cmdargs[0]);
             }
-        } else {
+        } else if (!localTarget) {
             throw new ParseException("Target-URI not specified");
         }
+        if (builder.getLinkProfile() != null && (builder.getUri() == null || builder.getUnixSocket() != null
+                || (localTarget && !builder.isChainCost()))) {
+            throw new ParseException("Link emulation applies to TCP runs against the target-URI only");
+        }
+        if (builder.getLinkProfile() != null) {
+            final List<URI> targets = new ArrayList<>(builder.getUris());
+            targets.add(builder.getUri());
+            for (final URI target : targets) {
+                if ("https".equalsIgnoreCase(target.getScheme())) {
+                    throw new ParseException("Link emulation does not apply to https targets: " + target);
+                }
+            }
+        }
         builder.setTimeout(15000);
         return builder.build();
     }
 
+    interface ValueParser<T> {
+
+        T parse(String s) throws ParseException;
+
+    }
+
+    static <T> void parseParameter(
+            final CommandLine cmd,
+            final String name,
+            final BenchmarkConfig.Builder builder,
+            final ParameterMatrix.Builder matrixBuilder,
+            final ValueParser<T> parser,
+            final BiConsumer<BenchmarkConfig.Builder, T> setter) throws ParseException {
+        if (!cmd.hasOption(name)) {
+            return;
+        }
+        final List<String> labels = splitList(cmd.getOptionValue(name));
+        if (labels.isEmpty()) {
+            throw new ParseException("No value given for " + name);
+        }
+        final List<Consumer<BenchmarkConfig.Builder>> setters = new ArrayList<>();
+        for (final String label : labels) {
+            final T value = parser.parse(label);
+            setters.add(b -> setter.accept(b, value));
+        }
+        setters.get(0).accept(builder);
+        if (labels.size() > 1) {
+            matrixBuilder.add(name, labels, setters);
+        }
+    }
+
+    static boolean isHeaderProfile(final BenchmarkConfig.Builder builder) {
+        return builder.getRequestHeaderCount() > 0 || builder.getResponseHeaderCount() > 0;
+    }
+
+    /**
+     * Parses header specs of the form {@code <count>x<size>}, such as {@code 40x256} or {@code 8x4k}.
+     */
+    static int[] parseHeaderSpec(final String s) throws ParseException {
+        final int idx = s.toLowerCase(Locale.ROOT).indexOf('x');
+        if (idx <= 0) {
+            throw new ParseException("Invalid header spec: " + s);
+        }
+        final int count = parseCount(s.substring(0, idx).trim());
+        final int size = parseIntSize(s.substring(idx + 1));
+        if (size < 1) {
+            throw new ParseException("Invalid header size: " + s);
+        }
+        return new int[] {count, size};
+    }
+
+    static List<String> splitList(final String s) {
+        final List<String> list = new ArrayList<>();
+        for (final String token : s.split(",")) {
+            final String value = token.trim();
+            if (!value.isEmpty()) {
+                list.add(value);
+            }
+        }
+        return list;
+    }
+
+    static boolean parseBoolean(final String s) throws ParseException {
+        if ("true".equalsIgnoreCase(s)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(s)) {
+            return false;
+        }
+        throw new ParseException("Invalid boolean: " + s);
+    }
+
+    static int parseCount(final String s) throws ParseException {
+        try {
+            final int count = Integer.parseInt(s);
+            if (count < 0) {
+                throw new ParseException("Negative count: " + s);
+            }
+            return count;
+        } catch (final NumberFormatException ex) {
+            throw new ParseException("Invalid count: " + s);
+        }
+    }
+
+    /**
+     * Parses sizes such as {@code 128}, {@code 16k}, {@code 4MB} or {@code 1g}.
+     */
+    static long parseSize(final String s) throws ParseException {
+        String value = s.trim().toLowerCase(Locale.ROOT);
+        if (value.endsWith("b")) {
+            value = value.substring(0, value.length() - 1).trim();
+        }
+        long multiplier = 1;
+        if (value.endsWith("k")) {
+            multiplier = 1024;
+        } else if (value.endsWith("m")) {
+            multiplier = 1024 * 1024;
+        } else if (value.endsWith("g")) {
+            multiplier = 1024 * 1024 * 1024;
+        }
+        if (multiplier > 1) {
+            value = value.substring(0, value.length() - 1).trim();
+        }
+        try {
+            final long size = Long.parseLong(value) * multiplier;
+            if (size < 0) {
+                throw new ParseException("Invalid size: " + s);
+            }
+            return size;
+        } catch (final NumberFormatException ex) {
+            throw new ParseException("Invalid size: " + s);
+        }
+    }
+
+    /**
+     * Parses a time in milliseconds such as {@code 10} or {@code 0.25} and returns it in nanoseconds.
+     */
+    static long parseMillis(final String s) throws ParseException {
+        try {
+            final double millis = Double.parseDouble(s.trim());
+            if (millis < 0 || Double.isNaN(millis) || Double.isInfinite(millis)) {
+                throw new ParseException("Invalid time: " + s);
+            }
+            return (long) (millis * 1000000);
+        } catch (final NumberFormatException ex) {
+            throw new ParseException("Invalid time: " + s);
+        }
+    }
+
+    static int parseIntSize(final String s) throws ParseException {
+        final long size = parseSize(s);
+        if (size > Integer.MAX_VALUE) {
+            throw new ParseException("Size too large: " + s);
+        }
+        return (int) size;
+    }
+
+    static String formatSize(final long size) {
+        if (size >= 1024 * 1024 && size % (1024 * 1024) == 0) {
+            return (size / (1024 * 1024)) + "m";
+        } else if (size >= 1024 && size % 1024 == 0) {
+            return (size / 1024) + "k";
+        }
+        return Long.toString(size);
+    }
+
+    static File createPayloadFile(final long size) throws ParseException {
+        try {
+            final File file = File.createTempFile("payload-", ".bin");
+            file.deleteOnExit();
+            final Random random = new Random(size);
+            final byte[] buffer = new byte[64 * 1024];
+            try (final OutputStream outstream = new FileOutputStream(file)) {
+                long remaining = size;
+                while (remaining > 0) {
+                    random.nextBytes(buffer);
+                    final int chunk = (int) Math.min(buffer.length, remaining);
+                    outstream.write(buffer, 0, chunk);
+                    remaining -= chunk;
+                }
+            }
+            return file;
+        } catch (final IOException ex) {
+            throw new ParseException("Unable to create payload file: " + ex.getMessage());
+        }
+    }
+
     static void execute(final HttpAgent agent, final BenchmarkConfig config) throws Exception {
-        agent.init();
+        if (!config.getCompressionRatios().isEmpty()) {
+            CompressionScenario.execute(agent, config);
+            return;
+        }
+        if (!config.getPayloadSizes().isEmpty()) {
+            PayloadSweep.execute(agent, config);
+            return;
+        }
+        if (config.getRequestHeaderCount() > 0 || config.getResponseHeaderCount() > 0) {
+            HeaderScenario.execute(agent, config);
+            return;
+        }
+        if (config.isChainCost()) {
+            ChainCostScenario.execute(agent, config);
+            return;
+        }
+        if (config.isUnixSocketCompare()) {
+            UnixSocketScenario.execute(agent, config);
+            return;
+        }
+        if (config.getFootprint() > 0) {
+            FootprintScenario.execute(agent, config);
+            return;
+        }
+        if (config.getExtreme() > 0) {
+            ExtremeScenario.execute(agent, config);
+            return;
+        }
+        if (!config.getMatrix().isEmpty()) {
+            executeMatrix(agent, config);
+            return;
+        }
+        agent.init(config);
         try {
             System.out.println("=================================");
             System.out.println("HTTP agent: " + agent.getClientName());
             System.out.println("=================================");
-            System.out.println("warming up...");
 
-            int warmup = config.getRequests() / 100;
-            if (warmup > 100) {
-                warmup = 100;
-            }
-
-            agent.execute(BenchmarkConfig.copy(config)
-                    .setRequests(warmup)
-                    .setConcurrency(2)
-                    .build());
-            // Sleep a little
-            Thread.sleep(5000);
+            Warmup.execute(agent, config);
 
             System.out.println("---------------------------------");
 
-            if (config.getFile() != null) {
+            if (config.getSweep() > 0) {
+                System.out.println("Concurrency sweep up to " + config.getSweep());
+                System.out.println("---------------------------------");
+                final List<ConcurrencySweep.Step> steps = ConcurrencySweep.execute(agent, config);
+                System.out.println("---------------------------------");
+                ConcurrencySweep.printTable(steps);
+                return;
+            }
+
+            if (config.getLoadProfile() != null) {
+                System.out.println("Load profile " + config.getLoadProfile() + ", peak concurrency " +
+                        config.getConcurrency());
+                LoadProfile.execute(agent, config);
+                return;
+            }
+
+            if (config.getMethodMix() != null) {
+                System.out.println(config.getRequests() + " requests, method mix " + config.getMethodMix());
+            } else if (config.getFile() != null) {
                 System.out.println(config.getRequests() + " PUT requests");
             } else {
                 System.out.println(config.getRequests() + " GET requests");
             }
             System.out.println("---------------------------------");
 
+            final JfrProfiler profiler = JfrProfiler.start(agent, config);
+            final PoolTelemetry telemetry = PoolTelemetry.start(agent, config);
+            final EventLog eventLog = config.getEventLogFile() != null
+                    ? EventLog.open(config.getEventLogFile(), config.getEventLogCapacity()) : null;
+            Stats.setEventLog(eventLog);
+            final ResourceUsage usage = ResourceUsage.start();
             final long startTime = System.currentTimeMillis();
-            final Stats stats = agent.execute(config);
-            final long finishTime = System.currentTimeMillis();
+            final Stats stats;
+            final long finishTime;
+            try {
+                stats = agent.execute(config);
+                finishTime = System.currentTimeMillis();
+            } finally {
+                Stats.setEventLog(null);
+                if (eventLog != null) {
+                    eventLog.close();
+                }
+                if (telemetry != null) {
+                    telemetry.stop();
+                }
+                if (profiler != null) {
+                    profiler.stop();
+                }
+            }
+            usage.stop();
 
             Stats.printStats(config.getUri(), startTime, finishTime, stats);
+            System.out.print("Peak heap usage:\t");
+            System.out.print(usage.getPeakHeap() / (1024 * 1024));
+            System.out.println(" MB");
+            if (usage.getAllocated() >= 0) {
+                System.out.print("Heap allocated:\t\t");
+                System.out.print(usage.getAllocated() / (1024 * 1024));
+                System.out.println(String.format(Locale.ROOT, " MB (%d bytes per request)",
+                        usage.getAllocated() / Math.max(config.getRequests(), 1)));
+            }
+            System.out.print("Peak threads:\t\t");
+            System.out.println(usage.getPeakThreads());
+            if (usage.getContextSwitches() >= 0) {
+                System.out.print("Context switches:\t");
+                System.out.print(usage.getContextSwitches());
+                System.out.println(String.format(Locale.ROOT, " (%.2f per request)",
+                        (double) usage.getContextSwitches() / Math.max(config.getRequests(), 1)));
+            }
+            if (telemetry != null) {
+                telemetry.print();
+            }
+            if (profiler != null) {
+                profiler.printSummary();
+            }
+            if (eventLog != null) {
+                System.out.print("Event log:\t\t");
+                System.out.print(eventLog.getCount());
+                System.out.println(" records written to " + eventLog.getFile());
+            }
+
+            if (config.isHarnessBaseline()) {
+                printHarnessCost(config, startTime, finishTime);
+            }
         } finally {
             agent.shutdown();
         }
     }
 
+    static void executeMatrix(final HttpAgent agent, final BenchmarkConfig config) throws Exception {
+        System.out.println("=================================");
+        System.out.println("HTTP agent: " + agent.getClientName());
+        System.out.println("=================================");
+        final List<ParameterMatrix.Result> results = new ArrayList<>();
+        final List<String> curveLabels = new ArrayList<>();
+        final List<List<ConcurrencySweep.Step>> curves = new ArrayList<>();
+        for (final ParameterMatrix.Cell cell : config.getMatrix().expand(config)) {
+            final BenchmarkConfig cellConfig = cell.getConfig();
+            System.out.println("---------------------------------");
+            System.out.println(cell);
+            agent.init(cellConfig);
+            try {
+                Warmup.execute(agent, cellConfig);
+                final ParameterMatrix.Result result;
+                final ResourceUsage usage = ResourceUsage.start();
+                if (cellConfig.getSweep() > 0) {
+                    // Scaling curve of every cell, represented by its peak in the results
+                    final List<ConcurrencySweep.Step> steps = ConcurrencySweep.execute(agent, cellConfig);
+                    curveLabels.add(cell.describe());
+                    curves.add(steps);
+                    final ConcurrencySweep.Step peak = steps.get(ConcurrencySweep.findPeak(steps));
+                    result = new ParameterMatrix.Result(
+                            cell,
+                            peak.getReqsPerSec(),
+                            peak.getP99(),
+                            peak.getFailureCount(),
+                            usage.stop());
+                } else {
+                    final long startTime = System.currentTimeMillis();
+                    final Stats stats = agent.execute(cellConfig);
+                    final long finishTime = System.currentTimeMillis();
+                    final float totalTimeSec = (float) Math.max(finishTime - startTime, 1) / 1000;
+                    result = new ParameterMatrix.Result(
+                            cell,
+                            stats.getSuccessCount() / totalTimeSec,
+                            stats.getLatency().getPercentile(99),
+                            stats.getFailureCount(),
+                            usage.stop());
+                }
+                results.add(result);
+                System.out.println(result.format());
+            } finally {
+                agent.shutdown();
+            }
+        }
+        System.out.println("---------------------------------");
+        if (!curves.isEmpty()) {
+            ConcurrencySweep.printCurves(curveLabels, curves);
+            System.out.println("---------------------------------");
+        }
+        ParameterMatrix.printResults(results);
+    }
+
+    static void printHarnessCost(
+            final BenchmarkConfig config, final long startTime, final long finishTime) throws Exception {
+        final long harnessNanos = NullHttpAgent.measure(config);
+        final long agentNanos = (finishTime - startTime) * 1_000_000L / Math.max(config.getRequests(), 1);
+        System.out.print("Harness cost:\t\t");
+        System.out.print(harnessNanos);
+        System.out.print(" [ns/request]");
+        if (agentNanos > 0) {
+            System.out.print(String.format(Locale.ROOT, " (%.2f%% of %d [ns/request] measured)",
+                    harnessNanos * 100d / agentNanos, agentNanos));
+        }
+        System.out.println();
+    }
+
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Executes the benchmark with the agent built as a minimal client and once
+ * again with the full protocol chain of the client, and reports the cost of
+ * the chain as the difference in mean latency, CPU time and heap allocated
+ * per request. Runs go against the target-URI if given, otherwise against
+ * a local {@link TargetServer}. Both profiles run in turn, see
+ * {@link MeasuredRun#executeInTurn}.
+ */
+final class ChainCostScenario {
+
+    static void execute(final HttpAgent agent, final BenchmarkConfig config) throws Exception {
+        System.out.println("=================================");
+        System.out.println("HTTP agent: " + agent.getClientName());
+        System.out.println("=================================");
+
+        final List<String> labels = Arrays.asList("minimal", "full");
+        final List<MeasuredRun> runs;
+        try (final TargetProcess target = config.getUri() == null ? TargetProcess.start() : null) {
+            final BenchmarkConfig.Builder builder = BenchmarkConfig.copy(config)
+                    .setUri(target != null ? target.getUri("/") : config.getUri())
+                    .setChainCost(false);
+            runs = MeasuredRun.executeInTurn(agent, labels, Arrays.asList(
+                    builder.setFullChain(false).build(),
+                    builder.setFullChain(true).build()));
+        }
+        System.out.println("---------------------------------");
+        System.out.println("Chain   \t     Req/s\t Mean [us]\tCPU/req [us]\tAlloc/req [B]\tFailed");
+        for (int i = 0; i < runs.size(); i++) {
+            final MeasuredRun run = runs.get(i);
+            System.out.println(String.format(Locale.ROOT, "%-8s\t%10.2f\t%10.2f\t%12s\t%12s\t%6d",
+                    labels.get(i),
+                    run.getReqsPerSec(),
+                    run.getLatency(),
+                    MeasuredRun.format(run.getCpuPerRequest()),
+                    MeasuredRun.format(run.getAllocatedPerRequest()),
+                    run.getStats().getFailureCount()));
+        }
+        final MeasuredRun base = runs.get(0);
+        final MeasuredRun full = runs.get(1);
+        System.out.println("Exec chain cost per request: " +
+                MeasuredRun.format(full.getLatency() - base.getLatency()) + " us latency, " +
+                MeasuredRun.format(full.getCpuPerRequest() - base.getCpuPerRequest()) + " us CPU, " +
+                MeasuredRun.format(full.getAllocatedPerRequest() - base.getAllocatedPerRequest()) +
+                " bytes allocated");
+    }
+
+}
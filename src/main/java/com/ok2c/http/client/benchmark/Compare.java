@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares iteration results of several agents appended to a results file
+ * with {@code --results}. Prints the mean, standard deviation and 95%
+ * confidence interval of throughput and p99 latency of every agent and,
+ * for every pair of agents, whether the difference is significant at the
+ * 5% level according to the Mann-Whitney U test.
+ */
+public class Compare {
+
+    public static void main(final String... args) throws Exception {
+        if (args.length != 1) {
+            System.out.println("usage: compare <results file>");
+            return;
+        }
+        final File file = new File(args[0]);
+        if (!file.canRead()) {
+            System.out.println("File '" + file + "' cannot be read");
+            return;
+        }
+        final Map<String, List<Iterations.Result>> resultMap = new LinkedHashMap<>();
+        for (final String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            final String[] fields = line.split("\t");
+            if (fields.length != 3) {
+                continue;
+            }
+            resultMap.computeIfAbsent(fields[0], k -> new ArrayList<>()).add(
+                    new Iterations.Result(Double.parseDouble(fields[1]), Double.parseDouble(fields[2])));
+        }
+        final List<String> agents = new ArrayList<>(resultMap.keySet());
+        final List<double[]> reqsPerSec = new ArrayList<>();
+        final List<double[]> p99 = new ArrayList<>();
+        for (final String agent : agents) {
+            final List<Iterations.Result> results = resultMap.get(agent);
+            final double[] r = new double[results.size()];
+            final double[] p = new double[results.size()];
+            for (int i = 0; i < results.size(); i++) {
+                r[i] = results.get(i).getReqsPerSec();
+                p[i] = results.get(i).getP99();
+            }
+            reqsPerSec.add(r);
+            p99.add(p);
+        }
+
+        System.out.println("=================================");
+        System.out.println("Requests per second");
+        System.out.println("=================================");
+        for (int i = 0; i < agents.size(); i++) {
+            System.out.println(agents.get(i) + ":\t" + Statistics.describe(reqsPerSec.get(i)));
+        }
+        printPairs(agents, reqsPerSec);
+        System.out.println("=================================");
+        System.out.println("Latency p99 [ms]");
+        System.out.println("=================================");
+        for (int i = 0; i < agents.size(); i++) {
+            System.out.println(agents.get(i) + ":\t" + Statistics.describe(p99.get(i)));
+        }
+        printPairs(agents, p99);
+    }
+
+    static void printPairs(final List<String> agents, final List<double[]> samples) {
+        System.out.println("---------------------------------");
+        for (int i = 0; i < agents.size(); i++) {
+            for (int j = i + 1; j < agents.size(); j++) {
+                final double[] x = samples.get(i);
+                final double[] y = samples.get(j);
+                final double p = Statistics.mannWhitneyP(x, y);
+                final double difference = (Statistics.mean(x) - Statistics.mean(y)) / Statistics.mean(y) * 100;
+                System.out.println(String.format(Locale.ROOT, "%s vs %s: %+.2f%%, U=%.1f, p=%.4f, %s",
+                        agents.get(i),
+                        agents.get(j),
+                        difference,
+                        Statistics.mannWhitneyU(x, y),
+                        p,
+                        p < Statistics.SIGNIFICANCE_LEVEL ? "significant" : "not significant (noise)"));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Executes GET requests against a local {@link TargetServer} serving pre-compressed
+ * content at several compression ratios. The agent is expected to request gzip
+ * encoding and decode content using its native decoding path. The scenario
+ * reports decoded bytes per second and CPU time per request, with an uncompressed
+ * run as the baseline.
+ */
+final class CompressionScenario {
+
+    static void execute(final HttpAgent agent, final BenchmarkConfig config) throws Exception {
+        System.out.println("=================================");
+        System.out.println("HTTP agent: " + agent.getClientName());
+        System.out.println("=================================");
+
+        final int size = config.getCompressionContentLength();
+        final List<String> rows = new ArrayList<>();
+        try (final TargetProcess target = TargetProcess.start()) {
+            final List<Integer> ratios = new ArrayList<>();
+            // Identity encoding as the baseline
+            ratios.add(0);
+            ratios.addAll(config.getCompressionRatios());
+            for (final int ratio : ratios) {
+                final BenchmarkConfig runConfig = BenchmarkConfig.copy(config)
+                        .setUri(target.getUri("/gzip/" + Math.max(ratio, 1) + "?size=" + size))
+                        .setFile(null)
+                        .setCompression(ratio > 0)
+                        .setCompressionRatios(new ArrayList<>())
+                        .build();
+                final String label = ratio > 0 ? "gzip 1:" + ratio : "identity";
+                final int wireLength = ratio > 0
+                        ? TargetServer.gzip(TargetServer.content(size, ratio)).length
+                        : size;
+                System.out.println("---------------------------------");
+                System.out.println(label + ": " + size + " bytes decoded, " + wireLength + " bytes on the wire");
+
+                final MeasuredRun run = MeasuredRun.execute(agent, runConfig);
+                final String row = String.format(Locale.ROOT, "%-12s\t%10d\t%10.2f\t%12.2f\t%12s\t%6d",
+                        label,
+                        wireLength,
+                        run.getReqsPerSec(),
+                        run.getContentMBPerSec(),
+                        MeasuredRun.format(run.getCpuPerRequest()),
+                        run.getStats().getFailureCount());
+                rows.add(row);
+                System.out.println(row);
+            }
+        }
+        System.out.println("---------------------------------");
+        System.out.println("Encoding    \t Wire size\t     Req/s\tDecoded MB/s\tCPU/req [us]\tFailed");
+        for (final String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+}
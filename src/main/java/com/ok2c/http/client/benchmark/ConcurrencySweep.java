@@ -0,0 +1,226 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Executes the same agent at a geometric series of concurrency levels
+ * (1, 2, 4 ... max) and locates the point where the agent stops scaling.
+ * <p>
+ * The knee is the step with the highest throughput to p99 latency ratio
+ * (Kleinrock's power metric). The saturation point is the last step after
+ * which doubling concurrency improves throughput by less than 5%.
+ * <p>
+ * The number of requests actually in flight at every step is derived from
+ * throughput and mean latency (Little's law). Agents that execute one
+ * request at a time never get past one whatever the concurrency level, and
+ * neither knee nor saturation point is reported for them.
+ */
+final class ConcurrencySweep {
+
+    static final int DEFAULT_MAX_CONCURRENCY = 4096;
+
+    private static final double MIN_GAIN = 1.05;
+
+    private static final double MAX_SEQUENTIAL_IN_FLIGHT = 1.5;
+
+    static List<Step> execute(final HttpAgent agent, final BenchmarkConfig config) throws Exception {
+        final List<Step> steps = new ArrayList<>();
+        for (int concurrency = 1; concurrency <= config.getSweep(); concurrency *= 2) {
+            // Give every connection a chance to execute a few requests
+            final int requests = Math.max(config.getRequests(), concurrency * 10);
+            final BenchmarkConfig stepConfig = BenchmarkConfig.copy(config)
+                    .setConcurrency(concurrency)
+                    .setRequests(requests)
+                    .build();
+            final long startTime = System.currentTimeMillis();
+            final Stats stats = agent.execute(stepConfig);
+            final long finishTime = System.currentTimeMillis();
+            final Step step = new Step(concurrency, stats, finishTime - startTime);
+            steps.add(step);
+            System.out.println(String.format(Locale.ROOT, "concurrency %5d: %.2f [#/sec], p99 %s [ms], %.2f in flight",
+                    concurrency, step.getReqsPerSec(), Stats.toMillis(step.getP99()), step.getInFlight()));
+        }
+        return steps;
+    }
+
+    /**
+     * Returns {@code true} if the agent kept no more than one request in
+     * flight at any concurrency level above one, that is, the levels were not
+     * applied at all.
+     */
+    static boolean isSequential(final List<Step> steps) {
+        boolean applicable = false;
+        for (final Step step : steps) {
+            if (step.getConcurrency() > 1) {
+                if (step.getInFlight() >= MAX_SEQUENTIAL_IN_FLIGHT) {
+                    return false;
+                }
+                applicable = true;
+            }
+        }
+        return applicable;
+    }
+
+    static int findKnee(final List<Step> steps) {
+        int knee = -1;
+        double best = 0;
+        for (int i = 0; i < steps.size(); i++) {
+            final Step step = steps.get(i);
+            final double power = step.getReqsPerSec() / Math.max(step.getP99(), 1);
+            if (power > best) {
+                best = power;
+                knee = i;
+            }
+        }
+        return knee;
+    }
+
+    static int findPeak(final List<Step> steps) {
+        int peak = 0;
+        for (int i = 1; i < steps.size(); i++) {
+            if (steps.get(i).getReqsPerSec() > steps.get(peak).getReqsPerSec()) {
+                peak = i;
+            }
+        }
+        return peak;
+    }
+
+    static int findSaturation(final List<Step> steps) {
+        for (int i = 1; i < steps.size(); i++) {
+            if (steps.get(i).getReqsPerSec() < steps.get(i - 1).getReqsPerSec() * MIN_GAIN) {
+                return i - 1;
+            }
+        }
+        return -1;
+    }
+
+    static void printTable(final List<Step> steps) {
+        final boolean sequential = isSequential(steps);
+        final int knee = sequential ? -1 : findKnee(steps);
+        final int saturation = sequential ? -1 : findSaturation(steps);
+        System.out.println("Concurrency\t     Req/s\t  Gain\t  p99 [ms]\tIn flight\tFailed");
+        for (int i = 0; i < steps.size(); i++) {
+            final Step step = steps.get(i);
+            final double previous = i > 0 ? steps.get(i - 1).getReqsPerSec() : 0;
+            final String gain = previous > 0
+                    ? String.format(Locale.ROOT, "%5.2fx", step.getReqsPerSec() / previous)
+                    : "     -";
+            final StringBuilder buf = new StringBuilder();
+            buf.append(String.format(Locale.ROOT, "%11d\t%10.2f\t%s\t%10s\t%9.2f\t%6d",
+                    step.getConcurrency(), step.getReqsPerSec(), gain,
+                    Stats.toMillis(step.getP99()), step.getInFlight(), step.getFailureCount()));
+            if (i == knee) {
+                buf.append("  <- knee");
+            }
+            if (i == saturation) {
+                buf.append("  <- saturation");
+            }
+            System.out.println(buf);
+        }
+        if (sequential) {
+            System.out.println("Knee point:\t\tn/a (the agent executes one request at a time, " +
+                    "concurrency levels were not applied)");
+            return;
+        }
+        if (knee >= 0) {
+            System.out.println("Knee point:\t\tconcurrency " + steps.get(knee).getConcurrency());
+        }
+        if (saturation >= 0) {
+            System.out.println("Stops scaling at:\tconcurrency " + steps.get(saturation).getConcurrency());
+        } else {
+            System.out.println("Stops scaling at:\tn/a (still scaling at the last step)");
+        }
+    }
+
+    /**
+     * Prints throughput at each concurrency level for several configurations side by side.
+     */
+    static void printCurves(final List<String> labels, final List<List<Step>> curves) {
+        int width = 13;
+        for (final String label : labels) {
+            width = Math.max(width, label.length());
+        }
+        final StringBuilder header = new StringBuilder(String.format(Locale.ROOT, "%-" + width + "s", "Req/s"));
+        int maxSteps = 0;
+        for (final List<Step> steps : curves) {
+            if (steps.size() > maxSteps) {
+                maxSteps = steps.size();
+                header.setLength(width);
+                for (final Step step : steps) {
+                    header.append(String.format(Locale.ROOT, "\t%10s", "c=" + step.getConcurrency()));
+                }
+            }
+        }
+        System.out.println(header);
+        for (int i = 0; i < curves.size(); i++) {
+            final StringBuilder buf = new StringBuilder(String.format(Locale.ROOT, "%-" + width + "s", labels.get(i)));
+            for (final Step step : curves.get(i)) {
+                buf.append(String.format(Locale.ROOT, "\t%10.2f", step.getReqsPerSec()));
+            }
+            if (isSequential(curves.get(i))) {
+                buf.append("  (one request at a time)");
+            }
+            System.out.println(buf);
+        }
+    }
+
+    static class Step {
+
+        private final int concurrency;
+        private final double reqsPerSec;
+        private final long p99;
+        private final double inFlight;
+        private final int failureCount;
+
+        Step(final int concurrency, final Stats stats, final long elapsedMillis) {
+            this.concurrency = concurrency;
+            this.reqsPerSec = stats.getSuccessCount() / (Math.max(elapsedMillis, 1) / 1000d);
+            this.p99 = stats.getLatency().getPercentile(99);
+            this.inFlight = stats.getLatency().getCount() * stats.getLatency().getMean()
+                    / (Math.max(elapsedMillis, 1) * 1000000d);
+            this.failureCount = stats.getFailureCount();
+        }
+
+        int getConcurrency() {
+            return concurrency;
+        }
+
+        double getReqsPerSec() {
+            return reqsPerSec;
+        }
+
+        long getP99() {
+            return p99;
+        }
+
+        /**
+         * Returns the mean number of requests in flight.
+         */
+        double getInFlight() {
+            return inFlight;
+        }
+
+        int getFailureCount() {
+            return failureCount;
+        }
+
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in for application code that consumes response content slower than
+ * the network delivers it. Content handed over by the I/O layer is copied,
+ * queued per response and processed chunk by chunk on worker threads, with
+ * the configured delay spent on every chunk.
+ * <p>
+ * Content that has been received but not yet processed is counted as
+ * buffered. Without backpressure it grows with the difference between
+ * network and processing speed.
+ */
+final class ContentProcessor {
+
+    /**
+     * Receives content of a single response once it has been processed.
+     */
+    interface Listener {
+
+        void processed(ByteBuffer src) throws IOException;
+
+        void completed();
+
+        void failed(Exception ex);
+
+    }
+
+    private final long delayNanos;
+    private final ExecutorService executor;
+    private final AtomicLong buffered;
+    private final AtomicLong peakBuffered;
+
+    ContentProcessor(final int delayMicros, final int threads) {
+        this.delayNanos = TimeUnit.MICROSECONDS.toNanos(delayMicros);
+        this.executor = Executors.newFixedThreadPool(Math.max(threads, 1), r -> {
+            final Thread thread = new Thread(r, "content-processor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.buffered = new AtomicLong();
+        this.peakBuffered = new AtomicLong();
+    }
+
+    /**
+     * Returns a processor for the given configuration or {@code null} if
+     * content is to be consumed as it arrives.
+     */
+    static ContentProcessor create(final BenchmarkConfig config) {
+        if (config.getConsumerDelay() <= 0) {
+            return null;
+        }
+        // One worker per concurrent response, so that processing never waits for a worker
+        return new ContentProcessor(config.getConsumerDelay(), config.getConcurrency());
+    }
+
+    Channel open(final Listener listener) {
+        return new Channel(listener);
+    }
+
+    /**
+     * Returns the maximum number of bytes received but not yet processed
+     * across all responses.
+     */
+    long getPeakBuffered() {
+        return peakBuffered.get();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Content queue of a single response. Chunks are processed in order,
+     * one at a time.
+     */
+    final class Channel {
+
+        private final Listener listener;
+        private final Queue<ByteBuffer> queue;
+
+        private boolean ended;
+        private boolean scheduled;
+        private boolean closed;
+
+        Channel(final Listener listener) {
+            this.listener = listener;
+            this.queue = new ArrayDeque<>();
+        }
+
+        void submit(final ByteBuffer src) {
+            final ByteBuffer copy = ByteBuffer.allocate(src.remaining());
+            copy.put(src);
+            copy.flip();
+            final long total = buffered.addAndGet(copy.remaining());
+            peakBuffered.accumulateAndGet(total, Math::max);
+            synchronized (this) {
+                if (closed) {
+                    buffered.addAndGet(-copy.remaining());
+                    return;
+                }
+                queue.add(copy);
+                schedule();
+            }
+        }
+
+        void end() {
+            synchronized (this) {
+                if (!closed) {
+                    ended = true;
+                    schedule();
+                }
+            }
+        }
+
+        /**
+         * Discards any content not processed yet, for instance once the exchange has failed.
+         */
+        void close() {
+            synchronized (this) {
+                closed = true;
+                ByteBuffer chunk;
+                while ((chunk = queue.poll()) != null) {
+                    buffered.addAndGet(-chunk.remaining());
+                }
+            }
+        }
+
+        private void schedule() {
+            if (!scheduled) {
+                scheduled = true;
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            for (;;) {
+                final ByteBuffer chunk;
+                synchronized (this) {
+                    chunk = queue.poll();
+                    if (chunk == null) {
+                        scheduled = false;
+                        if (!ended || closed) {
+                            return;
+                        }
+                        closed = true;
+                    }
+                }
+                if (chunk == null) {
+                    listener.completed();
+                    return;
+                }
+                LockSupport.parkNanos(delayNanos);
+                buffered.addAndGet(-chunk.remaining());
+                try {
+                    listener.processed(chunk);
+                } catch (final IOException | RuntimeException ex) {
+                    close();
+                    synchronized (this) {
+                        scheduled = false;
+                    }
+                    listener.failed(ex);
+                    return;
+                }
+            }
+        }
+
+    }
+
+}
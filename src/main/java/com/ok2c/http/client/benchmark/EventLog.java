@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Raw log of completed requests in a memory-mapped ring file. Every completion
+ * is written as a fixed-width record at an index of its own, so appending
+ * neither allocates nor locks. Once the ring is full, the oldest records get
+ * overwritten. The count in the header is updated with every record, so the
+ * log of a run that hangs or gets killed can still be read; with concurrent
+ * appends it may lag a record or two behind until the log is closed.
+ * <p>
+ * File layout, big-endian:
+ * <pre>
+ * header (64 bytes): magic, version (int), capacity, count, origin nanos, origin epoch millis (long)
+ * record (48 bytes): start nanos, end nanos, content length, connection id, thread id (long),
+ *                    status, flags (int)
+ * </pre>
+ * The connection id is the local port of the connection where the agent can
+ * tell, otherwise {@code 0}. The status is {@code 0} if no response was
+ * received or the agent does not report it.
+ */
+final class EventLog implements Closeable {
+
+    static final int MAGIC = 0x48434C47;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 48;
+    static final int DEFAULT_CAPACITY = 1024 * 1024;
+    /**
+     * Mapped buffers are limited to 2 GB.
+     */
+    static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+
+    static final int FLAG_SUCCESS = 1;
+
+    static final int CAPACITY_OFFSET = 8;
+    static final int COUNT_OFFSET = 16;
+    static final int ORIGIN_NANOS_OFFSET = 24;
+    static final int ORIGIN_MILLIS_OFFSET = 32;
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final AtomicLong next;
+
+    private EventLog(final File file, final FileChannel channel, final MappedByteBuffer buffer, final int capacity) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.next = new AtomicLong();
+    }
+
+    static EventLog open(final File file, final int capacity) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final MappedByteBuffer buffer = channel.map(
+                FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(CAPACITY_OFFSET, capacity);
+        buffer.putLong(COUNT_OFFSET, 0);
+        buffer.putLong(ORIGIN_NANOS_OFFSET, System.nanoTime());
+        buffer.putLong(ORIGIN_MILLIS_OFFSET, System.currentTimeMillis());
+        return new EventLog(file, channel, buffer, capacity);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of records appended, including those overwritten since.
+     */
+    long getCount() {
+        return next.get();
+    }
+
+    void append(
+            final long startTime,
+            final long endTime,
+            final int status,
+            final boolean success,
+            final long contentLen,
+            final long connectionId) {
+        final long n = next.getAndIncrement();
+        final int offset = HEADER_SIZE + (int) (n % capacity) * RECORD_SIZE;
+        buffer.putLong(offset, startTime);
+        buffer.putLong(offset + 8, endTime);
+        buffer.putLong(offset + 16, contentLen);
+        buffer.putLong(offset + 24, connectionId);
+        buffer.putLong(offset + 32, Thread.currentThread().getId());
+        buffer.putInt(offset + 40, status);
+        buffer.putInt(offset + 44, success ? FLAG_SUCCESS : 0);
+        buffer.putLong(COUNT_OFFSET, n + 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.putLong(COUNT_OFFSET, next.get());
+        buffer.force();
+        channel.close();
+    }
+
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.File;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reconstructs the course of a benchmark run from an event log written with
+ * {@code --event-log}: a timeline of completions, failures, latency and
+ * requests in flight per time window, with windows in which nothing completed
+ * while requests were in flight marked as stalls, the slowest requests and
+ * statistics per connection, or per thread where the agent does not tell
+ * connections apart.
+ * <p>
+ * Connections are identified by their local port. The JRE agents cannot tell
+ * connections apart: neither {@code java.net.http} nor
+ * {@code HttpURLConnection} expose the connection of a request, nor do
+ * connections over Unix domain sockets have a port.
+ */
+public class EventLogAnalyzer {
+
+    private static final long DEFAULT_WINDOW_MILLIS = 100;
+    private static final int OUTLIERS = 10;
+
+    public static void main(final String... args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("usage: analyze-event-log <event log file> [window millis]");
+            return;
+        }
+        final File file = new File(args[0]);
+        if (!file.canRead()) {
+            System.out.println("File '" + file + "' cannot be read");
+            return;
+        }
+        final long windowMillis = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_WINDOW_MILLIS;
+        if (windowMillis < 1) {
+            System.out.println("Invalid window: " + windowMillis);
+            return;
+        }
+
+        final MappedByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < EventLog.HEADER_SIZE || buffer.getInt(0) != EventLog.MAGIC) {
+            System.out.println("File '" + file + "' is not an event log");
+            return;
+        }
+        if (buffer.getInt(4) != EventLog.VERSION) {
+            System.out.println("Unsupported event log version: " + buffer.getInt(4));
+            return;
+        }
+        final long capacity = buffer.getLong(EventLog.CAPACITY_OFFSET);
+        final long count = buffer.getLong(EventLog.COUNT_OFFSET);
+        final long originNanos = buffer.getLong(EventLog.ORIGIN_NANOS_OFFSET);
+        final long originMillis = buffer.getLong(EventLog.ORIGIN_MILLIS_OFFSET);
+        if (capacity < 1 || capacity > EventLog.MAX_CAPACITY) {
+            System.out.println("Invalid event log capacity: " + capacity);
+            return;
+        }
+        if (EventLog.HEADER_SIZE + capacity * EventLog.RECORD_SIZE > buffer.capacity()) {
+            System.out.println("Event log '" + file + "' is truncated");
+            return;
+        }
+
+        // Once the ring has wrapped, the oldest record follows the most recent one
+        final int n = (int) Math.min(count, capacity);
+        final int first = count > capacity ? (int) (count % capacity) : 0;
+        final Record[] records = new Record[n];
+        for (int i = 0; i < n; i++) {
+            records[i] = Record.read(buffer, EventLog.HEADER_SIZE + ((first + i) % (int) capacity) * EventLog.RECORD_SIZE);
+        }
+
+        System.out.println("=================================");
+        System.out.println("Event log: " + file);
+        System.out.println("=================================");
+        System.out.println("Started:\t\t" + Instant.ofEpochMilli(originMillis));
+        System.out.print("Records:\t\t" + n);
+        if (count > n) {
+            System.out.print(" of " + count + " (oldest " + (count - n) + " overwritten)");
+        }
+        System.out.println();
+        if (n == 0) {
+            return;
+        }
+        final Histogram latency = new Histogram();
+        long failures = 0;
+        long minStart = Long.MAX_VALUE;
+        long maxEnd = Long.MIN_VALUE;
+        for (final Record record : records) {
+            latency.record(record.getLatency());
+            if (!record.success) {
+                failures++;
+            }
+            minStart = Math.min(minStart, record.startTime);
+            maxEnd = Math.max(maxEnd, record.endTime);
+        }
+        System.out.println("Failed requests:\t" + failures);
+        System.out.println(String.format(Locale.ROOT, "Time span:\t\t%.3f - %.3f [s]",
+                (minStart - originNanos) / 1e9, (maxEnd - originNanos) / 1e9));
+        System.out.println(String.format(Locale.ROOT, "Latency p50/p99/max:\t%.3f / %.3f / %.3f [ms]",
+                latency.getPercentile(50) / 1e6, latency.getPercentile(99) / 1e6, latency.getMax() / 1e6));
+
+        printTimeline(records, minStart, maxEnd, windowMillis * 1_000_000L, originNanos);
+        printOutliers(records, originNanos);
+        printConnections(records);
+    }
+
+    static void printTimeline(
+            final Record[] records,
+            final long minStart,
+            final long maxEnd,
+            final long window,
+            final long originNanos) {
+        final int windows = (int) ((maxEnd - minStart) / window) + 1;
+        final long[] completed = new long[windows];
+        final long[] failed = new long[windows];
+        final long[] latencySum = new long[windows];
+        final long[] latencyMax = new long[windows];
+        // Requests started at or before the end of a window and completed after it are in flight
+        final long[] inFlightDelta = new long[windows + 1];
+        for (final Record record : records) {
+            final int startWindow = (int) ((record.startTime - minStart) / window);
+            final int endWindow = (int) ((record.endTime - minStart) / window);
+            completed[endWindow]++;
+            if (!record.success) {
+                failed[endWindow]++;
+            }
+            final long latency = record.getLatency();
+            latencySum[endWindow] += latency;
+            latencyMax[endWindow] = Math.max(latencyMax[endWindow], latency);
+            inFlightDelta[startWindow]++;
+            inFlightDelta[endWindow]--;
+        }
+        System.out.println("---------------------------------");
+        System.out.println(String.format(Locale.ROOT, "Timeline (%d ms windows)", window / 1_000_000L));
+        System.out.println("---------------------------------");
+        System.out.println(String.format(Locale.ROOT, "%10s %10s %8s %12s %12s %10s",
+                "time [s]", "completed", "failed", "mean [ms]", "max [ms]", "in flight"));
+        long inFlight = 0;
+        int stalls = 0;
+        for (int i = 0; i < windows; i++) {
+            inFlight += inFlightDelta[i];
+            final boolean stall = completed[i] == 0 && inFlight > 0;
+            if (stall) {
+                stalls++;
+            }
+            System.out.println(String.format(Locale.ROOT, "%10.3f %10d %8d %12.3f %12.3f %10d%s",
+                    (minStart + i * window - originNanos) / 1e9,
+                    completed[i],
+                    failed[i],
+                    completed[i] > 0 ? latencySum[i] / 1e6 / completed[i] : 0d,
+                    latencyMax[i] / 1e6,
+                    inFlight,
+                    stall ? "  STALL" : ""));
+        }
+        System.out.println("Stalled windows:\t" + stalls);
+    }
+
+    static void printOutliers(final Record[] records, final long originNanos) {
+        final List<Record> outliers = new ArrayList<>(OUTLIERS + 1);
+        for (final Record record : records) {
+            if (outliers.size() == OUTLIERS
+                    && record.getLatency() <= outliers.get(OUTLIERS - 1).getLatency()) {
+                continue;
+            }
+            int i = outliers.size();
+            while (i > 0 && outliers.get(i - 1).getLatency() < record.getLatency()) {
+                i--;
+            }
+            outliers.add(i, record);
+            if (outliers.size() > OUTLIERS) {
+                outliers.remove(OUTLIERS);
+            }
+        }
+        System.out.println("---------------------------------");
+        System.out.println("Slowest requests");
+        System.out.println("---------------------------------");
+        System.out.println(String.format(Locale.ROOT, "%10s %12s %8s %10s %12s %8s",
+                "start [s]", "latency [ms]", "status", "bytes", "connection", "thread"));
+        for (final Record record : outliers) {
+            System.out.println(String.format(Locale.ROOT, "%10.3f %12.3f %8s %10d %12d %8d",
+                    (record.startTime - originNanos) / 1e9,
+                    record.getLatency() / 1e6,
+                    record.success ? Integer.toString(record.status) : record.status + "!",
+                    record.contentLen,
+                    record.connectionId,
+                    record.threadId));
+        }
+    }
+
+    static void printConnections(final Record[] records) {
+        boolean byConnection = false;
+        for (final Record record : records) {
+            if (record.connectionId != 0) {
+                byConnection = true;
+                break;
+            }
+        }
+        // count, latency sum, latency max, failures
+        final Map<Long, long[]> statsMap = new TreeMap<>();
+        for (final Record record : records) {
+            final long key = byConnection ? record.connectionId : record.threadId;
+            final long[] stats = statsMap.computeIfAbsent(key, k -> new long[4]);
+            stats[0]++;
+            stats[1] += record.getLatency();
+            stats[2] = Math.max(stats[2], record.getLatency());
+            if (!record.success) {
+                stats[3]++;
+            }
+        }
+        System.out.println("---------------------------------");
+        System.out.println(byConnection ? "Per connection" : "Per thread (connections not reported by the agent)");
+        System.out.println("---------------------------------");
+        System.out.println(String.format(Locale.ROOT, "%12s %10s %12s %12s %8s",
+                byConnection ? "connection" : "thread", "requests", "mean [ms]", "max [ms]", "failed"));
+        for (final Map.Entry<Long, long[]> entry : statsMap.entrySet()) {
+            final long[] stats = entry.getValue();
+            System.out.println(String.format(Locale.ROOT, "%12d %10d %12.3f %12.3f %8d",
+                    entry.getKey(), stats[0], stats[1] / 1e6 / stats[0], stats[2] / 1e6, stats[3]));
+        }
+    }
+
+    static final class Record {
+
+        final long startTime;
+        final long endTime;
+        final long contentLen;
+        final long connectionId;
+        final long threadId;
+        final int status;
+        final boolean success;
+
+        Record(
+                final long startTime,
+                final long endTime,
+                final long contentLen,
+                final long connectionId,
+                final long threadId,
+                final int status,
+                final boolean success) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.contentLen = contentLen;
+            this.connectionId = connectionId;
+            this.threadId = threadId;
+            this.status = status;
+            this.success = success;
+        }
+
+        static Record read(final MappedByteBuffer buffer, final int offset) {
+            return new Record(
+                    buffer.getLong(offset),
+                    buffer.getLong(offset + 8),
+                    buffer.getLong(offset + 16),
+                    buffer.getLong(offset + 24),
+                    buffer.getLong(offset + 32),
+                    buffer.getInt(offset + 40),
+                    (buffer.getInt(offset + 44) & EventLog.FLAG_SUCCESS) != 0);
+        }
+
+        long getLatency() {
+            return endTime - startTime;
+        }
+
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Climbs a ladder of concurrency levels (1k, 2k, 5k, 10k ... max) against
+ * a local {@link TargetServer} until the agent falls over, that is fails
+ * with an exception or more than 1% of requests at a level fail.
+ * <p>
+ * A single address pair runs out of ephemeral ports at around 28k
+ * connections, so connections are spread over as many loopback addresses
+ * (127.0.0.1, 127.0.0.2 ...) as it takes to keep each of them below 20k.
+ * The target listens on all of them. Agents are initialized for every level
+ * with pool limits raised to its concurrency.
+ * <p>
+ * Levels this high are bound to exceed default limits of open files
+ * ({@code ulimit -n}) of both the agent and the target process.
+ */
+final class ExtremeScenario {
+
+    static final int CONNECTIONS_PER_ADDRESS = 20000;
+
+    private static final int FIRST_LEVEL = 1000;
+    private static final int REQUESTS_PER_CONNECTION = 5;
+    private static final double MAX_FAILURE_RATIO = 0.01;
+
+    static List<Integer> getLevels(final int max) {
+        final List<Integer> levels = new ArrayList<>();
+        final int[] factors = {1, 2, 5};
+        for (int base = FIRST_LEVEL; base <= max; base *= 10) {
+            for (final int factor : factors) {
+                if (base * factor <= max) {
+                    levels.add(base * factor);
+                }
+            }
+        }
+        if (levels.isEmpty() || levels.get(levels.size() - 1) != max) {
+            levels.add(max);
+        }
+        return levels;
+    }
+
+    static List<URI> getUris(final TargetProcess target, final int addresses) {
+        final List<URI> uris = new ArrayList<>();
+        for (int i = 0; i < addresses; i++) {
+            uris.add(target.getUri("127.0." + (i / 254) + "." + (i % 254 + 1), "/"));
+        }
+        return uris;
+    }
+
+    static void execute(final HttpAgent agent, final BenchmarkConfig config) throws Exception {
+        System.out.println("=================================");
+        System.out.println("HTTP agent: " + agent.getClientName());
+        System.out.println("=================================");
+
+        final List<String> rows = new ArrayList<>();
+        try (final TargetProcess target = TargetProcess.start()) {
+            boolean warmedUp = false;
+            for (final int concurrency : getLevels(config.getExtreme())) {
+                final int addresses = config.getLoopbackAddresses() > 0
+                        ? config.getLoopbackAddresses()
+                        : (concurrency + CONNECTIONS_PER_ADDRESS - 1) / CONNECTIONS_PER_ADDRESS;
+                final BenchmarkConfig levelConfig = BenchmarkConfig.copy(config)
+                        .setUri(target.getUri("/"))
+                        .setUris(getUris(target, addresses))
+                        .setConcurrency(concurrency)
+                        .setRequests(Math.max(config.getRequests(), concurrency * REQUESTS_PER_CONNECTION))
+                        .setExtreme(0)
+                        .build();
+                System.out.println("---------------------------------");
+                System.out.println("concurrency " + concurrency + " over " + addresses + " address(es)");
+
+                String outcome = "ok";
+                String row;
+                try {
+                    agent.init(levelConfig);
+                    try {
+                        if (!warmedUp) {
+                            Warmup.execute(agent, levelConfig);
+                            warmedUp = true;
+                        }
+                        final ResourceUsage usage = ResourceUsage.start();
+                        final long startTime = System.currentTimeMillis();
+                        final Stats stats = agent.execute(levelConfig);
+                        final long finishTime = System.currentTimeMillis();
+                        usage.stop();
+                        final double totalTimeSec = Math.max(finishTime - startTime, 1) / 1000d;
+                        final int completed = stats.getSuccessCount() + stats.getFailureCount();
+                        if (stats.getFailureCount() > completed * MAX_FAILURE_RATIO) {
+                            outcome = "fell over";
+                        }
+                        row = String.format(Locale.ROOT, "%11d\t%9d\t%10.2f\t%10s\t%8d\t%9d\t%7d\t%s",
+                                concurrency,
+                                addresses,
+                                stats.getSuccessCount() / totalTimeSec,
+                                Stats.toMillis(stats.getLatency().getPercentile(99)),
+                                stats.getFailureCount(),
+                                usage.getPeakHeap() / (1024 * 1024),
+                                usage.getPeakThreads(),
+                                outcome);
+                    } finally {
+                        agent.shutdown();
+                    }
+                } catch (final Exception | OutOfMemoryError ex) {
+                    outcome = "fell over";
+                    row = String.format(Locale.ROOT, "%11d\t%9d\t%10s\t%10s\t%8s\t%9s\t%7s\t%s: %s",
+                            concurrency, addresses, "-", "-", "-", "-", "-", outcome, ex);
+                }
+                rows.add(row);
+                System.out.println(row);
+                if (!outcome.equals("ok")) {
+                    break;
+                }
+            }
+        }
+        System.out.println("---------------------------------");
+        System.out.println("Concurrency\tAddresses\t     Req/s\t  p99 [ms]\t  Failed\tHeap [MB]\tThreads\tOutcome");
+        for (final String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+}
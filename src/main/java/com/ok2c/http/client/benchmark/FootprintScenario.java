@@ -0,0 +1,241 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Measures heap and direct memory the agent retains per open connection and
+ * per in-flight request against a local {@link TargetServer}.
+ * <p>
+ * The agent sends as many concurrent requests as there are connections to
+ * a resource the target holds back. Once all of them are held, or their
+ * number stops growing, the retained memory is measured. The target then
+ * releases the responses and the memory is measured once again with the
+ * connections idle in the pool. Both are compared to the memory retained
+ * after warmup over a single connection.
+ */
+final class FootprintScenario {
+
+    private static final int GC_ROUNDS = 3;
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    private static final long MAX_STALL_MILLIS = 5000;
+    private static final int TIMEOUT = 300000;
+
+    static void execute(final HttpAgent agent, final BenchmarkConfig config) throws Exception {
+        System.out.println("=================================");
+        System.out.println("HTTP agent: " + agent.getClientName());
+        System.out.println("=================================");
+
+        final int connections = config.getFootprint();
+        try (final TargetProcess target = TargetProcess.start()) {
+            final BenchmarkConfig runConfig = BenchmarkConfig.copy(config)
+                    .setUri(target.getUri("/hold"))
+                    .setFile(null)
+                    .setKeepAlive(true)
+                    .setConcurrency(connections)
+                    .setRequests(connections)
+                    .setTimeout(TIMEOUT)
+                    .setFootprint(0)
+                    .build();
+            agent.init(runConfig);
+            final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+                final Thread thread = new Thread(r, "footprint");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                // Over a single connection, so that all others get opened by the measured run
+                Warmup.execute(agent, BenchmarkConfig.copy(runConfig)
+                        .setUri(target.getUri("/"))
+                        .setConcurrency(1)
+                        .build());
+                System.out.println("---------------------------------");
+                System.out.println(connections + " connections");
+                System.out.println("---------------------------------");
+
+                final Sample baseline = Sample.take(target);
+                System.out.println(baseline.format("baseline"));
+
+                final Future<Stats> future = executor.submit(() -> agent.execute(runConfig));
+                awaitHeld(target, connections, future);
+                final Sample inFlight = Sample.take(target);
+                System.out.println(inFlight.format("in flight"));
+
+                Stats stats = null;
+                while (stats == null) {
+                    // Requests that reach the target late, if any, get released as well
+                    request(target, "/_release");
+                    try {
+                        stats = future.get(1, TimeUnit.SECONDS);
+                    } catch (final TimeoutException ignore) {
+                    }
+                }
+                final Sample idle = Sample.take(target);
+                System.out.println(idle.format("idle"));
+
+                System.out.println("---------------------------------");
+                System.out.println("Phase       \tConnections\t In flight\t Heap [KB]\tDirect [KB]\t   Threads");
+                System.out.println(baseline.format("baseline"));
+                System.out.println(inFlight.format("in flight"));
+                System.out.println(idle.format("idle"));
+                System.out.println("---------------------------------");
+                System.out.print("Failed requests:\t");
+                System.out.println(stats.getFailureCount());
+                final int newConnections = idle.connections - baseline.connections;
+                printPerUnit("Per connection:\t\t", idle.heap - baseline.heap, idle.direct - baseline.direct,
+                        newConnections);
+                printPerUnit("Per request:\t\t", inFlight.heap - idle.heap, inFlight.direct - idle.direct,
+                        inFlight.held);
+                if (newConnections < connections) {
+                    System.out.println("Only " + newConnections + " of " + connections +
+                            " connections stayed open after release");
+                }
+            } finally {
+                executor.shutdownNow();
+                agent.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Waits until all requests are held by the target or their number stops
+     * growing, for instance because the agent caps the number of connections.
+     */
+    private static void awaitHeld(
+            final TargetProcess target, final int count, final Future<Stats> future) throws Exception {
+        int held = 0;
+        long lastProgress = System.currentTimeMillis();
+        while (!future.isDone()) {
+            final int current = getStats(target).getOrDefault("held", 0);
+            if (current >= count) {
+                return;
+            }
+            if (current > held) {
+                held = current;
+                lastProgress = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - lastProgress > MAX_STALL_MILLIS) {
+                System.out.println("Only " + held + " of " + count + " requests in flight");
+                return;
+            }
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        }
+    }
+
+    private static void printPerUnit(final String label, final long heap, final long direct, final int count) {
+        System.out.print(label);
+        if (count <= 0) {
+            System.out.println("n/a");
+            return;
+        }
+        System.out.println(String.format(Locale.ROOT, "heap %d, direct %d [bytes]",
+                heap / count, direct / count));
+    }
+
+    static Map<String, Integer> getStats(final TargetProcess target) throws IOException {
+        final Map<String, Integer> stats = new HashMap<>();
+        for (final String line : request(target, "/_stats").split("\n")) {
+            final int idx = line.indexOf('=');
+            if (idx > 0) {
+                stats.put(line.substring(0, idx), Integer.parseInt(line.substring(idx + 1).trim()));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Executes a control request over a connection of its own that is not kept alive.
+     */
+    static String request(final TargetProcess target, final String path) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) target.getUri(path).toURL().openConnection();
+        conn.setRequestProperty("Connection", "close");
+        try (final InputStream instream = conn.getInputStream()) {
+            final ByteArrayOutputStream outstream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int l;
+            while ((l = instream.read(buffer)) != -1) {
+                outstream.write(buffer, 0, l);
+            }
+            return new String(outstream.toByteArray(), StandardCharsets.US_ASCII);
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Memory retained by the agent JVM after full GC, along with the state of
+     * the target at that time.
+     */
+    static final class Sample {
+
+        private final int connections;
+        private final int held;
+        private final long heap;
+        private final long direct;
+        private final int threads;
+
+        Sample(final int connections, final int held, final long heap, final long direct, final int threads) {
+            this.connections = connections;
+            this.held = held;
+            this.heap = heap;
+            this.direct = direct;
+            this.threads = threads;
+        }
+
+        static Sample take(final TargetProcess target) throws Exception {
+            final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            for (int i = 0; i < GC_ROUNDS; i++) {
+                memory.gc();
+                TimeUnit.MILLISECONDS.sleep(POLL_INTERVAL_MILLIS);
+            }
+            final long heap = memory.getHeapMemoryUsage().getUsed();
+            long direct = 0;
+            for (final BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+                direct += pool.getMemoryUsed();
+            }
+            final int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            final Map<String, Integer> stats = getStats(target);
+            return new Sample(
+                    stats.getOrDefault("connections", 0),
+                    stats.getOrDefault("held", 0),
+                    heap,
+                    direct,
+                    threads);
+        }
+
+        String format(final String label) {
+            return String.format(Locale.ROOT, "%-12s\t%11d\t%10d\t%10d\t%11d\t%10d",
+                    label, connections, held, heap / 1024, direct / 1024, threads);
+        }
+
+    }
+
+}
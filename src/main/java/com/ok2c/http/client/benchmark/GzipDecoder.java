@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Incremental gzip decoder for agents whose client library has no
+ * content decoding of its own. The decoded content is counted and
+ * discarded.
+ */
+final class GzipDecoder {
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private enum State { HEADER, EXTRA_LEN, EXTRA, NAME, COMMENT, HCRC, DATA, TRAILER }
+
+    private final Inflater inflater;
+    private final byte[] output;
+
+    private State state;
+    private int flags;
+    private int remaining;
+    private int extraLen;
+
+    GzipDecoder() {
+        this.inflater = new Inflater(true);
+        this.output = new byte[8 * 1024];
+        this.state = State.HEADER;
+        this.remaining = 10;
+    }
+
+    static boolean isGzip(final String contentEncoding) {
+        return contentEncoding != null && contentEncoding.trim().equalsIgnoreCase("gzip");
+    }
+
+    /**
+     * Decodes all remaining bytes of the source buffer and returns
+     * the number of decoded bytes.
+     */
+    long decode(final ByteBuffer src) throws IOException {
+        long total = 0;
+        while (src.hasRemaining()) {
+            switch (state) {
+                case HEADER:
+                    if (remaining == 10 && src.get(src.position()) != (byte) 0x1f) {
+                        throw new IOException("Not in gzip format");
+                    }
+                    if (remaining == 7) {
+                        flags = src.get(src.position()) & 0xff;
+                    }
+                    src.get();
+                    if (--remaining == 0) {
+                        nextHeaderField(0);
+                    }
+                    break;
+                case EXTRA_LEN:
+                    extraLen |= (src.get() & 0xff) << (remaining == 2 ? 0 : 8);
+                    if (--remaining == 0) {
+                        state = State.EXTRA;
+                        remaining = extraLen;
+                        if (remaining == 0) {
+                            nextHeaderField(1);
+                        }
+                    }
+                    break;
+                case EXTRA:
+                    final int skip = Math.min(remaining, src.remaining());
+                    src.position(src.position() + skip);
+                    remaining -= skip;
+                    if (remaining == 0) {
+                        nextHeaderField(1);
+                    }
+                    break;
+                case NAME:
+                    if (src.get() == 0) {
+                        nextHeaderField(2);
+                    }
+                    break;
+                case COMMENT:
+                    if (src.get() == 0) {
+                        nextHeaderField(3);
+                    }
+                    break;
+                case HCRC:
+                    src.get();
+                    if (--remaining == 0) {
+                        state = State.DATA;
+                    }
+                    break;
+                case DATA:
+                    total += inflate(src);
+                    break;
+                case TRAILER:
+                    // CRC32 and ISIZE are not verified
+                    src.position(src.limit());
+                    break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Moves on to the first optional header field present in the stream
+     * starting with the given step (0 - extra, 1 - name, 2 - comment, 3 - header CRC).
+     */
+    private void nextHeaderField(final int step) {
+        if (step <= 0 && (flags & FEXTRA) != 0) {
+            state = State.EXTRA_LEN;
+            remaining = 2;
+            extraLen = 0;
+        } else if (step <= 1 && (flags & FNAME) != 0) {
+            state = State.NAME;
+        } else if (step <= 2 && (flags & FCOMMENT) != 0) {
+            state = State.COMMENT;
+        } else if ((flags & FHCRC) != 0) {
+            state = State.HCRC;
+            remaining = 2;
+        } else {
+            state = State.DATA;
+        }
+    }
+
+    private long inflate(final ByteBuffer src) throws IOException {
+        inflater.setInput(src);
+        long total = 0;
+        try {
+            int n;
+            while ((n = inflater.inflate(output)) > 0) {
+                total += n;
+            }
+        } catch (final DataFormatException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        // Inflater advances the position of the input buffer
+        if (inflater.finished()) {
+            state = State.TRAILER;
+        } else if (src.hasRemaining()) {
+            throw new IOException("Unexpected state of gzip stream");
+        }
+        return total;
+    }
+
+    void release() {
+        inflater.end();
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic headers of the header profile: {@code X-Benchmark-<n>} headers with
+ * values of base64url characters, resembling cookies and tokens such as JWTs.
+ * The same count and size always give the same headers.
+ */
+final class HeaderProfile {
+
+    static final String NAME_PREFIX = "X-Benchmark-";
+    static final int DEFAULT_SIZE = 128;
+
+    private static final char[] CHARS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private HeaderProfile() {
+    }
+
+    static String name(final int index) {
+        return NAME_PREFIX + index;
+    }
+
+    static String value(final int index, final int size) {
+        final Random random = new Random(index * 31L + size);
+        final char[] value = new char[size];
+        for (int i = 0; i < size; i++) {
+            // Dots as in JWTs, never leading or trailing
+            value[i] = i > 0 && i < size - 1 && i % 100 == 0 ? '.' : CHARS[random.nextInt(CHARS.length)];
+        }
+        return new String(value);
+    }
+
+    static List<Map.Entry<String, String>> generate(final int count, final int size) {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        final List<Map.Entry<String, String>> headers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            headers.add(new AbstractMap.SimpleImmutableEntry<>(name(i), value(i, size)));
+        }
+        return Collections.unmodifiableList(headers);
+    }
+
+    /**
+     * Returns request headers the agent is to send with every request.
+     */
+    static List<Map.Entry<String, String>> getRequestHeaders(final BenchmarkConfig config) {
+        return generate(config.getRequestHeaderCount(), config.getRequestHeaderSize());
+    }
+
+    /**
+     * Returns the number of bytes of the given headers as formatted in HTTP/1.1.
+     */
+    static long length(final List<Map.Entry<String, String>> headers) {
+        long len = 0;
+        for (final Map.Entry<String, String> header : headers) {
+            len += header.getKey().length() + 2 + header.getValue().length() + 2;
+        }
+        return len;
+    }
+
+}
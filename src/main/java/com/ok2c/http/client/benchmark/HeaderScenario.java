@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Executes GET requests against a local {@link TargetServer} with synthetic
+ * headers of the header profile in requests, in responses and in both. The
+ * agent is expected to send request headers with every request and read all
+ * response headers through its API. The scenario reports CPU time and mean
+ * latency per request along with their overhead relative to a run of bare
+ * requests.
+ */
+final class HeaderScenario {
+
+    static void execute(final HttpAgent agent, final BenchmarkConfig config) throws Exception {
+        System.out.println("=================================");
+        System.out.println("HTTP agent: " + agent.getClientName());
+        System.out.println("=================================");
+
+        final int requestCount = config.getRequestHeaderCount();
+        final int responseCount = config.getResponseHeaderCount();
+        final List<int[]> runs = new ArrayList<>();
+        // Bare requests as the baseline
+        runs.add(new int[] {0, 0});
+        if (requestCount > 0) {
+            runs.add(new int[] {requestCount, 0});
+        }
+        if (responseCount > 0) {
+            runs.add(new int[] {0, responseCount});
+        }
+        if (requestCount > 0 && responseCount > 0) {
+            runs.add(new int[] {requestCount, responseCount});
+        }
+
+        final List<String> rows = new ArrayList<>();
+        double baseCpu = Double.NaN;
+        double baseLatency = Double.NaN;
+        try (final TargetProcess target = TargetProcess.start()) {
+            for (final int[] run : runs) {
+                final BenchmarkConfig runConfig = BenchmarkConfig.copy(config)
+                        .setUri(target.getUri("/headers/" + run[1] + "?size=" + config.getResponseHeaderSize()))
+                        .setFile(null)
+                        .setRequestHeaderCount(run[0])
+                        .setResponseHeaderCount(run[1])
+                        .build();
+                final String label = run[0] == 0 && run[1] == 0 ? "none"
+                        : run[1] == 0 ? "request"
+                        : run[0] == 0 ? "response" : "both";
+                final long requestLen = HeaderProfile.length(HeaderProfile.getRequestHeaders(runConfig));
+                final long responseLen = HeaderProfile.length(
+                        HeaderProfile.generate(run[1], config.getResponseHeaderSize()));
+                System.out.println("---------------------------------");
+                System.out.println(label + ": " + run[0] + " request headers (" + requestLen + " bytes), "
+                        + run[1] + " response headers (" + responseLen + " bytes)");
+
+                final MeasuredRun measured = MeasuredRun.execute(agent, runConfig);
+                final Stats stats = measured.getStats();
+                final int completed = stats.getSuccessCount() + stats.getFailureCount();
+                final double cpu = measured.getCpuPerRequest();
+                final double latency = measured.getLatency();
+                if (run[0] == 0 && run[1] == 0) {
+                    baseCpu = cpu;
+                    baseLatency = latency;
+                }
+                if (run[1] > 0 && completed > 0 && stats.getHeaderCount() < (long) run[1] * completed) {
+                    System.out.println("Warning: the agent read fewer response headers than served");
+                }
+                final String row = String.format(Locale.ROOT, "%-8s\t%8d\t%8d\t%10.2f\t%10.2f\t%10s\t%10s\t%12s\t%6d",
+                        label,
+                        requestLen,
+                        responseLen,
+                        measured.getReqsPerSec(),
+                        latency,
+                        MeasuredRun.format(cpu),
+                        MeasuredRun.format(latency - baseLatency),
+                        MeasuredRun.format(cpu - baseCpu),
+                        stats.getFailureCount());
+                rows.add(row);
+                System.out.println(row);
+            }
+        }
+        System.out.println("---------------------------------");
+        System.out.println("Headers \t Req [B]\tResp [B]\t     Req/s\tMean [us]\tCPU/req [us]\t" +
+                "Latency +[us]\tCPU/req +[us]\tFailed");
+        for (final String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+}
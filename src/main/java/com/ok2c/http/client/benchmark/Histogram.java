@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of non-negative values (usually nanoseconds).
+ * Each power of two is split into 32 linear sub-buckets, which bounds
+ * the relative error of reported percentiles to about 3%.
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public Histogram() {
+        super();
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    static int indexOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exp = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long valueOf(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int exp = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final int sub = index % SUB_BUCKETS;
+        final long width = 1L << (exp - SUB_BUCKET_BITS);
+        return ((long) (SUB_BUCKETS + sub) << (exp - SUB_BUCKET_BITS)) + width / 2;
+    }
+
+    public void record(final long value) {
+        final long v = Math.max(value, 0);
+        this.counts.incrementAndGet(indexOf(v));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(v);
+        long current = this.max.get();
+        while (v > current && !this.max.compareAndSet(current, v)) {
+            current = this.max.get();
+        }
+    }
+
+    public void add(final Histogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            final long n = other.counts.get(i);
+            if (n > 0) {
+                this.counts.addAndGet(i, n);
+            }
+        }
+        this.count.addAndGet(other.count.get());
+        this.sum.addAndGet(other.sum.get());
+        final long otherMax = other.max.get();
+        long current = this.max.get();
+        while (otherMax > current && !this.max.compareAndSet(current, otherMax)) {
+            current = this.max.get();
+        }
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public double getMean() {
+        final long n = this.count.get();
+        return n > 0 ? (double) this.sum.get() / n : 0;
+    }
+
+    /**
+     * Returns the value at the given percentile (0 - 100).
+     */
+    public long getPercentile(final double percentile) {
+        final long total = this.count.get();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100d));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(valueOf(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+}
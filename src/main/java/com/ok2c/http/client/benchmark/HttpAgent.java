@@ -17,7 +17,14 @@ package com.ok2c.http.client.benchmark;
 
 public interface HttpAgent {
 
-    void init() throws Exception;
+    /**
+     * Agents with implementation variants of their own. They reject variants
+     * they do not know on init.
+     */
+    interface Variants {
+    }
+
+    void init(BenchmarkConfig config) throws Exception;
 
     void shutdown() throws Exception;
 
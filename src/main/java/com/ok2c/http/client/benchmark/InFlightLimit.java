@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limit of concurrent requests that can be adjusted while requests are
+ * in flight. Lowering the limit takes effect as requests above the new
+ * limit complete.
+ */
+final class InFlightLimit extends Semaphore {
+
+    private static final long serialVersionUID = 1L;
+
+    private int limit;
+    private boolean closed;
+
+    InFlightLimit(final int limit) {
+        super(limit);
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the limit of the current load profile run if any, otherwise
+     * a fixed limit of the configured concurrency.
+     */
+    static Semaphore create(final BenchmarkConfig config) {
+        return config.getInFlightLimit() != null
+                ? config.getInFlightLimit()
+                : new Semaphore(config.getConcurrency());
+    }
+
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    synchronized void setLimit(final int newLimit) {
+        if (closed) {
+            return;
+        }
+        if (newLimit > limit) {
+            release(newLimit - limit);
+        } else if (newLimit < limit) {
+            reducePermits(limit - newLimit);
+        }
+        limit = newLimit;
+    }
+
+    /**
+     * Lifts the limit for good, so that no submitter stays blocked once the run is over.
+     */
+    synchronized void close() {
+        if (!closed) {
+            closed = true;
+            release(Integer.MAX_VALUE / 2);
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Executes the measured phase a number of times, either in this JVM after
+ * a single warmup or every time in a fresh JVM with its own warmup, and
+ * summarizes throughput and p99 latency across iterations.
+ * <p>
+ * Results of every iteration can be appended to a file shared by several
+ * agents, one line per iteration, for {@link Compare} to tell apart
+ * differences between agents from noise.
+ */
+final class Iterations {
+
+    private static final String REQS_PER_SEC = "Requests per second:\t";
+    private static final String LATENCY = "Latency p50/p99/max:\t";
+
+    static final class Result {
+
+        private final double reqsPerSec;
+        private final double p99;
+
+        Result(final double reqsPerSec, final double p99) {
+            this.reqsPerSec = reqsPerSec;
+            this.p99 = p99;
+        }
+
+        double getReqsPerSec() {
+            return reqsPerSec;
+        }
+
+        /**
+         * Returns p99 latency in milliseconds.
+         */
+        double getP99() {
+            return p99;
+        }
+
+    }
+
+    static void execute(final HttpAgent agent, final BenchmarkConfig config, final String... args) throws Exception {
+        System.out.println("=================================");
+        System.out.println("HTTP agent: " + agent.getClientName());
+        System.out.println("=================================");
+        final List<Result> results = config.isFork()
+                ? executeForked(agent, config, args)
+                : executeInProcess(agent, config);
+        System.out.println("---------------------------------");
+        System.out.println(config.getIterations() + " iterations of " + config.getRequests() + " " +
+                (config.getMethodMix() != null ? config.getMethodMix().toString()
+                        : config.getFile() != null ? "PUT" : "GET") + " requests" + (config.isFork() ? ", forked" : ""));
+        print(results);
+        if (config.getResultsFile() != null) {
+            append(config.getResultsFile(), agent.getClientName(), results);
+            System.out.println("Results appended to " + config.getResultsFile());
+        }
+    }
+
+    static List<Result> executeInProcess(final HttpAgent agent, final BenchmarkConfig config) throws Exception {
+        final List<Result> results = new ArrayList<>();
+        agent.init(config);
+        try {
+            Warmup.execute(agent, config);
+            for (int i = 0; i < config.getIterations(); i++) {
+                final long startTime = System.currentTimeMillis();
+                final Stats stats = agent.execute(config);
+                final long finishTime = System.currentTimeMillis();
+                final Result result = new Result(
+                        stats.getSuccessCount() * 1000d / Math.max(finishTime - startTime, 1),
+                        stats.getLatency().getPercentile(99) / 1_000_000d);
+                results.add(result);
+                printIteration(i, result);
+            }
+        } finally {
+            agent.shutdown();
+        }
+        return results;
+    }
+
+    /**
+     * Runs every iteration as a single benchmark run of the agent in a new JVM
+     * with the same JVM options and picks its results from the output.
+     */
+    static List<Result> executeForked(
+            final HttpAgent agent, final BenchmarkConfig config, final String... args) throws Exception {
+        final List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(agent.getClass().getName());
+        command.addAll(getChildArgs(args));
+        final List<Result> results = new ArrayList<>();
+        for (int i = 0; i < config.getIterations(); i++) {
+            final Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .start();
+            double reqsPerSec = -1;
+            double p99 = -1;
+            try (final BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    System.out.println("[iteration " + (i + 1) + "] " + line);
+                    if (line.startsWith(REQS_PER_SEC)) {
+                        reqsPerSec = Double.parseDouble(line.substring(REQS_PER_SEC.length()).split(" ")[0]);
+                    } else if (line.startsWith(LATENCY)) {
+                        p99 = Double.parseDouble(line.substring(LATENCY.length()).split(" / ")[1]);
+                    }
+                }
+            }
+            final int exitCode = process.waitFor();
+            if (exitCode != 0 || reqsPerSec < 0 || p99 < 0) {
+                throw new IOException("Iteration " + (i + 1) + " failed with exit code " + exitCode);
+            }
+            final Result result = new Result(reqsPerSec, p99);
+            results.add(result);
+            printIteration(i, result);
+        }
+        return results;
+    }
+
+    /**
+     * Returns arguments of a single run, without those controlling iterations.
+     */
+    static List<String> getChildArgs(final String... args) {
+        final List<String> childArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (arg.equals("--fork")) {
+                continue;
+            }
+            if (arg.equals("--iterations") || arg.equals("--results")) {
+                i++;
+                continue;
+            }
+            if (arg.startsWith("--iterations=") || arg.startsWith("--results=")) {
+                continue;
+            }
+            childArgs.add(arg);
+        }
+        return childArgs;
+    }
+
+    static void printIteration(final int i, final Result result) {
+        System.out.println(String.format(Locale.ROOT, "iteration %3d: %.2f [#/sec], p99 %.3f [ms]",
+                i + 1, result.getReqsPerSec(), result.getP99()));
+    }
+
+    static void print(final List<Result> results) {
+        final double[] reqsPerSec = new double[results.size()];
+        final double[] p99 = new double[results.size()];
+        for (int i = 0; i < results.size(); i++) {
+            reqsPerSec[i] = results.get(i).getReqsPerSec();
+            p99[i] = results.get(i).getP99();
+        }
+        System.out.println("Requests per second:\t" + Statistics.describe(reqsPerSec) + " [#/sec]");
+        System.out.println("Latency p99:\t\t" + Statistics.describe(p99) + " [ms]");
+    }
+
+    /**
+     * Appends results as lines of the agent name, throughput and p99 latency, separated by tabs.
+     */
+    static void append(final File file, final String agentName, final List<Result> results) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        for (final Result result : results) {
+            lines.add(String.format(Locale.ROOT, "%s\t%.2f\t%.3f",
+                    agentName, result.getReqsPerSec(), result.getP99()));
+        }
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+}
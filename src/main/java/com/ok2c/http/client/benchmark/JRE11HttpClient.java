@@ -15,72 +15,196 @@
  */
 package com.ok2c.http.client.benchmark;
 
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Flow;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
 
-public class JRE11HttpClient implements HttpAgent {
+public class JRE11HttpClient implements HttpAgent, HttpAgent.Variants {
+
+    /**
+     * New client with the default executor, an unbounded cached thread pool,
+     * for every run.
+     */
+    static final String DEFAULT = "default";
+
+    /**
+     * Client with the default executor created once per agent.
+     */
+    static final String SHARED = "shared";
+
+    /**
+     * Client with a fixed thread pool of one thread per CPU.
+     */
+    static final String FIXED = "fixed";
+
+    /**
+     * Client with a virtual thread per task. Requires Java 21 or newer.
+     */
+    static final String VIRTUAL = "virtual";
+
+    /**
+     * Client with an executor that runs tasks on the calling thread, so that
+     * response callbacks run on the selector thread.
+     */
+    static final String DIRECT = "direct";
+
+    private HttpClient httpClient;
+    private ExecutorService executorService;
 
     public JRE11HttpClient() {
         super();
     }
 
     @Override
-    public void init() {
+    public void init(final BenchmarkConfig config) throws Exception {
+        final String variant = config.getVariant() != null ? config.getVariant() : DEFAULT;
+        final Executor executor;
+        switch (variant) {
+            case DEFAULT:
+                return;
+            case SHARED:
+                executor = null;
+                break;
+            case FIXED:
+                this.executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+                executor = this.executorService;
+                break;
+            case VIRTUAL:
+                this.executorService = newVirtualThreadPerTaskExecutor();
+                executor = this.executorService;
+                break;
+            case DIRECT:
+                executor = Runnable::run;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported variant: " + variant);
+        }
+        this.httpClient = createClient(config, executor);
     }
 
     @Override
     public void shutdown() {
+        this.httpClient = null;
+        if (this.executorService != null) {
+            this.executorService.shutdownNow();
+            this.executorService = null;
+        }
     }
 
-    @Override
-    public Stats execute(final BenchmarkConfig config) throws Exception {
+    static ExecutorService newVirtualThreadPerTaskExecutor() throws ReflectiveOperationException {
+        // Java 11 source level, virtual threads are only available through reflection
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final NoSuchMethodException ex) {
+            throw new IllegalStateException("Virtual threads require Java 21 or newer");
+        }
+    }
+
+    static HttpClient createClient(final BenchmarkConfig config, final Executor executor) {
         System.setProperty("http.maxConnections", Integer.toString(config.getConcurrency()));
 
         // There appears to be no way to adjust internal buffers
-        final HttpClient httpClient = HttpClient.newBuilder()
+        final HttpClient.Builder builder = HttpClient.newBuilder()
                 .version(HttpClient.Version.HTTP_1_1)
-                .connectTimeout(Duration.ofMillis(config.getTimeout()))
-                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofMillis(config.getTimeout()));
+        if (config.isFullChain()) {
+            builder.followRedirects(HttpClient.Redirect.NORMAL)
+                    .cookieHandler(new CookieManager());
+        } else {
+            builder.followRedirects(HttpClient.Redirect.NEVER);
+        }
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        return builder.build();
+    }
+
+    static HttpRequest createRequest(
+            final BenchmarkConfig config,
+            final URI uri,
+            final MethodMix.Method method,
+            final List<Map.Entry<String, String>> requestHeaders) throws IOException {
+        final HttpRequest.Builder requestBuilder = HttpRequest.newBuilder();
+        if (method.getFile() == null) {
+            requestBuilder.method(method.getName(), HttpRequest.BodyPublishers.noBody());
+        } else {
+            requestBuilder.method(method.getName(), HttpRequest.BodyPublishers.ofFile(method.getFile().toPath()));
+            if (method.getContentType() != null) {
+                requestBuilder.header("Content-Type", method.getContentType());
+            }
+        }
+        requestBuilder.uri(uri);
+        if (!config.isKeepAlive()) {
+            requestBuilder.header("Connection", "close");
+        }
+        if (config.isCompression()) {
+            requestBuilder.header("Accept-Encoding", "gzip");
+        }
+        for (final Map.Entry<String, String> header : requestHeaders) {
+            requestBuilder.header(header.getKey(), header.getValue());
+        }
+        return requestBuilder
+                .expectContinue(false)
+                .timeout(Duration.ofMillis(config.getTimeout()))
                 .build();
+    }
+
+    @Override
+    public Stats execute(final BenchmarkConfig config) throws Exception {
+        final HttpClient httpClient = this.httpClient != null ? this.httpClient : createClient(config, null);
 
         final Stats stats = new Stats(config.getRequests(), config.getConcurrency());
-        final Semaphore semaphore = new Semaphore(config.getConcurrency());
-        for (int i = 0; i < config.getRequests(); i++) {
-            final HttpRequest.Builder requestBuilder = HttpRequest.newBuilder();
-            if (config.getFile() == null) {
-                requestBuilder.GET();
-            } else {
-                requestBuilder.PUT(HttpRequest.BodyPublishers.ofFile(config.getFile().toPath()));
-                if (config.getContentType() != null) {
-                    requestBuilder.header("Content-Type", config.getContentType());
-                }
-            }
-            requestBuilder.uri(config.getUri());
-            if (!config.isKeepAlive()) {
-                requestBuilder.header("Connection", "close");
+        final Semaphore semaphore = InFlightLimit.create(config);
+        final List<Map.Entry<String, String>> requestHeaders = HeaderProfile.getRequestHeaders(config);
+        final boolean readHeaders = config.getResponseHeaderCount() > 0;
+        final MethodMix mix = MethodMix.of(config);
+        final List<MethodMix.Method> methods = mix.getMethods();
+        final HttpRequest[] sharedRequests = new HttpRequest[methods.size()];
+        if (config.isReuseRequests() && config.getUris().isEmpty()) {
+            for (final MethodMix.Method method : methods) {
+                sharedRequests[method.getIndex()] = createRequest(config, config.getUri(), method, requestHeaders);
             }
-            final HttpRequest request = requestBuilder
-                    .expectContinue(false)
-                    .timeout(Duration.ofMillis(config.getTimeout()))
-                    .build();
+        }
+        for (int i = 0; i < config.getRequests() && !stats.isClosed(); i++) {
+            final MethodMix.Method method = mix.get(i);
+            // HttpRequest is immutable and can be sent any number of times
+            final HttpRequest request = sharedRequests[method.getIndex()] != null
+                    ? sharedRequests[method.getIndex()]
+                    : createRequest(config, config.getUri(i), method, requestHeaders);
 
+            final long admissionTime = System.nanoTime();
             semaphore.acquire();
+            final long startTime = System.nanoTime();
+            BenchmarkEvents.requestStart(startTime);
+            stats.admission(admissionTime, startTime);
             final AtomicLong contentLen = new AtomicLong(0);
             final CompletableFuture<HttpResponse<Void>> future = httpClient.sendAsync(
                     request,
-                    HttpResponse.BodyHandlers.fromSubscriber(new HttpResponse.BodySubscriber<Void>() {
+                    responseInfo -> new HttpResponse.BodySubscriber<Void>() {
 
                         private final CompletableFuture<Void> future = new CompletableFuture<>();
+                        // java.net.http has no content decoding of its own
+                        private final GzipDecoder decoder = GzipDecoder.isGzip(
+                                responseInfo.headers().firstValue("Content-Encoding").orElse(null))
+                                ? new GzipDecoder() : null;
                         private volatile Flow.Subscription subscription;
+                        private volatile long headersTime;
 
                         @Override
                         public void onSubscribe(final Flow.Subscription subscription) {
@@ -89,23 +213,43 @@ public class JRE11HttpClient implements HttpAgent {
                                 return;
                             }
                             this.subscription = subscription;
+                            headersTime = stats.responseHeaders(startTime, responseInfo.statusCode());
+                            if (readHeaders) {
+                                readHeaders(responseInfo.headers(), stats);
+                            }
                             subscription.request(Long.MAX_VALUE);
                         }
 
                         @Override
                         public void onNext(final List<ByteBuffer> itemList) {
-                            for (final ByteBuffer item : itemList) {
-                                contentLen.addAndGet(item.remaining());
+                            try {
+                                for (final ByteBuffer item : itemList) {
+                                    if (decoder != null) {
+                                        contentLen.addAndGet(decoder.decode(item));
+                                    } else {
+                                        contentLen.addAndGet(item.remaining());
+                                    }
+                                }
+                            } catch (final IOException ex) {
+                                subscription.cancel();
+                                onError(ex);
                             }
                         }
 
                         @Override
                         public void onError(final Throwable throwable) {
+                            if (decoder != null) {
+                                decoder.release();
+                            }
                             future.completeExceptionally(throwable);
                         }
 
                         @Override
                         public void onComplete() {
+                            if (decoder != null) {
+                                decoder.release();
+                            }
+                            stats.responseBody(headersTime);
                             future.complete(null);
                         }
 
@@ -114,12 +258,14 @@ public class JRE11HttpClient implements HttpAgent {
                             return future;
                         }
 
-                    }));
+                    });
             future.whenComplete((response, throwable) -> {
-                if (response.statusCode() == 200) {
-                    stats.success(contentLen.get());
+                // The response is null if the request failed. The connection of the request is not exposed.
+                if (throwable == null && Stats.isSuccessful(response.statusCode())) {
+                    stats.success(startTime, Stats.UNKNOWN, response.statusCode(), 0, contentLen.get(), method);
                 } else {
-                    stats.failure(contentLen.get());
+                    stats.failure(startTime, Stats.UNKNOWN, response != null ? response.statusCode() : 0, 0,
+                            contentLen.get(), method);
                 }
                 semaphore.release();
             });
@@ -128,6 +274,21 @@ public class JRE11HttpClient implements HttpAgent {
         return stats;
     }
 
+    /**
+     * Reads all response headers, as an application processing them would.
+     */
+    static void readHeaders(final HttpHeaders headers, final Stats stats) {
+        int count = 0;
+        long len = 0;
+        for (final Map.Entry<String, List<String>> entry : headers.map().entrySet()) {
+            for (final String value : entry.getValue()) {
+                count++;
+                len += entry.getKey().length() + value.length();
+            }
+        }
+        stats.headersRead(count, len);
+    }
+
     @Override
     public String getClientName() {
         return "JRE java.net.http " + System.getProperty("java.version");
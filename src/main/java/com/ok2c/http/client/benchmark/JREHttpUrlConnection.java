@@ -20,22 +20,41 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.CookieHandler;
+import java.net.CookieManager;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 public class JREHttpUrlConnection implements HttpAgent {
 
+    private CookieHandler cookieHandler;
+    private boolean cookieHandlerSet;
+
     public JREHttpUrlConnection() {
         super();
     }
 
     @Override
-    public void init() {
+    public void init(final BenchmarkConfig config) {
+        // HttpURLConnection follows redirects by default, cookies need a system-wide handler
+        if (config.isFullChain()) {
+            this.cookieHandler = CookieHandler.getDefault();
+            this.cookieHandlerSet = true;
+            CookieHandler.setDefault(new CookieManager());
+        }
     }
 
     @Override
     public void shutdown() {
+        if (this.cookieHandlerSet) {
+            CookieHandler.setDefault(this.cookieHandler);
+            this.cookieHandler = null;
+            this.cookieHandlerSet = false;
+        }
     }
 
     @Override
@@ -44,7 +63,7 @@ public class JREHttpUrlConnection implements HttpAgent {
         final Stats stats = new Stats(config.getRequests(), config.getConcurrency());
         final WorkerThread[] workers = new WorkerThread[config.getConcurrency()];
         for (int i = 0; i < workers.length; i++) {
-            workers[i] = new WorkerThread(stats, config);
+            workers[i] = new WorkerThread(stats, config, i);
         }
         for (final WorkerThread worker : workers) {
             worker.start();
@@ -59,33 +78,52 @@ public class JREHttpUrlConnection implements HttpAgent {
 
         private final Stats stats;
         private final BenchmarkConfig config;
+        private final int index;
 
-        WorkerThread(final Stats stats, final BenchmarkConfig config) {
+        WorkerThread(final Stats stats, final BenchmarkConfig config, final int index) {
             super();
             this.stats = stats;
             this.config = config;
+            this.index = index;
         }
 
         @Override
         public void run() {
-            final byte[] buffer = new byte[4096];
-
-            final URI target = config.getUri();
-
-            while (!this.stats.isComplete()) {
+            final byte[] buffer = new byte[config.getReadBufferSize()];
+
+            // Workers stick to one target, so that connections do not get spread over all of them
+            final URI target = config.getUri(index);
+            // Limits workers executing requests at a time during load profile runs
+            final InFlightLimit limit = config.getInFlightLimit();
+            final List<Map.Entry<String, String>> requestHeaders = HeaderProfile.getRequestHeaders(config);
+            final MethodMix mix = MethodMix.of(config);
+
+            for (long n = 0; !this.stats.isComplete(); n++) {
+                final MethodMix.Method method = mix.get(this.index + n * config.getConcurrency());
+                if (limit != null) {
+                    limit.acquireUninterruptibly();
+                }
+                final long startTime = System.nanoTime();
+                BenchmarkEvents.requestStart(startTime);
                 long contentLen = 0;
                 try {
                     final URL targetUrl = target.toURL();
                     final HttpURLConnection conn = (HttpURLConnection) targetUrl.openConnection();
                     conn.setReadTimeout(config.getTimeout());
+                    if (config.isCompression()) {
+                        conn.addRequestProperty("Accept-Encoding", "gzip");
+                    }
+                    for (final Map.Entry<String, String> header : requestHeaders) {
+                        conn.addRequestProperty(header.getKey(), header.getValue());
+                    }
 
-                    final File file = config.getFile();
+                    conn.setRequestMethod(method.getName());
+                    final File file = method.getFile();
                     if (file != null) {
-                        conn.setRequestMethod("PUT");
                         conn.setFixedLengthStreamingMode(file.length());
 
-                        if (config.getContentType() != null) {
-                            conn.addRequestProperty("Content-Type", config.getContentType());
+                        if (method.getContentType() != null) {
+                            conn.addRequestProperty("Content-Type", method.getContentType());
                         }
                         conn.setUseCaches(false);
                         conn.setDoInput(true);
@@ -101,22 +139,52 @@ public class JREHttpUrlConnection implements HttpAgent {
                     if (!config.isKeepAlive()) {
                         conn.addRequestProperty("Connection", "close");
                     }
-                    try (final InputStream in = conn.getInputStream()) {
+                    final long headersTime = this.stats.responseHeaders(startTime, conn.getResponseCode());
+                    if (config.getResponseHeaderCount() > 0) {
+                        readHeaders(conn, this.stats);
+                    }
+                    // HttpURLConnection has no content decoding of its own
+                    try (final InputStream in = GzipDecoder.isGzip(conn.getContentEncoding())
+                            ? new GZIPInputStream(conn.getInputStream(), buffer.length)
+                            : conn.getInputStream()) {
                         int l;
                         while ((l = in.read(buffer)) != -1) {
                             contentLen += l;
                         }
                     }
-                    if (conn.getResponseCode() == 200) {
-                        this.stats.success(contentLen);
+                    this.stats.responseBody(headersTime);
+                    // HttpURLConnection does not expose the connection of the request
+                    if (Stats.isSuccessful(conn.getResponseCode())) {
+                        this.stats.success(startTime, Stats.UNKNOWN, conn.getResponseCode(), 0, contentLen, method);
                     } else {
-                        this.stats.failure(contentLen);
+                        this.stats.failure(startTime, Stats.UNKNOWN, conn.getResponseCode(), 0, contentLen, method);
                     }
                 } catch (final IOException ex) {
-                    this.stats.failure(contentLen);
+                    this.stats.failure(startTime, Stats.UNKNOWN, 0, 0, contentLen, method);
+                }
+                if (limit != null) {
+                    limit.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads all response headers, as an application processing them would.
+     */
+    static void readHeaders(final HttpURLConnection conn, final Stats stats) {
+        int count = 0;
+        long len = 0;
+        for (final Map.Entry<String, List<String>> entry : conn.getHeaderFields().entrySet()) {
+            // The status line is keyed by null
+            if (entry.getKey() != null) {
+                for (final String value : entry.getValue()) {
+                    count++;
+                    len += entry.getKey().length() + value.length();
                 }
             }
         }
+        stats.headersRead(count, len);
     }
 
     @Override
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.Map;
+
+import org.eclipse.jetty.client.HttpClientTransport;
+import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.client.HttpExchange;
+import org.eclipse.jetty.client.SendFailure;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.http2.client.http.HttpConnectionOverHTTP2;
+import org.eclipse.jetty.io.ClientConnector;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.util.Jetty;
+
+/**
+ * Jetty client over HTTP/2. Plain {@code http} targets are spoken to in
+ * clear text with prior knowledge (h2c), so the target must support it.
+ */
+public class JettyHttp2ClientV11 extends JettyHttpClientV11 {
+
+    public JettyHttp2ClientV11() {
+        super();
+    }
+
+    @Override
+    HttpClientTransport createTransport(final ClientConnector connector, final BenchmarkConfig config) {
+        final int maxMultiplex = config.getMaxMultiplex();
+        final HttpClientTransportOverHTTP2 transport = new HttpClientTransportOverHTTP2(new HTTP2Client(connector)) {
+
+            @Override
+            public void connect(final SocketAddress address, final Map<String, Object> context) {
+                connectStarted(context);
+                super.connect(address, context);
+            }
+
+            @Override
+            public Connection newConnection(final EndPoint endPoint, final Map<String, Object> context) throws IOException {
+                connectCompleted(context);
+                return super.newConnection(endPoint, context);
+            }
+
+            @Override
+            protected HttpConnectionOverHTTP2 newHttpConnection(final HttpDestination destination, final Session session) {
+                return new HttpConnectionOverHTTP2(destination, session) {
+
+                    @Override
+                    public SendFailure send(final HttpExchange exchange) {
+                        setConnectionId(exchange, session.getLocalSocketAddress());
+                        return super.send(exchange);
+                    }
+
+                    @Override
+                    public int getMaxMultiplex() {
+                        // Pools take the limit of every connection from the connection itself
+                        final int max = super.getMaxMultiplex();
+                        return maxMultiplex > 0 ? Math.min(max, maxMultiplex) : max;
+                    }
+
+                };
+            }
+
+        };
+        transport.setUseALPN(false);
+        return transport;
+    }
+
+    @Override
+    String getDefaultVariant() {
+        return MULTIPLEX;
+    }
+
+    @Override
+    boolean isMultiplexing() {
+        return true;
+    }
+
+    @Override
+    int getMaxConnections(final BenchmarkConfig config) {
+        // Just enough connections to carry all concurrent requests as streams
+        final int maxMultiplex = config.getMaxMultiplex();
+        return maxMultiplex > 0
+                ? (config.getConcurrency() + maxMultiplex - 1) / maxMultiplex
+                : config.getConcurrency();
+    }
+
+    @Override
+    public String getClientName() {
+        return "Jetty HTTP/2 " + Jetty.VERSION;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        BenchmarkRunner.run(new JettyHttp2ClientV11(), args);
+    }
+
+}
@@ -15,30 +15,242 @@
  */
 package com.ok2c.http.client.benchmark;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.eclipse.jetty.client.AbstractConnectionPool;
+import org.eclipse.jetty.client.ConnectionPool;
+import org.eclipse.jetty.client.DuplexConnectionPool;
 import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpClientTransport;
+import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.client.HttpExchange;
+import org.eclipse.jetty.client.MultiplexConnectionPool;
+import org.eclipse.jetty.client.RandomConnectionPool;
+import org.eclipse.jetty.client.RoundRobinConnectionPool;
+import org.eclipse.jetty.client.SendFailure;
+import org.eclipse.jetty.client.api.Destination;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.client.http.HttpConnectionOverHTTP;
 import org.eclipse.jetty.client.util.PathRequestContent;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.io.ClientConnector;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.util.Jetty;
+import org.eclipse.jetty.util.Promise;
+import org.eclipse.jetty.util.SocketAddressResolver;
 
-public class JettyHttpClientV11 implements HttpAgent {
+public class JettyHttpClientV11
+        implements HttpAgent, HttpAgent.Variants, PoolTelemetry.Source, UnixDomainSockets.Capable {
 
-    private final HttpClient client;
+    /**
+     * One request per connection at a time, most recently used connection first.
+     */
+    static final String DUPLEX = "duplex";
+
+    /**
+     * Connections used in turn.
+     */
+    static final String ROUND_ROBIN = "round-robin";
+
+    /**
+     * Multiple requests per connection, each connection used to capacity before the next one.
+     */
+    static final String MULTIPLEX = "multiplex";
+
+    /**
+     * Connections picked at random.
+     */
+    static final String RANDOM = "random";
+
+    private static final String CONNECT_START_TIME = JettyHttpClientV11.class.getName() + ".connectStartTime";
+    private static final String CONNECTION_ID = JettyHttpClientV11.class.getName() + ".connectionId";
+
+    private HttpClient client;
+    private volatile SocketAddressResolver resolver;
+    private volatile Stats stats;
 
     public JettyHttpClientV11() {
         super();
-        this.client = new HttpClient();
-        this.client.setRequestBufferSize(8 * 1024);
-        this.client.setResponseBufferSize(8 * 1024);
     }
 
     @Override
-    public void init() throws Exception {
+    public void init(final BenchmarkConfig config) throws Exception {
+        // A Unix domain connector connects all destinations to the socket
+        final ClientConnector connector = config.getUnixSocket() != null
+                ? ClientConnector.forUnixDomain(config.getUnixSocket().toPath())
+                : new ClientConnector();
+        connector.setTCPNoDelay(config.isTcpNoDelay());
+        if (config.getSocketRcvBufSize() > 0) {
+            connector.setReceiveBufferSize(config.getSocketRcvBufSize());
+        }
+        if (config.getSocketSndBufSize() > 0) {
+            connector.setSendBufferSize(config.getSocketSndBufSize());
+        }
+        final String variant = config.getVariant() != null ? config.getVariant() : getDefaultVariant();
+        if (!DUPLEX.equals(variant) && !ROUND_ROBIN.equals(variant)
+                && !MULTIPLEX.equals(variant) && !RANDOM.equals(variant)) {
+            throw new IllegalArgumentException("Unsupported variant: " + variant);
+        }
+        if (config.getMaxMultiplex() > 0 && !isMultiplexing()) {
+            throw new IllegalArgumentException("Max multiplex does not apply to HTTP/1.1 connections");
+        }
+        final HttpClientTransport transport = createTransport(connector, config);
+        transport.setConnectionPoolFactory(connectionPoolFactory(variant));
+        this.client = new HttpClient(transport);
+        // Request headers that do not fit the buffer fail the request
+        this.client.setRequestBufferSize(Math.max(config.getIoBufferSize(),
+                (int) HeaderProfile.length(HeaderProfile.getRequestHeaders(config)) + 4096));
+        this.client.setResponseBufferSize(config.getIoBufferSize());
+        // The resolver cannot be replaced once started and the executor of the default one is created on start
+        this.client.setSocketAddressResolver(this::resolve);
         this.client.start();
+        this.resolver = new SocketAddressResolver.Async(
+                this.client.getExecutor(), this.client.getScheduler(), this.client.getAddressResolutionTimeout());
+        if (!config.isCompression()) {
+            // The gzip decoder is registered by default and makes the client send Accept-Encoding
+            this.client.getContentDecoderFactories().clear();
+        }
+    }
+
+    HttpClientTransport createTransport(final ClientConnector connector, final BenchmarkConfig config) {
+        return new HttpClientTransportOverHTTP(connector) {
+
+            @Override
+            public void connect(final SocketAddress address, final Map<String, Object> context) {
+                connectStarted(context);
+                super.connect(address, context);
+            }
+
+            @Override
+            public Connection newConnection(final EndPoint endPoint, final Map<String, Object> context) throws IOException {
+                connectCompleted(context);
+                return customize(new HttpConnectionOverHTTP(endPoint, context) {
+
+                    @Override
+                    public SendFailure send(final HttpExchange exchange) {
+                        setConnectionId(exchange, endPoint.getLocalSocketAddress());
+                        return super.send(exchange);
+                    }
+
+                }, context);
+            }
+
+        };
+    }
+
+    private void resolve(
+            final String host,
+            final int port,
+            final Promise<List<InetSocketAddress>> promise) {
+        final SocketAddressResolver resolver = this.resolver;
+        final Stats current = this.stats;
+        if (current == null) {
+            resolver.resolve(host, port, promise);
+            return;
+        }
+        final long startTime = System.nanoTime();
+        resolver.resolve(host, port, new Promise<List<InetSocketAddress>>() {
+
+            @Override
+            public void succeeded(final List<InetSocketAddress> result) {
+                current.dns(startTime, System.nanoTime());
+                promise.succeeded(result);
+            }
+
+            @Override
+            public void failed(final Throwable ex) {
+                promise.failed(ex);
+            }
+
+        });
+    }
+
+    /**
+     * Marks the start of a connect in the context of the new connection.
+     * Transports are expected to call it once the address has been resolved.
+     */
+    void connectStarted(final Map<String, Object> context) {
+        context.put(CONNECT_START_TIME, System.nanoTime());
+    }
+
+    /**
+     * Records the connect time once the transport gets to create the connection
+     * on top of the connected end point.
+     */
+    void connectCompleted(final Map<String, Object> context) {
+        final Object startTime = context.get(CONNECT_START_TIME);
+        final Stats current = this.stats;
+        if (startTime instanceof Long && current != null) {
+            current.connect((Long) startTime, System.nanoTime());
+        }
+    }
+
+    /**
+     * Attaches the local port of the connection to the request of the exchange
+     * about to be sent over it. Connections of the client API do not expose
+     * their addresses.
+     */
+    static void setConnectionId(final HttpExchange exchange, final SocketAddress localAddress) {
+        if (localAddress instanceof InetSocketAddress) {
+            exchange.getRequest().attribute(CONNECTION_ID, (long) ((InetSocketAddress) localAddress).getPort());
+        }
+    }
+
+    /**
+     * Returns the local port of the connection the request was sent over
+     * or {@code 0} if not known.
+     */
+    static long getConnectionId(final Request request) {
+        final Object connectionId = request.getAttributes().get(CONNECTION_ID);
+        return connectionId instanceof Long ? (Long) connectionId : 0;
+    }
+
+    String getDefaultVariant() {
+        return DUPLEX;
+    }
+
+    int getMaxConnections(final BenchmarkConfig config) {
+        return config.getConcurrency();
+    }
+
+    /**
+     * Returns {@code true} if connections of the transport carry multiple
+     * requests at a time.
+     */
+    boolean isMultiplexing() {
+        return false;
+    }
+
+    /**
+     * Returns a factory of connection pools of the given variant. Multiplexed
+     * connections tell the pool how many requests they take at a time,
+     * other connections take one.
+     */
+    static ConnectionPool.Factory connectionPoolFactory(final String variant) {
+        return destination -> {
+            // Pools are created along with the destination by the first request
+            final int maxConnections = destination.getHttpClient().getMaxConnectionsPerDestination();
+            switch (variant) {
+                case ROUND_ROBIN:
+                    return new RoundRobinConnectionPool(destination, maxConnections, destination, 1);
+                case MULTIPLEX:
+                    return new MultiplexConnectionPool(destination, maxConnections, destination, 1);
+                case RANDOM:
+                    return new RandomConnectionPool(destination, maxConnections, destination, 1);
+                default:
+                    return new DuplexConnectionPool(destination, maxConnections, destination);
+            }
+        };
     }
 
     @Override
@@ -50,23 +262,59 @@ public class JettyHttpClientV11 implements HttpAgent {
     public Stats execute(final BenchmarkConfig config) throws Exception {
         this.client.setConnectTimeout(config.getTimeout());
         this.client.setIdleTimeout(config.getTimeout());
-        this.client.setMaxConnectionsPerDestination(config.getConcurrency());
+        this.client.setMaxConnectionsPerDestination(getMaxConnections(config));
 
         final Stats stats = new Stats(config.getRequests(), config.getConcurrency());
-        final Semaphore semaphore = new Semaphore(config.getConcurrency());
-        for (int i = 0; i < config.getRequests(); i++) {
-            semaphore.acquire();
-            final Request request = this.client.newRequest(config.getUri());
-            if (config.getFile() != null) {
-                request.method("PUT");
-                request.body(new PathRequestContent(config.getContentType(), config.getFile().toPath()));
-            } else {
-                request.method("GET");
+        this.stats = stats;
+        final Semaphore semaphore = InFlightLimit.create(config);
+        final List<Map.Entry<String, String>> requestHeaders = HeaderProfile.getRequestHeaders(config);
+        final boolean readHeaders = config.getResponseHeaderCount() > 0;
+        // Request instances cannot be sent twice, but file content is reproducible
+        final MethodMix mix = MethodMix.of(config);
+        final PathRequestContent[] sharedContent = new PathRequestContent[mix.getMethods().size()];
+        if (config.isReuseRequests()) {
+            for (final MethodMix.Method method : mix.getMethods()) {
+                if (method.getFile() != null) {
+                    sharedContent[method.getIndex()] = new PathRequestContent(
+                            method.getContentType(), method.getFile().toPath());
+                }
+            }
+        }
+        for (int i = 0; i < config.getRequests() && !stats.isClosed(); i++) {
+            final MethodMix.Method method = mix.get(i);
+            final Request request = this.client.newRequest(config.getUri(i));
+            request.method(method.getName());
+            if (method.getFile() != null) {
+                request.body(sharedContent[method.getIndex()] != null
+                        ? sharedContent[method.getIndex()]
+                        : new PathRequestContent(method.getContentType(), method.getFile().toPath()));
             }
             if (!config.isKeepAlive()) {
                 request.headers(h -> h.add("Connection", "close"));
             }
+            if (!requestHeaders.isEmpty()) {
+                request.headers(h -> {
+                    for (final Map.Entry<String, String> header : requestHeaders) {
+                        h.add(header.getKey(), header.getValue());
+                    }
+                });
+            }
+            final long admissionTime = System.nanoTime();
+            semaphore.acquire();
+            final long startTime = System.nanoTime();
+            BenchmarkEvents.requestStart(startTime);
+            stats.admission(admissionTime, startTime);
             final AtomicLong contentLen = new AtomicLong(0);
+            // Requests begin once the destination has assigned them a pooled connection
+            final AtomicLong leaseTime = new AtomicLong(Stats.UNKNOWN);
+            request.onRequestBegin(r -> leaseTime.compareAndSet(Stats.UNKNOWN, System.nanoTime()));
+            final AtomicLong headersTime = new AtomicLong(Stats.UNKNOWN);
+            request.onResponseHeaders(response -> {
+                headersTime.set(stats.responseHeaders(startTime, response.getStatus()));
+                if (readHeaders) {
+                    readHeaders(response, stats);
+                }
+            });
             request.onResponseContentAsync(new Response.Listener.Adapter() {
 
                 @Override
@@ -76,15 +324,20 @@ public class JettyHttpClientV11 implements HttpAgent {
 
             });
             request.send(result -> {
+                if (headersTime.get() != Stats.UNKNOWN) {
+                    stats.responseBody(headersTime.get());
+                }
+                final long connectionId = getConnectionId(result.getRequest());
                 final Throwable failure = result.getFailure();
                 if (failure != null) {
-                    stats.failure(contentLen.get());
+                    stats.failure(startTime, leaseTime.get(), 0, connectionId, contentLen.get(), method);
                 } else {
                     final Response response = result.getResponse();
-                    if (response.getStatus() == 200) {
-                        stats.success(contentLen.get());
+                    final int status = response.getStatus();
+                    if (Stats.isSuccessful(status)) {
+                        stats.success(startTime, leaseTime.get(), status, connectionId, contentLen.get(), method);
                     } else {
-                        stats.failure(contentLen.get());
+                        stats.failure(startTime, leaseTime.get(), status, connectionId, contentLen.get(), method);
                     }
                 }
                 semaphore.release();
@@ -94,6 +347,42 @@ public class JettyHttpClientV11 implements HttpAgent {
         return stats;
     }
 
+    /**
+     * Reads all response headers, as an application processing them would.
+     */
+    static void readHeaders(final Response response, final Stats stats) {
+        int count = 0;
+        long len = 0;
+        for (final HttpField field : response.getHeaders()) {
+            count++;
+            len += field.getName().length() + field.getValue().length();
+        }
+        stats.headersRead(count, len);
+    }
+
+    @Override
+    public PoolTelemetry.Sample samplePool() {
+        int leased = 0;
+        int available = 0;
+        int pending = 0;
+        int max = 0;
+        for (final Destination destination : this.client.getDestinations()) {
+            if (destination instanceof HttpDestination) {
+                final HttpDestination httpDestination = (HttpDestination) destination;
+                final ConnectionPool connectionPool = httpDestination.getConnectionPool();
+                if (connectionPool instanceof AbstractConnectionPool) {
+                    final AbstractConnectionPool pool = (AbstractConnectionPool) connectionPool;
+                    leased += pool.getActiveConnectionCount();
+                    available += pool.getIdleConnectionCount();
+                    max += pool.getMaxConnectionCount();
+                }
+                // Requests queued for a connection
+                pending += httpDestination.getQueuedRequestCount();
+            }
+        }
+        return new PoolTelemetry.Sample(leased, available, pending, max);
+    }
+
     @Override
     public String getClientName() {
         return "Jetty " + Jetty.VERSION;
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Records the measured run with JFR using the {@code profile} settings and
+ * summarizes the recording: hot methods by execution samples, allocation
+ * sites by allocated bytes and the per-request {@link BenchmarkEvents}.
+ */
+final class JfrProfiler {
+
+    private static final int TOP = 10;
+
+    private static final List<Class<? extends Event>> EVENTS = Arrays.asList(
+            BenchmarkEvents.RequestStart.class,
+            BenchmarkEvents.ResponseHeaders.class,
+            BenchmarkEvents.BodyComplete.class,
+            BenchmarkEvents.RequestFailure.class);
+
+    private final Recording recording;
+    private final Path file;
+
+    private JfrProfiler(final Recording recording, final Path file) {
+        this.recording = recording;
+        this.file = file;
+    }
+
+    /**
+     * Starts a recording if JFR profiling is enabled. Returns {@code null} otherwise.
+     */
+    static JfrProfiler start(final HttpAgent agent, final BenchmarkConfig config) throws IOException, ParseException {
+        if (!config.isJfr()) {
+            return null;
+        }
+        final Path file = config.getJfrFile() != null
+                ? config.getJfrFile().toPath()
+                : Paths.get(agent.getClass().getSimpleName() + ".jfr");
+        final Recording recording = new Recording(Configuration.getConfiguration("profile"));
+        recording.setName(agent.getClientName());
+        for (final Class<? extends Event> eventClass : EVENTS) {
+            recording.enable(eventClass);
+        }
+        recording.start();
+        return new JfrProfiler(recording, file);
+    }
+
+    void stop() throws IOException {
+        recording.stop();
+        recording.dump(file);
+        recording.close();
+    }
+
+    void printSummary() throws IOException {
+        final Map<String, Long> hotMethods = new HashMap<>();
+        final Map<String, Long> allocationSites = new HashMap<>();
+        final Map<String, long[]> requestEvents = new LinkedHashMap<>();
+        for (final Class<? extends Event> eventClass : EVENTS) {
+            requestEvents.put(EventType.getEventType(eventClass).getName(), new long[2]);
+        }
+        long executionSamples = 0;
+        long allocated = 0;
+        try (final RecordingFile recordingFile = new RecordingFile(file)) {
+            while (recordingFile.hasMoreEvents()) {
+                final RecordedEvent event = recordingFile.readEvent();
+                final String name = event.getEventType().getName();
+                switch (name) {
+                    case "jdk.ExecutionSample":
+                        final RecordedFrame top = topFrame(event.getStackTrace());
+                        if (top != null) {
+                            hotMethods.merge(format(top.getMethod()), 1L, Long::sum);
+                            executionSamples++;
+                        }
+                        break;
+                    case "jdk.ObjectAllocationInNewTLAB":
+                        allocated += recordAllocation(allocationSites, event, event.getLong("tlabSize"));
+                        break;
+                    case "jdk.ObjectAllocationOutsideTLAB":
+                        allocated += recordAllocation(allocationSites, event, event.getLong("allocationSize"));
+                        break;
+                    case "jdk.ObjectAllocationSample":
+                        // Throttled allocation sampling of Java 16 and newer
+                        allocated += recordAllocation(allocationSites, event, event.getLong("weight"));
+                        break;
+                    default:
+                        final long[] totals = requestEvents.get(name);
+                        if (totals != null) {
+                            totals[0]++;
+                            if (event.hasField("elapsed")) {
+                                totals[1] += event.getLong("elapsed");
+                            }
+                        }
+                }
+            }
+        }
+        System.out.println("---------------------------------");
+        System.out.println("JFR recording:\t\t" + file.toAbsolutePath());
+        for (final Class<? extends Event> eventClass : EVENTS) {
+            final EventType eventType = EventType.getEventType(eventClass);
+            final long[] totals = requestEvents.get(eventType.getName());
+            System.out.print(String.format(Locale.ROOT, "%-20s\t%d events", eventType.getLabel() + ":", totals[0]));
+            if (eventType.getField("elapsed") != null && totals[0] > 0) {
+                System.out.print(", mean elapsed " + Stats.toMillis(totals[1] / totals[0]) + " [ms]");
+            }
+            System.out.println();
+        }
+        System.out.println("Hot methods (" + executionSamples + " execution samples)");
+        for (final Map.Entry<String, Long> entry : top(hotMethods)) {
+            System.out.println(String.format(Locale.ROOT, "%6.2f%%\t%s",
+                    entry.getValue() * 100d / executionSamples, entry.getKey()));
+        }
+        System.out.println("Allocation sites (" + allocated / (1024 * 1024) + " MB sampled)");
+        for (final Map.Entry<String, Long> entry : top(allocationSites)) {
+            System.out.println(String.format(Locale.ROOT, "%6.2f%%\t%s",
+                    entry.getValue() * 100d / allocated, entry.getKey()));
+        }
+    }
+
+    private static long recordAllocation(
+            final Map<String, Long> allocationSites, final RecordedEvent event, final long bytes) {
+        final RecordedFrame frame = allocationFrame(event.getStackTrace());
+        if (frame == null) {
+            return 0;
+        }
+        final String site = format(frame.getMethod()) + " (" + event.getClass("objectClass").getName() + ")";
+        allocationSites.merge(site, bytes, Long::sum);
+        return bytes;
+    }
+
+    private static RecordedFrame topFrame(final RecordedStackTrace stackTrace) {
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) {
+            return null;
+        }
+        return stackTrace.getFrames().get(0);
+    }
+
+    /**
+     * Returns the innermost frame outside of the JDK, which attributes
+     * allocations in collections, buffers and the like to their caller.
+     */
+    private static RecordedFrame allocationFrame(final RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return null;
+        }
+        for (final RecordedFrame frame : stackTrace.getFrames()) {
+            final String type = frame.getMethod().getType().getName();
+            if (!type.startsWith("java.") && !type.startsWith("jdk.") && !type.startsWith("sun.")) {
+                return frame;
+            }
+        }
+        return topFrame(stackTrace);
+    }
+
+    private static String format(final RecordedMethod method) {
+        return method.getType().getName() + "." + method.getName();
+    }
+
+    private static List<Map.Entry<String, Long>> top(final Map<String, Long> map) {
+        final List<Map.Entry<String, Long>> entries = new ArrayList<>(map.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return entries.subList(0, Math.min(TOP, entries.size()));
+    }
+
+}
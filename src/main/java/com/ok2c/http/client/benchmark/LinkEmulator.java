@@ -0,0 +1,515 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TCP proxy on the loopback interface that emulates the conditions of a
+ * real network link between the agent and the target: one-way delay with
+ * jitter, a bandwidth cap shared by all connections and periodic pauses of
+ * the link. Data is held back for the time it would spend on the link and
+ * delivered in order, a new connection pays one extra round trip before
+ * its first byte, as it would for the TCP handshake.
+ * <p>
+ * Every target gets a proxy port of its own and all connections are served
+ * by a single selector thread. The proxy does not look into the traffic:
+ * agents send the proxy address in the {@code Host} header and TLS targets
+ * would fail host name verification, so only plain HTTP targets that do
+ * not depend on virtual hosts can be routed through it.
+ */
+final class LinkEmulator implements Closeable {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * Bytes held back per direction and connection before the proxy stops
+     * reading from the sender, roughly the window of a TCP connection.
+     */
+    private static final long MAX_QUEUED = 4 * 1024 * 1024;
+
+    private final LinkProfile profile;
+    private final Map<String, Route> routes;
+    private final Selector selector;
+    private final Random random;
+    private final Link upstream;
+    private final Link downstream;
+    private final Set<Pipe> pending;
+    private final Set<Connection> connections;
+    private final long epoch;
+    private final Thread thread;
+
+    private volatile boolean shutdown;
+    private int connectionCount;
+
+    private LinkEmulator(final LinkProfile profile) throws IOException {
+        this.profile = profile;
+        this.routes = new LinkedHashMap<>();
+        this.selector = Selector.open();
+        this.random = new Random();
+        this.upstream = new Link();
+        this.downstream = new Link();
+        this.pending = new LinkedHashSet<>();
+        this.connections = new HashSet<>();
+        this.epoch = System.nanoTime();
+        this.thread = new Thread(this::run, "link-emulator");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts proxies for all targets of the given configuration.
+     */
+    static LinkEmulator start(final BenchmarkConfig config) throws IOException {
+        final LinkEmulator emulator = new LinkEmulator(config.getLinkProfile());
+        try {
+            final List<URI> targets = new ArrayList<>(config.getUris());
+            if (config.getUri() != null) {
+                targets.add(config.getUri());
+            }
+            for (final URI target : targets) {
+                emulator.addRoute(target);
+            }
+        } catch (final IOException ex) {
+            emulator.close();
+            throw ex;
+        }
+        emulator.thread.start();
+        return emulator;
+    }
+
+    private void addRoute(final URI target) throws IOException {
+        final String key = authority(target);
+        if (this.routes.containsKey(key)) {
+            return;
+        }
+        final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        serverChannel.configureBlocking(false);
+        final Route route = new Route(
+                serverChannel, new InetSocketAddress(target.getHost(), port(target)));
+        serverChannel.register(this.selector, SelectionKey.OP_ACCEPT, route);
+        this.routes.put(key, route);
+    }
+
+    /**
+     * Returns the configuration with all targets replaced by their proxies.
+     */
+    BenchmarkConfig route(final BenchmarkConfig config) throws URISyntaxException {
+        final List<URI> uris = new ArrayList<>();
+        for (final URI uri : config.getUris()) {
+            uris.add(route(uri));
+        }
+        return BenchmarkConfig.copy(config)
+                .setUri(config.getUri() != null ? route(config.getUri()) : null)
+                .setUris(uris)
+                .build();
+    }
+
+    URI route(final URI target) throws URISyntaxException {
+        final Route route = this.routes.get(authority(target));
+        final InetSocketAddress address = (InetSocketAddress) route.serverChannel.socket().getLocalSocketAddress();
+        return new URI(target.getScheme(), target.getUserInfo(),
+                address.getAddress().getHostAddress(), address.getPort(),
+                target.getPath(), target.getQuery(), target.getFragment());
+    }
+
+    private static String authority(final URI target) {
+        return target.getHost() + ":" + port(target);
+    }
+
+    private static int port(final URI target) {
+        if (target.getPort() > 0) {
+            return target.getPort();
+        }
+        return "https".equalsIgnoreCase(target.getScheme()) ? 443 : 80;
+    }
+
+    private void run() {
+        try {
+            while (!this.shutdown) {
+                final long next = deliver(System.nanoTime());
+                final long wait = next - System.nanoTime();
+                if (next == Long.MAX_VALUE) {
+                    this.selector.select();
+                } else if (wait >= 1000000) {
+                    this.selector.select(wait / 1000000);
+                } else {
+                    // Selector timeouts are in milliseconds, shorter waits are parked
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    this.selector.selectNow();
+                }
+                final Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept((Route) key.attachment());
+                        continue;
+                    }
+                    final Connection conn = (Connection) key.attachment();
+                    try {
+                        conn.onEvent(key);
+                    } catch (final IOException ex) {
+                        conn.close();
+                    }
+                }
+            }
+        } catch (final IOException ex) {
+            if (!this.shutdown) {
+                System.out.println("Link emulator failed: " + ex.getMessage());
+            }
+        } finally {
+            for (final Connection conn : new ArrayList<>(this.connections)) {
+                conn.close();
+            }
+        }
+    }
+
+    private void accept(final Route route) throws IOException {
+        final SocketChannel client = route.serverChannel.accept();
+        if (client == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final SocketChannel server = SocketChannel.open();
+        try {
+            client.configureBlocking(false);
+            client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            server.configureBlocking(false);
+            server.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            final boolean connected = server.connect(route.target);
+            final Connection conn = new Connection(client, server, now);
+            conn.clientKey = client.register(this.selector, 0, conn);
+            conn.serverKey = server.register(this.selector, 0, conn);
+            conn.connected = connected;
+            conn.updateInterest();
+            this.connections.add(conn);
+            this.connectionCount++;
+        } catch (final IOException ex) {
+            client.close();
+            server.close();
+        }
+    }
+
+    /**
+     * Delivers all data that is due and returns the time the next data is due.
+     */
+    private long deliver(final long now) {
+        long next = Long.MAX_VALUE;
+        final Iterator<Pipe> it = this.pending.iterator();
+        while (it.hasNext()) {
+            final Pipe pipe = it.next();
+            try {
+                pipe.deliver(now);
+            } catch (final IOException ex) {
+                pipe.connection.close();
+            }
+            if (pipe.queue.isEmpty() || pipe.connection.closed) {
+                it.remove();
+            } else if (!pipe.blocked && pipe.isReady()) {
+                next = Math.min(next, pipe.queue.peek().due);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Returns the time at which data of the given length sent now arrives
+     * at the other end of the link.
+     */
+    private long arrival(final Link link, final long now, final int len) {
+        long sent = now;
+        if (this.profile.getBandwidth() > 0) {
+            sent = Math.max(now, link.free) + len * 1000000000L / this.profile.getBandwidth();
+            link.free = sent;
+        }
+        long delay = this.profile.getDelayNanos();
+        if (this.profile.getJitterNanos() > 0) {
+            delay += (long) ((this.random.nextDouble() * 2 - 1) * this.profile.getJitterNanos());
+        }
+        long due = sent + Math.max(delay, 0);
+        // Nothing gets through during pauses at the end of every interval
+        final long interval = this.profile.getPauseIntervalNanos();
+        if (this.profile.getPauseNanos() > 0 && interval > 0) {
+            final long phase = (due - this.epoch) % interval;
+            if (phase >= interval - this.profile.getPauseNanos()) {
+                due += interval - phase;
+            }
+        }
+        return due;
+    }
+
+    void printSummary() {
+        System.out.print("Link emulation:\t\t");
+        System.out.println(this.profile);
+        System.out.print("Link traffic:\t\t");
+        System.out.println(String.format(Locale.ROOT, "%d connections, %d bytes up, %d bytes down",
+                this.connectionCount, this.upstream.bytes, this.downstream.bytes));
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.shutdown = true;
+        this.selector.wakeup();
+        if (this.thread.isAlive()) {
+            try {
+                this.thread.join();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (final Route route : this.routes.values()) {
+            route.serverChannel.close();
+        }
+        this.selector.close();
+    }
+
+    static final class Route {
+
+        final ServerSocketChannel serverChannel;
+        final InetSocketAddress target;
+
+        Route(final ServerSocketChannel serverChannel, final InetSocketAddress target) {
+            this.serverChannel = serverChannel;
+            this.target = target;
+        }
+
+    }
+
+    /**
+     * One direction of the link, shared by all connections.
+     */
+    static final class Link {
+
+        long free;
+        long bytes;
+
+    }
+
+    static final class Chunk {
+
+        final ByteBuffer data;
+        final long due;
+
+        Chunk(final ByteBuffer data, final long due) {
+            this.data = data;
+            this.due = due;
+        }
+
+    }
+
+    /**
+     * One direction of a proxied connection. A chunk without data marks the
+     * end of the stream.
+     */
+    final class Pipe {
+
+        final Connection connection;
+        final SocketChannel source;
+        final SocketChannel sink;
+        final Link link;
+        final Queue<Chunk> queue;
+
+        long lastDue;
+        long queued;
+        boolean eof;
+        boolean blocked;
+
+        Pipe(
+                final Connection connection,
+                final SocketChannel source,
+                final SocketChannel sink,
+                final Link link,
+                final long lastDue) {
+            this.connection = connection;
+            this.source = source;
+            this.sink = sink;
+            this.link = link;
+            this.queue = new ArrayDeque<>();
+            this.lastDue = lastDue;
+        }
+
+        boolean isReady() {
+            return this.sink != this.connection.server || this.connection.connected;
+        }
+
+        boolean isReading() {
+            return !this.eof && this.queued < MAX_QUEUED;
+        }
+
+        void read(final long now) throws IOException {
+            final ByteBuffer buf = ByteBuffer.allocate(CHUNK_SIZE);
+            final int n = this.source.read(buf);
+            if (n == 0) {
+                return;
+            }
+            if (n < 0) {
+                this.eof = true;
+                enqueue(null, arrival(this.link, now, 0));
+                return;
+            }
+            buf.flip();
+            this.queued += n;
+            enqueue(buf, arrival(this.link, now, n));
+        }
+
+        private void enqueue(final ByteBuffer data, final long due) {
+            // TCP delivers in order, whatever the jitter
+            this.lastDue = Math.max(due, this.lastDue);
+            this.queue.add(new Chunk(data, this.lastDue));
+            pending.add(this);
+        }
+
+        void deliver(final long now) throws IOException {
+            if (!isReady()) {
+                return;
+            }
+            this.blocked = false;
+            for (;;) {
+                final Chunk chunk = this.queue.peek();
+                if (chunk == null || chunk.due > now) {
+                    break;
+                }
+                if (chunk.data == null) {
+                    this.queue.remove();
+                    this.sink.shutdownOutput();
+                    this.connection.endOfStream();
+                    break;
+                }
+                final int n = this.sink.write(chunk.data);
+                this.queued -= n;
+                this.link.bytes += n;
+                if (chunk.data.hasRemaining()) {
+                    this.blocked = true;
+                    break;
+                }
+                this.queue.remove();
+            }
+            this.connection.updateInterest();
+        }
+
+    }
+
+    final class Connection {
+
+        final SocketChannel client;
+        final SocketChannel server;
+        final Pipe up;
+        final Pipe down;
+
+        SelectionKey clientKey;
+        SelectionKey serverKey;
+        boolean connected;
+        boolean closed;
+        int ended;
+
+        Connection(final SocketChannel client, final SocketChannel server, final long acceptTime) {
+            this.client = client;
+            this.server = server;
+            // Over a real link the client gets to send only after the round trip of the handshake
+            this.up = new Pipe(this, client, server, upstream, acceptTime + 3 * profile.getDelayNanos());
+            this.down = new Pipe(this, server, client, downstream, 0);
+        }
+
+        void onEvent(final SelectionKey key) throws IOException {
+            final long now = System.nanoTime();
+            if (key.isConnectable()) {
+                this.server.finishConnect();
+                this.connected = true;
+                pending.add(this.up);
+            }
+            if (key.isValid() && key.isWritable()) {
+                pending.add(key == this.clientKey ? this.down : this.up);
+            }
+            if (key.isValid() && key.isReadable()) {
+                (key == this.clientKey ? this.up : this.down).read(now);
+            }
+            updateInterest();
+        }
+
+        void endOfStream() {
+            if (++this.ended == 2) {
+                close();
+            }
+        }
+
+        void updateInterest() {
+            if (this.closed) {
+                return;
+            }
+            this.clientKey.interestOps(ops(this.up, this.down));
+            this.serverKey.interestOps(this.connected ? ops(this.down, this.up) : SelectionKey.OP_CONNECT);
+        }
+
+        private int ops(final Pipe in, final Pipe out) {
+            int ops = 0;
+            if (in.isReading()) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (out.blocked) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            return ops;
+        }
+
+        void close() {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            connections.remove(this);
+            try {
+                this.client.close();
+            } catch (final IOException ignore) {
+            }
+            try {
+                this.server.close();
+            } catch (final IOException ignore) {
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Conditions of the network link emulated by {@link LinkEmulator}, the same
+ * in both directions.
+ */
+final class LinkProfile {
+
+    static final long DEFAULT_PAUSE_INTERVAL_MILLIS = 1000;
+
+    private final long delayNanos;
+    private final long jitterNanos;
+    private final long bandwidth;
+    private final long pauseNanos;
+    private final long pauseIntervalNanos;
+
+    /**
+     * @param delayNanos one-way delay.
+     * @param jitterNanos maximum deviation of the delay either way.
+     * @param bandwidth bandwidth cap in bytes per second, {@code 0} for none.
+     * @param pauseNanos duration of link pauses, {@code 0} for none.
+     * @param pauseIntervalNanos time from the start of one pause to the next.
+     */
+    LinkProfile(
+            final long delayNanos,
+            final long jitterNanos,
+            final long bandwidth,
+            final long pauseNanos,
+            final long pauseIntervalNanos) {
+        this.delayNanos = delayNanos;
+        this.jitterNanos = jitterNanos;
+        this.bandwidth = bandwidth;
+        this.pauseNanos = pauseNanos;
+        this.pauseIntervalNanos = pauseIntervalNanos;
+    }
+
+    long getDelayNanos() {
+        return delayNanos;
+    }
+
+    long getJitterNanos() {
+        return jitterNanos;
+    }
+
+    long getBandwidth() {
+        return bandwidth;
+    }
+
+    long getPauseNanos() {
+        return pauseNanos;
+    }
+
+    long getPauseIntervalNanos() {
+        return pauseIntervalNanos;
+    }
+
+    @Override
+    public String toString() {
+        final List<String> parts = new ArrayList<>();
+        parts.add(String.format(Locale.ROOT, "%.2f ms one-way delay", delayNanos / 1e6));
+        if (jitterNanos > 0) {
+            parts.add(String.format(Locale.ROOT, "+/-%.2f ms jitter", jitterNanos / 1e6));
+        }
+        if (bandwidth > 0) {
+            parts.add(String.format(Locale.ROOT, "%.1f Mbit/s", bandwidth * 8 / 1e6));
+        }
+        if (pauseNanos > 0) {
+            parts.add(String.format(Locale.ROOT, "%.0f ms pause every %.0f ms",
+                    pauseNanos / 1e6, pauseIntervalNanos / 1e6));
+        }
+        return String.join(", ", parts);
+    }
+
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Varies the in-flight limit over a run of fixed duration. The configured
+ * concurrency is the peak of the profile.
+ * <ul>
+ *   <li>ramp: linear increase from 1 to the peak;</li>
+ *   <li>step: increase in four equal steps up to the peak;</li>
+ *   <li>spike: a tenth of the peak, the peak for the middle third of the
+ *   run, then a tenth of the peak again;</li>
+ *   <li>sine: two periods between a tenth of the peak and the peak.</li>
+ * </ul>
+ * Latency is reported per phase of the profile along with the time it takes
+ * latency to settle after each transition: the time until 100 ms windows of
+ * mean latency stay within 25% of the steady state of the phase, taken as
+ * the median window of its second half.
+ */
+final class LoadProfile {
+
+    static final int DEFAULT_DURATION = 60;
+
+    private static final long WINDOW_MILLIS = 100;
+    private static final long DRIVER_INTERVAL_MILLIS = 10;
+    private static final int STEPS = 4;
+    private static final int SPIKE_FACTOR = 10;
+    private static final double SETTLE_TOLERANCE = 0.25;
+    private static final int SETTLE_WINDOWS = 3;
+
+    enum Shape { RAMP, STEP, SPIKE, SINE }
+
+    private final Shape shape;
+    private final int duration;
+
+    LoadProfile(final Shape shape, final int duration) {
+        this.shape = shape;
+        this.duration = duration;
+    }
+
+    Shape getShape() {
+        return shape;
+    }
+
+    /**
+     * Returns the duration of the profile in seconds.
+     */
+    int getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the in-flight limit at the given time into the run.
+     */
+    int limitAt(final long elapsedMillis, final int peak) {
+        final double t = Math.min((double) elapsedMillis / (duration * 1000L), 1d);
+        final int base = Math.max(peak / SPIKE_FACTOR, 1);
+        switch (shape) {
+            case RAMP:
+                return Math.max((int) Math.round(peak * t), 1);
+            case STEP:
+                return Math.max(peak * (Math.min((int) (t * STEPS), STEPS - 1) + 1) / STEPS, 1);
+            case SPIKE:
+                return t >= 1d / 3 && t < 2d / 3 ? peak : base;
+            case SINE:
+                return base + (int) Math.round((peak - base) * (1 - Math.cos(4 * Math.PI * t)) / 2);
+            default:
+                throw new IllegalStateException("Unexpected shape: " + shape);
+        }
+    }
+
+    List<Phase> getPhases() {
+        final long durationMillis = duration * 1000L;
+        final List<Phase> phases = new ArrayList<>();
+        switch (shape) {
+            case SPIKE:
+                phases.add(new Phase("base", 0, durationMillis / 3));
+                phases.add(new Phase("spike", durationMillis / 3, durationMillis * 2 / 3));
+                phases.add(new Phase("recovery", durationMillis * 2 / 3, durationMillis));
+                break;
+            case SINE:
+                for (int i = 0; i < STEPS; i++) {
+                    phases.add(new Phase(i % 2 == 0 ? "rise" : "fall",
+                            durationMillis * i / STEPS, durationMillis * (i + 1) / STEPS));
+                }
+                break;
+            default:
+                for (int i = 0; i < STEPS; i++) {
+                    phases.add(new Phase(shape.name().toLowerCase(Locale.ROOT) + " " + (i + 1),
+                            durationMillis * i / STEPS, durationMillis * (i + 1) / STEPS));
+                }
+        }
+        return phases;
+    }
+
+    @Override
+    public String toString() {
+        return shape.name().toLowerCase(Locale.ROOT) + " over " + duration + " sec";
+    }
+
+    static void execute(final HttpAgent agent, final BenchmarkConfig config) throws Exception {
+        final LoadProfile profile = config.getLoadProfile();
+        final int peak = config.getConcurrency();
+        final long durationMillis = profile.getDuration() * 1000L;
+        final InFlightLimit limit = new InFlightLimit(profile.limitAt(0, peak));
+        // Open-ended run, ended by the driver once the profile is over
+        final BenchmarkConfig runConfig = BenchmarkConfig.copy(config)
+                .setRequests(Integer.MAX_VALUE)
+                .setInFlightLimit(limit)
+                .build();
+        final Timeline timeline = new Timeline(profile.getPhases(), durationMillis);
+        final ScheduledExecutorService driver = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "load-profile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Stats.setObserver(timeline);
+        final Stats stats;
+        try {
+            timeline.start();
+            driver.scheduleAtFixedRate(() -> {
+                final long elapsed = timeline.elapsedMillis();
+                if (elapsed >= durationMillis) {
+                    timeline.close();
+                    limit.close();
+                } else {
+                    limit.setLimit(profile.limitAt(elapsed, peak));
+                }
+            }, DRIVER_INTERVAL_MILLIS, DRIVER_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            stats = agent.execute(runConfig);
+        } finally {
+            driver.shutdownNow();
+            Stats.setObserver(null);
+        }
+        System.out.println("---------------------------------");
+        timeline.print(profile, peak);
+        System.out.println("---------------------------------");
+        System.out.print("Complete requests:\t");
+        System.out.println(stats.getSuccessCount());
+        System.out.print("Failed requests:\t");
+        System.out.println(stats.getFailureCount());
+        Stats.printPercentiles("Latency p50/p99/max:\t", stats.getLatency());
+    }
+
+    static final class Phase {
+
+        private final String name;
+        private final long start;
+        private final long end;
+
+        Phase(final String name, final long start, final long end) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+        }
+
+    }
+
+    /**
+     * Requests completed during the run, by phase and by window of 100 ms.
+     */
+    static final class Timeline implements Stats.Observer {
+
+        private final List<Phase> phases;
+        private final Histogram[] latencies;
+        private final AtomicLongArray failures;
+        private final AtomicLongArray windowCounts;
+        private final AtomicLongArray windowLatencies;
+
+        private volatile long startTime;
+        private volatile Stats stats;
+
+        Timeline(final List<Phase> phases, final long durationMillis) {
+            this.phases = phases;
+            this.latencies = new Histogram[phases.size()];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new Histogram();
+            }
+            this.failures = new AtomicLongArray(phases.size());
+            final int windows = (int) (durationMillis / WINDOW_MILLIS) + 1;
+            this.windowCounts = new AtomicLongArray(windows);
+            this.windowLatencies = new AtomicLongArray(windows);
+        }
+
+        void start() {
+            startTime = System.nanoTime();
+        }
+
+        long elapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        }
+
+        void close() {
+            final Stats current = stats;
+            if (current != null) {
+                current.close();
+            }
+        }
+
+        @Override
+        public void opened(final Stats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        public void completed(final long completionTime, final long latency, final boolean success) {
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(completionTime - startTime);
+            final int window = (int) (elapsed / WINDOW_MILLIS);
+            if (elapsed < 0 || window >= windowCounts.length()) {
+                return;
+            }
+            windowCounts.incrementAndGet(window);
+            windowLatencies.addAndGet(window, latency);
+            final int phase = phaseOf(elapsed);
+            if (success) {
+                latencies[phase].record(latency);
+            } else {
+                failures.incrementAndGet(phase);
+            }
+        }
+
+        private int phaseOf(final long elapsed) {
+            for (int i = 0; i < phases.size() - 1; i++) {
+                if (elapsed < phases.get(i).end) {
+                    return i;
+                }
+            }
+            return phases.size() - 1;
+        }
+
+        /**
+         * Returns mean latency of the given window or {@code -1} if no request completed in it.
+         */
+        private long windowMean(final int window) {
+            final long count = windowCounts.get(window);
+            return count > 0 ? windowLatencies.get(window) / count : -1;
+        }
+
+        /**
+         * Returns the time from the start of the phase until latency settles
+         * or {@code -1} if it does not settle within the phase.
+         */
+        long settleTime(final Phase phase) {
+            final int first = (int) (phase.start / WINDOW_MILLIS);
+            final int last = (int) Math.min(phase.end / WINDOW_MILLIS, windowCounts.length());
+            final long[] steady = new long[last - (first + last) / 2];
+            int n = 0;
+            for (int i = (first + last) / 2; i < last; i++) {
+                final long mean = windowMean(i);
+                if (mean >= 0) {
+                    steady[n++] = mean;
+                }
+            }
+            if (n == 0) {
+                return -1;
+            }
+            Arrays.sort(steady, 0, n);
+            final long median = steady[n / 2];
+            int settled = 0;
+            for (int i = first; i < last; i++) {
+                final long mean = windowMean(i);
+                if (mean < 0) {
+                    continue;
+                }
+                if (Math.abs(mean - median) <= median * SETTLE_TOLERANCE) {
+                    if (++settled == SETTLE_WINDOWS) {
+                        return Math.max((i - SETTLE_WINDOWS + 1) * WINDOW_MILLIS - phase.start, 0);
+                    }
+                } else {
+                    settled = 0;
+                }
+            }
+            return -1;
+        }
+
+        void print(final LoadProfile profile, final int peak) {
+            System.out.println("Phase       \t   Limit\t     Req/s\t  p50 [ms]\t  p99 [ms]\t  max [ms]\tFailed\tSettled after [ms]");
+            for (int i = 0; i < phases.size(); i++) {
+                final Phase phase = phases.get(i);
+                final Histogram histogram = latencies[i];
+                final String limits = profile.limitAt(phase.start, peak) + "-" + profile.limitAt(phase.end - 1, peak);
+                final double seconds = Math.max(phase.end - phase.start, 1) / 1000d;
+                final long settleTime = settleTime(phase);
+                System.out.println(String.format(Locale.ROOT, "%-12s\t%8s\t%10.2f\t%10s\t%10s\t%10s\t%6d\t%s",
+                        phase.name,
+                        limits,
+                        histogram.getCount() / seconds,
+                        Stats.toMillis(histogram.getPercentile(50)),
+                        Stats.toMillis(histogram.getPercentile(99)),
+                        Stats.toMillis(histogram.getMax()),
+                        failures.get(i),
+                        settleTime >= 0 ? Long.toString(settleTime) : "not settled"));
+            }
+        }
+
+    }
+
+}
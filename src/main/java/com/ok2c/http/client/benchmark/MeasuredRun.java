@@ -0,0 +1,152 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Single measured run of the agent with its own configuration: init, warmup,
+ * execution tracked for resource usage, shutdown. Scenarios that compare
+ * configurations report the figures of their runs side by side.
+ */
+final class MeasuredRun {
+
+    /**
+     * Rounds of runs executed in turn, of which only the last one is reported.
+     */
+    static final int ROUNDS = 2;
+
+    private final Stats stats;
+    private final double totalTimeSec;
+    private final double cpuPerRequest;
+    private final double allocatedPerRequest;
+
+    private MeasuredRun(
+            final Stats stats,
+            final double totalTimeSec,
+            final double cpuPerRequest,
+            final double allocatedPerRequest) {
+        this.stats = stats;
+        this.totalTimeSec = totalTimeSec;
+        this.cpuPerRequest = cpuPerRequest;
+        this.allocatedPerRequest = allocatedPerRequest;
+    }
+
+    static MeasuredRun execute(final HttpAgent agent, final BenchmarkConfig config) throws Exception {
+        agent.init(config);
+        try {
+            Warmup.execute(agent, config);
+            final ResourceUsage usage = ResourceUsage.start();
+            final long startTime = System.currentTimeMillis();
+            final Stats stats = agent.execute(config);
+            final long finishTime = System.currentTimeMillis();
+            usage.stop();
+
+            final double totalTimeSec = Math.max(finishTime - startTime, 1) / 1000d;
+            final int completed = stats.getSuccessCount() + stats.getFailureCount();
+            return new MeasuredRun(
+                    stats,
+                    totalTimeSec,
+                    usage.getCpuTime() >= 0 && completed > 0
+                            ? usage.getCpuTime() / 1000d / completed : Double.NaN,
+                    usage.getAllocated() >= 0 && completed > 0
+                            ? (double) usage.getAllocated() / completed : Double.NaN);
+        } finally {
+            agent.shutdown();
+        }
+    }
+
+    /**
+     * Executes runs of all configurations in turn, {@link #ROUNDS} times over,
+     * and returns those of the last round, so that the configuration that
+     * happens to run first does not pay for the JIT compilation of code all
+     * of them share.
+     */
+    static List<MeasuredRun> executeInTurn(
+            final HttpAgent agent,
+            final List<String> labels,
+            final List<BenchmarkConfig> configs) throws Exception {
+        final List<MeasuredRun> runs = new ArrayList<>();
+        for (int round = 1; round <= ROUNDS; round++) {
+            runs.clear();
+            for (int i = 0; i < configs.size(); i++) {
+                final BenchmarkConfig config = configs.get(i);
+                System.out.println("---------------------------------");
+                System.out.println(labels.get(i) + ", round " + round + ": " + config.getRequests() + " requests");
+                final MeasuredRun run = execute(agent, config);
+                System.out.println(run);
+                runs.add(run);
+            }
+        }
+        return runs;
+    }
+
+    Stats getStats() {
+        return stats;
+    }
+
+    double getReqsPerSec() {
+        return stats.getSuccessCount() / totalTimeSec;
+    }
+
+    /**
+     * Returns decoded content received per second in MB.
+     */
+    double getContentMBPerSec() {
+        return stats.getTotalContentLen() / totalTimeSec / (1024 * 1024);
+    }
+
+    /**
+     * Returns the mean latency in microseconds.
+     */
+    double getLatency() {
+        return stats.getLatency().getMean() / 1000d;
+    }
+
+    /**
+     * Returns the latency at the given percentile in microseconds.
+     */
+    double getLatency(final double percentile) {
+        return stats.getLatency().getPercentile(percentile) / 1000d;
+    }
+
+    /**
+     * Returns CPU time per request in microseconds, {@code NaN} if unknown.
+     */
+    double getCpuPerRequest() {
+        return cpuPerRequest;
+    }
+
+    /**
+     * Returns heap allocated per request in bytes, {@code NaN} if unknown.
+     */
+    double getAllocatedPerRequest() {
+        return allocatedPerRequest;
+    }
+
+    static String format(final double value) {
+        return Double.isNaN(value) ? "n/a" : String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%.2f req/s, mean %.2f us, CPU/req %s us, %d failed",
+                getReqsPerSec(), getLatency(), format(cpuPerRequest), stats.getFailureCount());
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Weighted mix of request methods, each with optional request content. The
+ * method of every request is looked up by request number in a sequence
+ * generated up front, shuffled with a fixed seed, so picking a method
+ * neither allocates nor synchronizes.
+ */
+public final class MethodMix {
+
+    /**
+     * Length of the generated sequence. Weights are honored to within
+     * 1 / {@value} of the total.
+     */
+    static final int SEQUENCE_LENGTH = 1024;
+
+    private static final long SEED = 0x6D6978L;
+
+    public static final class Method {
+
+        private final int index;
+        private final String name;
+        private final int weight;
+        private final File file;
+        private final String contentType;
+
+        Method(final int index, final String name, final int weight, final File file, final String contentType) {
+            this.index = index;
+            this.name = name;
+            this.weight = weight;
+            this.file = file;
+            this.contentType = contentType;
+        }
+
+        /**
+         * Returns the position of the method in the mix.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * Returns the file of request content or {@code null} if requests have no content.
+         */
+        public File getFile() {
+            return file;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public String toString() {
+            return name + ":" + weight + (file != null ? ":" + BenchmarkRunner.formatSize(file.length()) : "");
+        }
+
+    }
+
+    private final List<Method> methods;
+    private final Method[] sequence;
+
+    private MethodMix(final List<Method> methods) {
+        this.methods = Collections.unmodifiableList(methods);
+        this.sequence = generate(methods);
+    }
+
+    private static Method[] generate(final List<Method> methods) {
+        long total = 0;
+        for (final Method method : methods) {
+            total += method.weight;
+        }
+        final Method[] sequence = new Method[SEQUENCE_LENGTH];
+        int n = 0;
+        long weights = 0;
+        for (final Method method : methods) {
+            weights += method.weight;
+            // Cumulative rounding, so that the sequence gets filled exactly
+            final int end = (int) Math.round((double) weights * SEQUENCE_LENGTH / total);
+            while (n < end) {
+                sequence[n++] = method;
+            }
+        }
+        final Random random = new Random(SEED);
+        for (int i = sequence.length - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final Method tmp = sequence[i];
+            sequence[i] = sequence[j];
+            sequence[j] = tmp;
+        }
+        return sequence;
+    }
+
+    /**
+     * Returns the mix of the configuration or, if none has been given, the single
+     * method of plain runs: PUT of the content file, if any, otherwise GET.
+     */
+    public static MethodMix of(final BenchmarkConfig config) {
+        if (config.getMethodMix() != null) {
+            return config.getMethodMix();
+        }
+        return config.getFile() != null
+                ? custom().add("PUT", 1, config.getFile(), config.getContentType()).build()
+                : custom().add("GET", 1, null, null).build();
+    }
+
+    public static Builder custom() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the method of the request with the given number.
+     */
+    public Method get(final long n) {
+        return sequence[(int) (n & (SEQUENCE_LENGTH - 1))];
+    }
+
+    public List<Method> getMethods() {
+        return methods;
+    }
+
+    public boolean isSingle() {
+        return methods.size() == 1;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        for (final Method method : methods) {
+            if (buf.length() > 0) {
+                buf.append(',');
+            }
+            buf.append(method);
+        }
+        return buf.toString();
+    }
+
+    public static final class Builder {
+
+        private final List<Method> methods;
+
+        Builder() {
+            this.methods = new ArrayList<>();
+        }
+
+        public Builder add(final String name, final int weight, final File file, final String contentType) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Weight must be positive: " + weight);
+            }
+            this.methods.add(new Method(this.methods.size(), name, weight, file, contentType));
+            return this;
+        }
+
+        public MethodMix build() {
+            if (this.methods.isEmpty()) {
+                throw new IllegalStateException("No methods");
+            }
+            return new MethodMix(new ArrayList<>(this.methods));
+        }
+
+    }
+
+}
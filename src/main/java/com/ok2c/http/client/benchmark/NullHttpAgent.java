@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Loopback agent that completes every request in memory without any I/O.
+ * It goes through the same submission loop, permit handling and stats
+ * recording as the asynchronous agents, so its throughput is the ceiling
+ * of the harness itself. The target URI is ignored.
+ */
+public class NullHttpAgent implements HttpAgent {
+
+    private static final int MIN_REQUESTS = 1000000;
+
+    public NullHttpAgent() {
+        super();
+    }
+
+    @Override
+    public void init(final BenchmarkConfig config) {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public Stats execute(final BenchmarkConfig config) throws Exception {
+        final Stats stats = new Stats(config.getRequests(), config.getConcurrency());
+        final Semaphore semaphore = InFlightLimit.create(config);
+        for (int i = 0; i < config.getRequests() && !stats.isClosed(); i++) {
+            final long admissionTime = System.nanoTime();
+            semaphore.acquire();
+            final long startTime = System.nanoTime();
+            BenchmarkEvents.requestStart(startTime);
+            stats.admission(admissionTime, startTime);
+            stats.success(startTime, Stats.UNKNOWN, 0, 0, 0, null);
+            semaphore.release();
+        }
+        stats.waitFor();
+        return stats;
+    }
+
+    /**
+     * Executes the harness alone with the given configuration and returns
+     * its cost in nanoseconds per request.
+     */
+    static long measure(final BenchmarkConfig config) throws Exception {
+        // Enough requests for the JIT to compile the submission loop and for a stable mean
+        final BenchmarkConfig baselineConfig = BenchmarkConfig.copy(config)
+                .setRequests(Math.max(config.getRequests(), MIN_REQUESTS))
+                .build();
+        final NullHttpAgent agent = new NullHttpAgent();
+        agent.init(baselineConfig);
+        try {
+            agent.execute(baselineConfig);
+            final long startTime = System.nanoTime();
+            agent.execute(baselineConfig);
+            return (System.nanoTime() - startTime) / baselineConfig.getRequests();
+        } finally {
+            agent.shutdown();
+        }
+    }
+
+    @Override
+    public String getClientName() {
+        return "Null agent (harness baseline)";
+    }
+
+    public static void main(final String... args) throws Exception {
+        BenchmarkRunner.run(new NullHttpAgent(), args);
+    }
+
+}
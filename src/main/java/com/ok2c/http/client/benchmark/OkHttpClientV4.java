@@ -1,14 +1,35 @@
 package com.ok2c.http.client.benchmark;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.URI;
 import java.nio.file.Files;
 import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.net.SocketFactory;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.Cookie;
+import okhttp3.CookieJar;
 import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
+import okhttp3.OkHttp;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
@@ -16,28 +37,41 @@ import okhttp3.Response;
 public class OkHttpClientV4 implements HttpAgent {
 
     @Override
-    public void init() throws Exception {
+    public void init(BenchmarkConfig config) throws Exception {
     }
 
     @Override
     public void shutdown() throws Exception {
     }
 
-    private Request createRequest(BenchmarkConfig config) throws Exception {
-        Request.Builder requestBuilder = new Request.Builder().url(config.getUri().toURL());
-        if (config.getFile() == null) {
-            requestBuilder.method("GET", null);
+    private Request createRequest(
+            BenchmarkConfig config,
+            URI uri,
+            MethodMix.Method method,
+            List<Map.Entry<String, String>> requestHeaders) throws Exception {
+        Request.Builder requestBuilder = new Request.Builder().url(uri.toURL());
+        if (method.getFile() == null) {
+            // OkHttp insists on a body for POST and PUT
+            boolean bodyRequired = method.getName().equals("POST") || method.getName().equals("PUT");
+            requestBuilder.method(method.getName(), bodyRequired ? RequestBody.create(new byte[0], null) : null);
         } else {
-            requestBuilder.method("PUT", RequestBody.create(
-                    Files.readAllBytes(config.getFile().toPath()),
-                    config.getContentType() != null ? MediaType.parse(config.getContentType()) : null));
-            if (config.getContentType() != null) {
-                requestBuilder.header("Content-Type", config.getContentType());
+            requestBuilder.method(method.getName(), RequestBody.create(
+                    Files.readAllBytes(method.getFile().toPath()),
+                    method.getContentType() != null ? MediaType.parse(method.getContentType()) : null));
+            if (method.getContentType() != null) {
+                requestBuilder.header("Content-Type", method.getContentType());
             }
         }
         if (!config.isKeepAlive()) {
             requestBuilder.header("Connection", "close");
         }
+        if (!config.isCompression()) {
+            // Otherwise OkHttp requests gzip and decodes it transparently
+            requestBuilder.header("Accept-Encoding", "identity");
+        }
+        for (Map.Entry<String, String> header : requestHeaders) {
+            requestBuilder.addHeader(header.getKey(), header.getValue());
+        }
         return requestBuilder.build();
     }
 
@@ -46,25 +80,56 @@ public class OkHttpClientV4 implements HttpAgent {
         Dispatcher dispatcher = new Dispatcher();
         dispatcher.setMaxRequests(config.getConcurrency());
 
-        OkHttpClient okHttpClient = new OkHttpClient.Builder()
+        final Stats stats = new Stats(config.getRequests(), config.getConcurrency());
+        // Calls are created on the submitting thread right after their listener
+        final AtomicReference<PhaseListener> nextListener = new AtomicReference<>();
+
+        OkHttpClient.Builder okHttpClientBuilder = new OkHttpClient.Builder()
                 .connectTimeout(Duration.ofMillis(config.getTimeout()))
                 .readTimeout(Duration.ofMillis(config.getTimeout()))
-                .build();
+                .socketFactory(new ConfiguringSocketFactory(config))
+                .eventListenerFactory(call -> nextListener.get());
+        if (config.isFullChain()) {
+            // OkHttp follows redirects and retries by default, but keeps no cookies
+            okHttpClientBuilder.cookieJar(new InMemoryCookieJar());
+        }
+        OkHttpClient okHttpClient = okHttpClientBuilder.build();
 
-        final Stats stats = new Stats(config.getRequests(), config.getConcurrency());
-        final Semaphore semaphore = new Semaphore(config.getConcurrency());
-        for (int i = 0; i < config.getRequests(); i++) {
-            Request request = createRequest(config);
+        final Semaphore semaphore = InFlightLimit.create(config);
+        // Request is immutable and can be executed any number of times
+        List<Map.Entry<String, String>> requestHeaders = HeaderProfile.getRequestHeaders(config);
+        boolean readHeaders = config.getResponseHeaderCount() > 0;
+        MethodMix mix = MethodMix.of(config);
+        Request[] sharedRequests = new Request[mix.getMethods().size()];
+        if (config.isReuseRequests() && config.getUris().isEmpty()) {
+            for (MethodMix.Method method : mix.getMethods()) {
+                sharedRequests[method.getIndex()] = createRequest(config, config.getUri(), method, requestHeaders);
+            }
+        }
+        for (int i = 0; i < config.getRequests() && !stats.isClosed(); i++) {
+            final MethodMix.Method method = mix.get(i);
+            Request request = sharedRequests[method.getIndex()] != null
+                    ? sharedRequests[method.getIndex()]
+                    : createRequest(config, config.getUri(i), method, requestHeaders);
 
             semaphore.acquire();
+            final long startTime = System.nanoTime();
+            BenchmarkEvents.requestStart(startTime);
+            PhaseListener listener = new PhaseListener(stats, startTime);
+            nextListener.set(listener);
             final AtomicLong contentLen = new AtomicLong(0);
             try (Response response = okHttpClient.newCall(request).execute()) {
+                if (readHeaders) {
+                    readHeaders(response.headers(), stats);
+                }
                 if (!response.isSuccessful()) {
-                    stats.failure(contentLen.get());
+                    stats.failure(startTime, Stats.UNKNOWN, response.code(), listener.getConnectionId(),
+                            contentLen.get(), method);
                     throw new IOException("Unexpected code " + response);
                 }
                 contentLen.addAndGet(response.body().bytes().length);
-                stats.success(contentLen.get());
+                stats.success(startTime, Stats.UNKNOWN, response.code(), listener.getConnectionId(),
+                        contentLen.get(), method);
             } finally {
                 semaphore.release();
             }
@@ -73,9 +138,148 @@ public class OkHttpClientV4 implements HttpAgent {
         return stats;
     }
 
+    /**
+     * Reads all response headers, as an application processing them would.
+     */
+    static void readHeaders(Headers headers, Stats stats) {
+        long len = 0;
+        for (int i = 0; i < headers.size(); i++) {
+            len += headers.name(i).length() + headers.value(i).length();
+        }
+        stats.headersRead(headers.size(), len);
+    }
+
+    /**
+     * Keeps the most recent cookies of every host.
+     */
+    static class InMemoryCookieJar implements CookieJar {
+
+        private final Map<String, List<Cookie>> cookies = new ConcurrentHashMap<>();
+
+        @Override
+        public void saveFromResponse(HttpUrl url, List<Cookie> cookies) {
+            this.cookies.put(url.host(), cookies);
+        }
+
+        @Override
+        public List<Cookie> loadForRequest(HttpUrl url) {
+            return this.cookies.getOrDefault(url.host(), Collections.emptyList());
+        }
+
+    }
+
+    /**
+     * Records the phases of a single call.
+     */
+    static class PhaseListener extends EventListener {
+
+        private final Stats stats;
+        private final long startTime;
+
+        private long dnsStartTime;
+        private long connectStartTime;
+        private long headersTime;
+        private volatile long connectionId;
+
+        PhaseListener(Stats stats, long startTime) {
+            this.stats = stats;
+            this.startTime = startTime;
+        }
+
+        /**
+         * Returns the local port of the connection the call was executed over
+         * or {@code 0} if not known.
+         */
+        long getConnectionId() {
+            return connectionId;
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            connectionId = connection.socket().getLocalPort();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStartTime = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            stats.dns(dnsStartTime, System.nanoTime());
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectStartTime = System.nanoTime();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            stats.connect(connectStartTime, System.nanoTime());
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            headersTime = stats.responseHeaders(startTime, response.code());
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            stats.responseBody(headersTime);
+        }
+
+    }
+
+    static class ConfiguringSocketFactory extends SocketFactory {
+
+        private final BenchmarkConfig config;
+
+        ConfiguringSocketFactory(BenchmarkConfig config) {
+            this.config = config;
+        }
+
+        private Socket configure(Socket socket) throws IOException {
+            socket.setTcpNoDelay(config.isTcpNoDelay());
+            if (config.getSocketRcvBufSize() > 0) {
+                socket.setReceiveBufferSize(config.getSocketRcvBufSize());
+            }
+            if (config.getSocketSndBufSize() > 0) {
+                socket.setSendBufferSize(config.getSocketSndBufSize());
+            }
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return configure(new Socket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return configure(new Socket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return configure(new Socket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return configure(new Socket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return configure(new Socket(address, port, localAddress, localPort));
+        }
+
+    }
+
     @Override
     public String getClientName() {
-        return "Square’s OkHttp 4.10.0";
+        return "Square’s OkHttp " + OkHttp.VERSION;
     }
 
     public static void main(final String... args) throws Exception {
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Set of benchmark parameters with multiple values each. The matrix mode
+ * executes the cartesian product of all values and reports the best
+ * combination for each payload.
+ */
+public final class ParameterMatrix {
+
+    public static final String PAYLOAD = "payload";
+
+    public static final ParameterMatrix EMPTY = new ParameterMatrix(Collections.emptyList());
+
+    private final List<Dimension> dimensions;
+
+    private ParameterMatrix(final List<Dimension> dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    public static Builder custom() {
+        return new Builder();
+    }
+
+    public boolean isEmpty() {
+        return dimensions.isEmpty();
+    }
+
+    List<Cell> expand(final BenchmarkConfig config) {
+        List<Cell> cells = new ArrayList<>();
+        cells.add(new Cell(new LinkedHashMap<>(), BenchmarkConfig.copy(config)));
+        for (final Dimension dimension : dimensions) {
+            final List<Cell> expanded = new ArrayList<>();
+            for (final Cell cell : cells) {
+                for (int i = 0; i < dimension.labels.size(); i++) {
+                    final Map<String, String> labels = new LinkedHashMap<>(cell.labels);
+                    labels.put(dimension.name, dimension.labels.get(i));
+                    final BenchmarkConfig.Builder builder = BenchmarkConfig.copy(cell.builder.build());
+                    dimension.setters.get(i).accept(builder);
+                    expanded.add(new Cell(labels, builder));
+                }
+            }
+            cells = expanded;
+        }
+        return cells;
+    }
+
+    static void printResults(final List<Result> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        final StringBuilder header = new StringBuilder();
+        for (final String name : results.get(0).cell.labels.keySet()) {
+            header.append(String.format(Locale.ROOT, "%-12s\t", name));
+        }
+        header.append("     Req/s\t  p99 [ms]\tFailed\tHeap [MB]\tThreads\tCtx switches");
+        System.out.println(header);
+        for (final Result result : results) {
+            System.out.println(result.format());
+        }
+        System.out.println("---------------------------------");
+        final Map<String, Result> best = new LinkedHashMap<>();
+        final Map<String, Result> lowestP99 = new LinkedHashMap<>();
+        for (final Result result : results) {
+            final String payload = result.cell.labels.getOrDefault(PAYLOAD, "");
+            final Result current = best.get(payload);
+            if (current == null || result.reqsPerSec > current.reqsPerSec) {
+                best.put(payload, result);
+            }
+            final Result currentP99 = lowestP99.get(payload);
+            if (currentP99 == null || result.p99 < currentP99.p99) {
+                lowestP99.put(payload, result);
+            }
+        }
+        for (final Map.Entry<String, Result> entry : best.entrySet()) {
+            final Result result = entry.getValue();
+            final String payload = entry.getKey();
+            System.out.println(String.format(Locale.ROOT, "Best%s:\t%s (%.2f [#/sec])",
+                    payload.isEmpty() ? "" : " for " + payload,
+                    result.cell.describe(PAYLOAD),
+                    result.reqsPerSec));
+            final Result lowest = lowestP99.get(payload);
+            System.out.println(String.format(Locale.ROOT, "Lowest p99%s:\t%s (%s [ms])",
+                    payload.isEmpty() ? "" : " for " + payload,
+                    lowest.cell.describe(PAYLOAD),
+                    Stats.toMillis(lowest.p99)));
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder("[");
+        for (final Dimension dimension : dimensions) {
+            if (buf.length() > 1) {
+                buf.append(", ");
+            }
+            buf.append(dimension.name).append("=").append(dimension.labels);
+        }
+        return buf.append("]").toString();
+    }
+
+    public static final class Builder {
+
+        private final List<Dimension> dimensions;
+
+        private Builder() {
+            this.dimensions = new ArrayList<>();
+        }
+
+        /**
+         * Adds a parameter with the given value labels and corresponding
+         * {@link BenchmarkConfig.Builder} modifiers.
+         */
+        public Builder add(
+                final String name,
+                final List<String> labels,
+                final List<Consumer<BenchmarkConfig.Builder>> setters) {
+            if (labels.size() != setters.size()) {
+                throw new IllegalArgumentException("Number of labels does not match number of values");
+            }
+            dimensions.add(new Dimension(name, new ArrayList<>(labels), new ArrayList<>(setters)));
+            return this;
+        }
+
+        public ParameterMatrix build() {
+            return dimensions.isEmpty() ? EMPTY : new ParameterMatrix(new ArrayList<>(dimensions));
+        }
+
+    }
+
+    static final class Dimension {
+
+        private final String name;
+        private final List<String> labels;
+        private final List<Consumer<BenchmarkConfig.Builder>> setters;
+
+        Dimension(
+                final String name,
+                final List<String> labels,
+                final List<Consumer<BenchmarkConfig.Builder>> setters) {
+            this.name = name;
+            this.labels = labels;
+            this.setters = setters;
+        }
+
+    }
+
+    static final class Cell {
+
+        private final Map<String, String> labels;
+        private final BenchmarkConfig.Builder builder;
+
+        Cell(final Map<String, String> labels, final BenchmarkConfig.Builder builder) {
+            this.labels = labels;
+            this.builder = builder;
+        }
+
+        BenchmarkConfig getConfig() {
+            return builder.setMatrix(EMPTY).build();
+        }
+
+        String describe(final String... excluded) {
+            final StringBuilder buf = new StringBuilder();
+            for (final Map.Entry<String, String> entry : labels.entrySet()) {
+                boolean skip = false;
+                for (final String name : excluded) {
+                    skip |= name.equals(entry.getKey());
+                }
+                if (!skip) {
+                    if (buf.length() > 0) {
+                        buf.append(", ");
+                    }
+                    buf.append(entry.getKey()).append("=").append(entry.getValue());
+                }
+            }
+            return buf.toString();
+        }
+
+        @Override
+        public String toString() {
+            return describe();
+        }
+
+    }
+
+    static final class Result {
+
+        private final Cell cell;
+        private final double reqsPerSec;
+        private final long p99;
+        private final int failureCount;
+        private final ResourceUsage usage;
+
+        Result(
+                final Cell cell,
+                final double reqsPerSec,
+                final long p99,
+                final int failureCount,
+                final ResourceUsage usage) {
+            this.cell = cell;
+            this.reqsPerSec = reqsPerSec;
+            this.p99 = p99;
+            this.failureCount = failureCount;
+            this.usage = usage;
+        }
+
+        String format() {
+            final StringBuilder buf = new StringBuilder();
+            for (final String value : cell.labels.values()) {
+                buf.append(String.format(Locale.ROOT, "%-12s\t", value));
+            }
+            buf.append(String.format(Locale.ROOT, "%10.2f\t%10s\t%6d\t%9d\t%7d\t%12d",
+                    reqsPerSec, Stats.toMillis(p99), failureCount, usage.getPeakHeap() / (1024 * 1024),
+                    usage.getPeakThreads(), usage.getContextSwitches()));
+            return buf.toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Steps the content size of GET responses and of PUT requests against a local
+ * {@link TargetServer}, from empty {@code 204} responses to multi-megabyte
+ * bodies, and reports requests and megabytes per second at every size. PUT
+ * requests get {@code 204} responses, so they measure uploads only.
+ * <p>
+ * The number of requests per step is capped so that no step transfers much
+ * more than {@link #BYTES_PER_STEP}, but there are always at least as many
+ * requests as concurrent connections. The agent gets warmed up once with
+ * small responses.
+ */
+final class PayloadSweep {
+
+    static final List<Long> DEFAULT_SIZES = Arrays.asList(
+            0L, 128L, 1024L, 16L * 1024, 256L * 1024, 4L * 1024 * 1024, 64L * 1024 * 1024);
+
+    static final long BYTES_PER_STEP = 512L * 1024 * 1024;
+
+    private static final long WARMUP_SIZE = 1024;
+
+    static void execute(final HttpAgent agent, final BenchmarkConfig config) throws Exception {
+        System.out.println("=================================");
+        System.out.println("HTTP agent: " + agent.getClientName());
+        System.out.println("=================================");
+
+        final List<String> rows = new ArrayList<>();
+        try (final TargetProcess target = TargetProcess.start()) {
+            final BenchmarkConfig warmupConfig = BenchmarkConfig.copy(config)
+                    .setUri(target.getUri("/bytes/" + WARMUP_SIZE))
+                    .setFile(null)
+                    .build();
+            agent.init(warmupConfig);
+            try {
+                Warmup.execute(agent, warmupConfig);
+                for (final long size : config.getPayloadSizes()) {
+                    final int requests = getRequests(config, size);
+                    final String label = BenchmarkRunner.formatSize(size);
+                    System.out.println("---------------------------------");
+                    System.out.println(label + ": " + requests + " requests");
+
+                    final Result get = measure(agent, BenchmarkConfig.copy(config)
+                            .setUri(target.getUri("/bytes/" + size))
+                            .setFile(null)
+                            .setRequests(requests)
+                            .build());
+                    final File file = BenchmarkRunner.createPayloadFile(size);
+                    final Result put;
+                    try {
+                        put = measure(agent, BenchmarkConfig.copy(config)
+                                .setUri(target.getUri("/bytes/0"))
+                                .setFile(file)
+                                .setContentType("application/octet-stream")
+                                .setRequests(requests)
+                                .build());
+                    } finally {
+                        file.delete();
+                    }
+                    final String row = String.format(Locale.ROOT, "%-8s\t%10.2f\t%10.2f\t%10.2f\t%10.2f\t%6d",
+                            label,
+                            get.reqsPerSec,
+                            get.stats.getTotalContentLen() / get.totalTimeSec / (1024 * 1024),
+                            put.reqsPerSec,
+                            put.stats.getSuccessCount() * (double) size / put.totalTimeSec / (1024 * 1024),
+                            get.stats.getFailureCount() + put.stats.getFailureCount());
+                    rows.add(row);
+                    System.out.println(row);
+                }
+            } finally {
+                agent.shutdown();
+            }
+        }
+        System.out.println("---------------------------------");
+        System.out.println("Size    \t GET req/s\t GET MB/s\t PUT req/s\t PUT MB/s\tFailed");
+        for (final String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    static int getRequests(final BenchmarkConfig config, final long size) {
+        final long capped = Math.min(config.getRequests(), BYTES_PER_STEP / Math.max(size, 1));
+        return (int) Math.max(capped, config.getConcurrency());
+    }
+
+    private static Result measure(final HttpAgent agent, final BenchmarkConfig config) throws Exception {
+        final long startTime = System.currentTimeMillis();
+        final Stats stats = agent.execute(config);
+        final long finishTime = System.currentTimeMillis();
+        return new Result(stats, Math.max(finishTime - startTime, 1) / 1000d);
+    }
+
+    private static final class Result {
+
+        final Stats stats;
+        final double totalTimeSec;
+        final double reqsPerSec;
+
+        Result(final Stats stats, final double totalTimeSec) {
+            this.stats = stats;
+            this.totalTimeSec = totalTimeSec;
+            this.reqsPerSec = stats.getSuccessCount() / totalTimeSec;
+        }
+
+    }
+
+}
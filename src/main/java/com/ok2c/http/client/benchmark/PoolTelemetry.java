@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the connection pool of an agent at a fixed interval while a run
+ * is in progress.
+ * <p>
+ * A pool that has all connections leased with requests pending for most of
+ * the run is starving the agent of connections. A pool with idle connections
+ * and no pending requests while throughput has leveled off points at the
+ * agent being short of CPU instead.
+ */
+final class PoolTelemetry {
+
+    static final int DEFAULT_INTERVAL = 100;
+
+    private static final int MAX_ROWS = 20;
+
+    /**
+     * Agents with a connection pool that can be observed while requests
+     * are being executed.
+     */
+    interface Source {
+
+        /**
+         * Returns a snapshot of the connection pool or {@code null}
+         * if the pool is not available at the moment.
+         */
+        Sample samplePool();
+
+    }
+
+    static final class Sample {
+
+        private final int leased;
+        private final int available;
+        private final int pending;
+        private final int max;
+
+        Sample(final int leased, final int available, final int pending, final int max) {
+            this.leased = leased;
+            this.available = available;
+            this.pending = pending;
+            this.max = max;
+        }
+
+        int getLeased() {
+            return leased;
+        }
+
+        int getAvailable() {
+            return available;
+        }
+
+        int getPending() {
+            return pending;
+        }
+
+        int getMax() {
+            return max;
+        }
+
+        boolean isSaturated() {
+            return pending > 0 && leased >= max;
+        }
+
+    }
+
+    private final Source source;
+    private final int interval;
+    private final List<Long> times;
+    private final List<Sample> samples;
+    private final ScheduledExecutorService executor;
+
+    private long startTime;
+
+    private PoolTelemetry(final Source source, final int interval) {
+        this.source = source;
+        this.interval = interval;
+        this.times = new ArrayList<>();
+        this.samples = new ArrayList<>();
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "pool-telemetry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts sampling the pool of the given agent if pool telemetry is enabled
+     * and the agent exposes its pool. Returns {@code null} otherwise.
+     */
+    static PoolTelemetry start(final HttpAgent agent, final BenchmarkConfig config) {
+        if (config.getPoolTelemetryInterval() <= 0 || !(agent instanceof Source)) {
+            return null;
+        }
+        final PoolTelemetry telemetry = new PoolTelemetry((Source) agent, config.getPoolTelemetryInterval());
+        telemetry.startTime = System.currentTimeMillis();
+        telemetry.executor.scheduleAtFixedRate(telemetry::sample, 0, telemetry.interval, TimeUnit.MILLISECONDS);
+        return telemetry;
+    }
+
+    private void sample() {
+        final Sample sample = source.samplePool();
+        if (sample != null) {
+            times.add(System.currentTimeMillis() - startTime);
+            samples.add(sample);
+        }
+    }
+
+    void stop() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    List<Sample> getSamples() {
+        return samples;
+    }
+
+    void print() {
+        System.out.println("---------------------------------");
+        if (samples.isEmpty()) {
+            System.out.println("Pool telemetry:\t\tno samples");
+            return;
+        }
+        System.out.println("Pool telemetry (every " + interval + " ms, " + samples.size() + " samples)");
+        System.out.println(" Time [ms]\t Leased\tAvailable\tPending\t    Max");
+        final int step = Math.max(1, (samples.size() + MAX_ROWS - 1) / MAX_ROWS);
+        for (int i = 0; i < samples.size(); i += step) {
+            final Sample sample = samples.get(i);
+            System.out.println(String.format(Locale.ROOT, "%10d\t%7d\t%9d\t%7d\t%7d",
+                    times.get(i), sample.getLeased(), sample.getAvailable(), sample.getPending(), sample.getMax()));
+        }
+        int saturated = 0;
+        int maxPending = 0;
+        long totalLeased = 0;
+        for (final Sample sample : samples) {
+            if (sample.isSaturated()) {
+                saturated++;
+            }
+            maxPending = Math.max(maxPending, sample.getPending());
+            totalLeased += sample.getLeased();
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "Mean leased %.1f, max pending %d, pool saturated in %.1f%% of samples",
+                (double) totalLeased / samples.size(), maxPending, saturated * 100d / samples.size()));
+    }
+
+}
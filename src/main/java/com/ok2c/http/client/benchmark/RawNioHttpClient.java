@@ -0,0 +1,431 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Baseline agent that speaks just enough HTTP/1.1 over NIO socket channels
+ * to execute the benchmark: one worker thread and at most one connection
+ * per concurrent request, request heads encoded once up front, and
+ * responses delimited by {@code Content-Length} only. It connects over
+ * TCP or, if configured, a Unix domain socket, and gives an estimate of the
+ * cost of the transport alone.
+ * <p>
+ * Channels are non-blocking so that workers can wait for them with the
+ * configured timeout, each on a selector of its own. Blocking channels
+ * ignore socket timeouts.
+ */
+public class RawNioHttpClient implements HttpAgent, UnixDomainSockets.Capable {
+
+    private static final int MAX_HEAD_SIZE = 1024 * 1024;
+
+    public RawNioHttpClient() {
+        super();
+    }
+
+    @Override
+    public void init(final BenchmarkConfig config) {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public Stats execute(final BenchmarkConfig config) throws Exception {
+        final Stats stats = new Stats(config.getRequests(), config.getConcurrency());
+        final WorkerThread[] workers = new WorkerThread[config.getConcurrency()];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new WorkerThread(stats, config, i);
+        }
+        for (final WorkerThread worker : workers) {
+            worker.start();
+        }
+        for (final WorkerThread worker : workers) {
+            worker.join();
+        }
+        return stats;
+    }
+
+    static byte[] encodeHead(final BenchmarkConfig config, final URI target, final MethodMix.Method method) {
+        final StringBuilder buf = new StringBuilder();
+        final String path = target.getRawPath() != null && !target.getRawPath().isEmpty() ? target.getRawPath() : "/";
+        buf.append(method.getName()).append(' ').append(path);
+        if (target.getRawQuery() != null) {
+            buf.append('?').append(target.getRawQuery());
+        }
+        buf.append(" HTTP/1.1\r\n");
+        buf.append("Host: ").append(target.getHost());
+        if (target.getPort() > 0) {
+            buf.append(':').append(target.getPort());
+        }
+        buf.append("\r\n");
+        if (!config.isKeepAlive()) {
+            buf.append("Connection: close\r\n");
+        }
+        if (config.isCompression()) {
+            buf.append("Accept-Encoding: gzip\r\n");
+        }
+        if (method.getFile() != null) {
+            buf.append("Content-Length: ").append(method.getFile().length()).append("\r\n");
+            if (method.getContentType() != null) {
+                buf.append("Content-Type: ").append(method.getContentType()).append("\r\n");
+            }
+        }
+        for (final Map.Entry<String, String> header : HeaderProfile.getRequestHeaders(config)) {
+            buf.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        buf.append("\r\n");
+        return buf.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    class WorkerThread extends Thread {
+
+        private final Stats stats;
+        private final BenchmarkConfig config;
+        private final int index;
+
+        private Selector selector;
+        private SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer inbuf;
+
+        WorkerThread(final Stats stats, final BenchmarkConfig config, final int index) {
+            super();
+            this.stats = stats;
+            this.config = config;
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            // Workers stick to one target, so that connections do not get spread over all of them
+            final URI target = config.getUri(index);
+            // Limits workers executing requests at a time during load profile runs
+            final InFlightLimit limit = config.getInFlightLimit();
+            final MethodMix mix = MethodMix.of(config);
+            final ByteBuffer[] heads = new ByteBuffer[mix.getMethods().size()];
+            for (final MethodMix.Method method : mix.getMethods()) {
+                heads[method.getIndex()] = ByteBuffer.wrap(encodeHead(config, target, method));
+            }
+            this.inbuf = ByteBuffer.allocate(Math.max(config.getReadBufferSize(), 8 * 1024));
+
+            try {
+                this.selector = Selector.open();
+            } catch (final IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            try {
+                for (long n = 0; !this.stats.isComplete(); n++) {
+                    final MethodMix.Method method = mix.get(this.index + n * config.getConcurrency());
+                    if (limit != null) {
+                        limit.acquireUninterruptibly();
+                    }
+                    final long startTime = System.nanoTime();
+                    BenchmarkEvents.requestStart(startTime);
+                    long connectionId = 0;
+                    int status = 0;
+                    long contentLen = 0;
+                    try {
+                        if (this.channel == null) {
+                            connect(target);
+                        }
+                        if (this.channel.getLocalAddress() instanceof InetSocketAddress) {
+                            connectionId = ((InetSocketAddress) this.channel.getLocalAddress()).getPort();
+                        }
+                        final ByteBuffer head = heads[method.getIndex()].duplicate();
+                        while (head.hasRemaining()) {
+                            if (this.channel.write(head) == 0) {
+                                await(SelectionKey.OP_WRITE);
+                            }
+                        }
+                        if (method.getFile() != null) {
+                            writeContent(method);
+                        }
+                        Response response = readHead(method);
+                        // Interim responses precede the final one
+                        while (response.status < 200) {
+                            response = readHead(method);
+                        }
+                        status = response.status;
+                        final long headersTime = this.stats.responseHeaders(startTime, status);
+                        if (config.getResponseHeaderCount() > 0) {
+                            this.stats.headersRead(response.headerCount, response.headerLen);
+                        }
+                        contentLen = readContent(response);
+                        this.stats.responseBody(headersTime);
+                        if (response.close) {
+                            disconnect();
+                        }
+                        if (Stats.isSuccessful(status)) {
+                            this.stats.success(startTime, Stats.UNKNOWN, status, connectionId, contentLen, method);
+                        } else {
+                            this.stats.failure(startTime, Stats.UNKNOWN, status, connectionId, contentLen, method);
+                        }
+                    } catch (final IOException ex) {
+                        disconnect();
+                        this.stats.failure(startTime, Stats.UNKNOWN, status, connectionId, contentLen, method);
+                    }
+                    if (limit != null) {
+                        limit.release();
+                    }
+                }
+            } finally {
+                disconnect();
+                try {
+                    this.selector.close();
+                } catch (final IOException ignore) {
+                }
+            }
+        }
+
+        private void connect(final URI target) throws IOException {
+            final long connectStartTime = System.nanoTime();
+            final SocketChannel newChannel;
+            if (config.getUnixSocket() != null) {
+                newChannel = UnixDomainSockets.openChannel();
+                newChannel.connect(UnixDomainSockets.address(config.getUnixSocket().toPath()));
+            } else {
+                newChannel = SocketChannel.open();
+                newChannel.setOption(StandardSocketOptions.TCP_NODELAY, config.isTcpNoDelay());
+                if (config.getSocketRcvBufSize() > 0) {
+                    newChannel.setOption(StandardSocketOptions.SO_RCVBUF, config.getSocketRcvBufSize());
+                }
+                if (config.getSocketSndBufSize() > 0) {
+                    newChannel.setOption(StandardSocketOptions.SO_SNDBUF, config.getSocketSndBufSize());
+                }
+                newChannel.connect(new InetSocketAddress(target.getHost(), target.getPort() > 0 ? target.getPort() : 80));
+            }
+            this.stats.connect(connectStartTime, System.nanoTime());
+            newChannel.configureBlocking(false);
+            this.key = newChannel.register(this.selector, 0);
+            this.channel = newChannel;
+            this.inbuf.clear();
+        }
+
+        private void disconnect() {
+            if (this.channel != null) {
+                try {
+                    this.channel.close();
+                } catch (final IOException ignore) {
+                }
+                this.channel = null;
+                this.key = null;
+            }
+        }
+
+        /**
+         * Waits for the channel to become ready for the given operations
+         * for no longer than the configured timeout.
+         */
+        private void await(final int ops) throws IOException {
+            this.key.interestOps(ops);
+            final int timeout = config.getTimeout();
+            if (this.selector.select(timeout) == 0) {
+                throw new SocketTimeoutException("Timed out after " + timeout + " ms");
+            }
+            this.selector.selectedKeys().clear();
+        }
+
+        private int read() throws IOException {
+            for (;;) {
+                final int n = this.channel.read(this.inbuf);
+                if (n != 0) {
+                    return n;
+                }
+                await(SelectionKey.OP_READ);
+            }
+        }
+
+        private void writeContent(final MethodMix.Method method) throws IOException {
+            try (final FileChannel fileChannel = FileChannel.open(method.getFile().toPath(), StandardOpenOption.READ)) {
+                final long size = fileChannel.size();
+                long position = 0;
+                while (position < size) {
+                    final long n = fileChannel.transferTo(position, size - position, this.channel);
+                    if (n == 0) {
+                        await(SelectionKey.OP_WRITE);
+                    }
+                    position += n;
+                }
+            }
+        }
+
+        private Response readHead(final MethodMix.Method method) throws IOException {
+            // Input left over in the buffer is ready for reading in between requests
+            for (;;) {
+                final int end = findHeadEnd();
+                if (end >= 0) {
+                    final String s = new String(
+                            this.inbuf.array(), 0, end, StandardCharsets.ISO_8859_1);
+                    this.inbuf.flip();
+                    this.inbuf.position(end + 4);
+                    this.inbuf.compact();
+                    return Response.parse(s, method.getName().equals("HEAD"));
+                }
+                if (!this.inbuf.hasRemaining()) {
+                    if (this.inbuf.capacity() >= MAX_HEAD_SIZE) {
+                        throw new IOException("Response head too large");
+                    }
+                    final ByteBuffer newbuf = ByteBuffer.allocate(this.inbuf.capacity() * 2);
+                    this.inbuf.flip();
+                    newbuf.put(this.inbuf);
+                    this.inbuf = newbuf;
+                }
+                if (read() < 0) {
+                    throw new IOException("Connection closed before response head");
+                }
+            }
+        }
+
+        private int findHeadEnd() {
+            final byte[] b = this.inbuf.array();
+            for (int i = 0; i + 3 < this.inbuf.position(); i++) {
+                if (b[i] == '\r' && b[i + 1] == '\n' && b[i + 2] == '\r' && b[i + 3] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private long readContent(final Response response) throws IOException {
+            final GzipDecoder decoder = GzipDecoder.isGzip(response.contentEncoding) ? new GzipDecoder() : null;
+            try {
+                long remaining = response.contentLength;
+                long contentLen = 0;
+                while (remaining > 0) {
+                    if (this.inbuf.position() == 0 && read() < 0) {
+                        throw new IOException("Connection closed before end of content");
+                    }
+                    this.inbuf.flip();
+                    final int chunk = (int) Math.min(remaining, this.inbuf.remaining());
+                    final ByteBuffer content = this.inbuf.duplicate();
+                    content.limit(content.position() + chunk);
+                    contentLen += decoder != null ? decoder.decode(content) : chunk;
+                    this.inbuf.position(this.inbuf.position() + chunk);
+                    this.inbuf.compact();
+                    remaining -= chunk;
+                }
+                return contentLen;
+            } finally {
+                if (decoder != null) {
+                    decoder.release();
+                }
+            }
+        }
+
+    }
+
+    static final class Response {
+
+        final int status;
+        final long contentLength;
+        final String contentEncoding;
+        final boolean close;
+        final int headerCount;
+        final long headerLen;
+
+        Response(
+                final int status,
+                final long contentLength,
+                final String contentEncoding,
+                final boolean close,
+                final int headerCount,
+                final long headerLen) {
+            this.status = status;
+            this.contentLength = contentLength;
+            this.contentEncoding = contentEncoding;
+            this.close = close;
+            this.headerCount = headerCount;
+            this.headerLen = headerLen;
+        }
+
+        /**
+         * Parses the response head. Responses to HEAD requests, interim
+         * responses and 204 and 304 responses have no content, whatever
+         * their headers say.
+         */
+        static Response parse(final String head, final boolean headRequest) throws IOException {
+            final String[] lines = head.split("\r\n");
+            final String[] statusLine = lines[0].split(" ", 3);
+            if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/1.")) {
+                throw new IOException("Invalid status line: " + lines[0]);
+            }
+            final int status;
+            try {
+                status = Integer.parseInt(statusLine[1]);
+            } catch (final NumberFormatException ex) {
+                throw new IOException("Invalid status line: " + lines[0]);
+            }
+            final boolean bodiless = headRequest || status < 200 || status == 204 || status == 304;
+            long contentLength = bodiless ? 0 : -1;
+            String contentEncoding = null;
+            boolean close = statusLine[0].equals("HTTP/1.0");
+            long headerLen = 0;
+            for (int i = 1; i < lines.length; i++) {
+                final int idx = lines[i].indexOf(':');
+                if (idx <= 0) {
+                    throw new IOException("Invalid header: " + lines[i]);
+                }
+                final String name = lines[i].substring(0, idx).trim();
+                final String value = lines[i].substring(idx + 1).trim();
+                headerLen += name.length() + value.length();
+                if (name.equalsIgnoreCase("Content-Length") && !bodiless) {
+                    try {
+                        contentLength = Long.parseLong(value);
+                    } catch (final NumberFormatException ex) {
+                        throw new IOException("Invalid Content-Length: " + value);
+                    }
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    throw new IOException("Transfer-Encoding is not supported: " + value);
+                } else if (name.equalsIgnoreCase("Content-Encoding")) {
+                    contentEncoding = value;
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    close = value.toLowerCase(Locale.ROOT).contains("close");
+                }
+            }
+            if (contentLength < 0) {
+                throw new IOException("Responses without Content-Length are not supported");
+            }
+            return new Response(status, contentLength, contentEncoding, close, lines.length - 1, headerLen);
+        }
+
+    }
+
+    @Override
+    public String getClientName() {
+        return "Raw NIO SocketChannel " + System.getProperty("java.version");
+    }
+
+    public static void main(final String... args) throws Exception {
+        BenchmarkRunner.run(new RawNioHttpClient(), args);
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+/**
+ * Resources consumed by the benchmark process between {@link #start()}
+ * and {@link #stop()}.
+ */
+final class ResourceUsage {
+
+    private static final Path TASKS = Paths.get("/proc/self/task");
+
+    private final long cpuTimeStart;
+    private final Map<String, Long> contextSwitchesStart;
+    private final Set<String> heapPools;
+    private final AtomicLong reclaimed;
+    private final NotificationListener gcListener;
+    private final List<NotificationEmitter> gcEmitters;
+    private final long heapUsedStart;
+
+    private long cpuTime;
+    private long peakHeap;
+    private int peakThreads;
+    private long contextSwitches;
+    private long allocated;
+
+    private ResourceUsage() {
+        this.heapPools = new HashSet<>();
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+                this.heapPools.add(pool.getName());
+            }
+        }
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+        this.reclaimed = new AtomicLong();
+        this.gcListener = (notification, handback) -> {
+            if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                final GcInfo gcInfo = GarbageCollectionNotificationInfo.from(
+                        (CompositeData) notification.getUserData()).getGcInfo();
+                this.reclaimed.addAndGet(heapUsed(gcInfo.getMemoryUsageBeforeGc())
+                        - heapUsed(gcInfo.getMemoryUsageAfterGc()));
+            }
+        };
+        this.gcEmitters = new ArrayList<>();
+        for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).addNotificationListener(this.gcListener, null, null);
+                this.gcEmitters.add((NotificationEmitter) gc);
+            }
+        }
+        this.heapUsedStart = heapUsed();
+        this.cpuTimeStart = processCpuTime();
+        this.contextSwitchesStart = contextSwitches();
+        this.cpuTime = -1;
+        this.peakHeap = -1;
+        this.peakThreads = -1;
+        this.contextSwitches = -1;
+        this.allocated = -1;
+    }
+
+    static ResourceUsage start() {
+        return new ResourceUsage();
+    }
+
+    ResourceUsage stop() {
+        final long now = processCpuTime();
+        this.cpuTime = now >= 0 && cpuTimeStart >= 0 ? now - cpuTimeStart : -1;
+        long peak = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                final MemoryUsage usage = pool.getPeakUsage();
+                if (usage != null) {
+                    peak += usage.getUsed();
+                }
+            }
+        }
+        this.peakHeap = peak;
+        this.peakThreads = ManagementFactory.getThreadMXBean().getPeakThreadCount();
+        final Map<String, Long> switches = contextSwitches();
+        if (switches != null && contextSwitchesStart != null) {
+            long total = 0;
+            for (final Map.Entry<String, Long> entry : switches.entrySet()) {
+                total += entry.getValue() - contextSwitchesStart.getOrDefault(entry.getKey(), 0L);
+            }
+            this.contextSwitches = total;
+        }
+        if (!this.gcEmitters.isEmpty()) {
+            final long heapUsedEnd = heapUsed();
+            for (final NotificationEmitter emitter : this.gcEmitters) {
+                try {
+                    emitter.removeNotificationListener(this.gcListener);
+                } catch (final ListenerNotFoundException ignore) {
+                }
+            }
+            this.allocated = this.reclaimed.get() + heapUsedEnd - this.heapUsedStart;
+        }
+        return this;
+    }
+
+    private long heapUsed() {
+        long used = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (this.heapPools.contains(pool.getName())) {
+                final MemoryUsage usage = pool.getUsage();
+                if (usage != null) {
+                    used += usage.getUsed();
+                }
+            }
+        }
+        return used;
+    }
+
+    private long heapUsed(final Map<String, MemoryUsage> usageByPool) {
+        long used = 0;
+        for (final Map.Entry<String, MemoryUsage> entry : usageByPool.entrySet()) {
+            if (this.heapPools.contains(entry.getKey())) {
+                used += entry.getValue().getUsed();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Returns CPU time in nanoseconds or {@code -1} if not supported by the JVM.
+     */
+    long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * Returns peak heap usage in bytes as the sum of peaks of the individual heap
+     * memory pools. The pools need not peak at the same time, so this is an upper
+     * bound of the actual peak.
+     */
+    long getPeakHeap() {
+        return peakHeap;
+    }
+
+    /**
+     * Returns bytes allocated on the heap by the whole process or {@code -1} if
+     * the JVM does not report garbage collections. Allocations are inferred from
+     * heap usage reclaimed by garbage collections and the change in heap usage,
+     * so collections still being reported when the run stops are missed.
+     */
+    long getAllocated() {
+        return allocated;
+    }
+
+    /**
+     * Returns the peak number of live threads.
+     */
+    int getPeakThreads() {
+        return peakThreads;
+    }
+
+    /**
+     * Returns the number of voluntary and involuntary context switches or {@code -1}
+     * if not available. Only Linux exposes them per thread. Switches of threads that
+     * terminated during the run are not counted.
+     */
+    long getContextSwitches() {
+        return contextSwitches;
+    }
+
+    /**
+     * Returns context switches per thread or {@code null} if not available.
+     */
+    static Map<String, Long> contextSwitches() {
+        if (!Files.isDirectory(TASKS)) {
+            return null;
+        }
+        final Map<String, Long> switches = new HashMap<>();
+        try (final DirectoryStream<Path> tasks = Files.newDirectoryStream(TASKS)) {
+            for (final Path task : tasks) {
+                try {
+                    long total = 0;
+                    for (final String line : Files.readAllLines(task.resolve("status"))) {
+                        if (line.startsWith("voluntary_ctxt_switches:")
+                                || line.startsWith("nonvoluntary_ctxt_switches:")) {
+                            total += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+                        }
+                    }
+                    switches.put(task.getFileName().toString(), total);
+                } catch (final IOException ex) {
+                    // The thread has terminated in the meantime
+                }
+            }
+        } catch (final IOException ex) {
+            return null;
+        }
+        return switches;
+    }
+
+    static long processCpuTime() {
+        final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+}
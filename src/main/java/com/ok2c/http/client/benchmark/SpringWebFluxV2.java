@@ -1,17 +1,37 @@
 package com.ok2c.http.client.benchmark;
 
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
-import org.springframework.core.io.ByteArrayResource;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.unix.DomainSocketAddress;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.scheduler.Scheduler;
 import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.HttpClient;
+import reactor.util.context.Context;
 
-public class SpringWebFluxV2 implements HttpAgent {
+public class SpringWebFluxV2 implements HttpAgent, UnixDomainSockets.Capable {
+
+    /**
+     * Key of the holder of the connection id in the context of every request.
+     */
+    static final String CONNECTION_ID = SpringWebFluxV2.class.getName() + ".connectionId";
 
     @Override
-    public void init() throws Exception {
+    public void init(BenchmarkConfig config) throws Exception {
     }
 
     @Override
@@ -21,37 +41,123 @@ public class SpringWebFluxV2 implements HttpAgent {
     @Override
     public Stats execute(BenchmarkConfig config) throws Exception {
         Scheduler scheduler = Schedulers.newParallel("WorkerThread", config.getConcurrency());
-        WebClient webClient = WebClient.create();
+        try {
+            HttpClient httpClient = HttpClient.create()
+                    .compress(config.isCompression())
+                    .option(ChannelOption.TCP_NODELAY, config.isTcpNoDelay());
+            if (config.isFullChain()) {
+                httpClient = httpClient.followRedirect(true);
+            }
+            if (config.getSocketRcvBufSize() > 0) {
+                httpClient = httpClient.option(ChannelOption.SO_RCVBUF, config.getSocketRcvBufSize());
+            }
+            if (config.getSocketSndBufSize() > 0) {
+                httpClient = httpClient.option(ChannelOption.SO_SNDBUF, config.getSocketSndBufSize());
+            }
+            if (config.getUnixSocket() != null) {
+                // Domain sockets need the native epoll transport
+                String path = config.getUnixSocket().getPath();
+                httpClient = httpClient.remoteAddress(() -> new DomainSocketAddress(path));
+            }
+            // WebClient does not expose the connection a request is sent over
+            httpClient = httpClient.doOnRequest((request, connection) -> request.currentContextView()
+                    .<AtomicLong>getOrEmpty(CONNECTION_ID)
+                    .ifPresent(holder -> holder.set(getConnectionId(connection.channel().localAddress()))));
+            final Stats stats = new Stats(config.getRequests(), config.getConcurrency());
+            List<Map.Entry<String, String>> requestHeaders = HeaderProfile.getRequestHeaders(config);
+
+            WebClient.Builder webClientBuilder = WebClient.builder()
+                    .clientConnector(new ReactorClientHttpConnector(httpClient));
+            if (config.getResponseHeaderCount() > 0) {
+                webClientBuilder.filter((request, next) -> next.exchange(request)
+                        .doOnNext(response -> readHeaders(response.headers().asHttpHeaders(), stats)));
+            }
+            WebClient webClient = webClientBuilder.build();
 
-        final Stats stats = new Stats(config.getRequests(), config.getConcurrency());
-        final Semaphore semaphore = new Semaphore(config.getConcurrency());
+            final Semaphore semaphore = InFlightLimit.create(config);
+            MethodMix mix = MethodMix.of(config);
+
+            for (int i = 0; i < config.getRequests() && !stats.isClosed(); i++) {
+                final MethodMix.Method method = mix.get(i);
+                semaphore.acquire();
+                final long startTime = System.nanoTime();
+                BenchmarkEvents.requestStart(startTime);
+                final AtomicLong contentLen = new AtomicLong(0);
+                final AtomicLong connectionId = new AtomicLong(0);
+                WebClient.RequestBodySpec requestSpec = webClient.method(HttpMethod.valueOf(method.getName()))
+                        .uri(config.getUri(i))
+                        .headers(httpHeaders -> {
+                            if (method.getContentType() != null) {
+                                httpHeaders.set("Content-Type", method.getContentType());
+                            }
+                            if (!config.isKeepAlive()) {
+                                httpHeaders.set("Connection", "close");
+                            }
+                            for (Map.Entry<String, String> header : requestHeaders) {
+                                httpHeaders.add(header.getKey(), header.getValue());
+                            }
+                        });
+                if (method.getFile() != null) {
+                    requestSpec.body(BodyInserters.fromResource(new FileSystemResource(method.getFile())));
+                }
+                final AtomicInteger status = new AtomicInteger(0);
+                requestSpec.exchangeToMono(response -> {
+                            // Unlike retrieve() this keeps the status of unsuccessful responses
+                            status.set(response.rawStatusCode());
+                            // Content gets streamed rather than aggregated, which is capped at 256 KB by default
+                            return response.bodyToFlux(DataBuffer.class)
+                                    .doOnNext(buffer -> {
+                                        contentLen.addAndGet(buffer.readableByteCount());
+                                        DataBufferUtils.release(buffer);
+                                    })
+                                    .then();
+                        })
+                        .doOnSuccess(response -> {
+                            if (Stats.isSuccessful(status.get())) {
+                                stats.success(startTime, Stats.UNKNOWN, status.get(), connectionId.get(),
+                                        contentLen.get(), method);
+                            } else {
+                                stats.failure(startTime, Stats.UNKNOWN, status.get(), connectionId.get(),
+                                        contentLen.get(), method);
+                            }
+                        })
+                        .doOnError(response -> {
+                            stats.failure(startTime, Stats.UNKNOWN, status.get(), connectionId.get(),
+                                    contentLen.get(), method);
+                        }).doFinally(signal -> {
+                            semaphore.release();
+                        })
+                        .contextWrite(Context.of(CONNECTION_ID, connectionId))
+                        .publishOn(scheduler).block();
+            }
+            stats.waitFor();
+            return stats;
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    /**
+     * Returns the local port of the connection with the given local address
+     * or {@code 0} if not known.
+     */
+    static long getConnectionId(SocketAddress localAddress) {
+        return localAddress instanceof InetSocketAddress ? ((InetSocketAddress) localAddress).getPort() : 0;
+    }
 
-        for (int i = 0; i < config.getRequests(); i++) {
-            semaphore.acquire();
-            final AtomicLong contentLen = new AtomicLong(0);
-            webClient.get().uri(config.getUri())
-                    .headers(httpHeaders -> {
-                        if (config.getFile() != null) {
-                            httpHeaders.set("Content-Type", config.getContentType());
-                        }
-                        if (!config.isKeepAlive()) {
-                            httpHeaders.set("Connection", "close");
-                        }
-                    })
-                    .retrieve()
-                    .bodyToMono(ByteArrayResource.class)
-                    .doOnSuccess(response -> {
-                        contentLen.addAndGet(response.contentLength());
-                        stats.success(contentLen.get());
-                    })
-                    .doOnError(response -> {
-                        stats.failure(contentLen.get());
-                    }).doFinally(signal -> {
-                        semaphore.release();
-                    }).publishOn(scheduler).block();
+    /**
+     * Reads all response headers, as an application processing them would.
+     */
+    static void readHeaders(HttpHeaders headers, Stats stats) {
+        int count = 0;
+        long len = 0;
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            for (String value : entry.getValue()) {
+                count++;
+                len += entry.getKey().length() + value.length();
+            }
         }
-        stats.waitFor();
-        return stats;
+        stats.headersRead(count, len);
     }
 
     @Override
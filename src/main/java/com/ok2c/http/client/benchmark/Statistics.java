@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Summary statistics of a small number of samples, such as results of
+ * repeated iterations, and the Mann-Whitney U test for comparing two sets
+ * of samples without assuming they are normally distributed.
+ */
+final class Statistics {
+
+    static final double SIGNIFICANCE_LEVEL = 0.05;
+
+    /**
+     * Two-sided 97.5% quantiles of Student's t distribution for 1 to 30
+     * degrees of freedom.
+     */
+    private static final double[] T_975 = {
+            12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+            2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+            2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042};
+
+    private static final double Z_975 = 1.960;
+
+    /**
+     * Sample sizes up to which the exact distribution of U gets computed.
+     */
+    private static final int MAX_EXACT_SIZE = 20;
+
+    private Statistics() {
+    }
+
+    static double mean(final double[] samples) {
+        double sum = 0;
+        for (final double sample : samples) {
+            sum += sample;
+        }
+        return samples.length > 0 ? sum / samples.length : Double.NaN;
+    }
+
+    /**
+     * Returns the sample standard deviation.
+     */
+    static double standardDeviation(final double[] samples) {
+        if (samples.length < 2) {
+            return 0;
+        }
+        final double mean = mean(samples);
+        double sum = 0;
+        for (final double sample : samples) {
+            sum += (sample - mean) * (sample - mean);
+        }
+        return Math.sqrt(sum / (samples.length - 1));
+    }
+
+    /**
+     * Returns the half width of the 95% confidence interval of the mean.
+     */
+    static double confidenceInterval(final double[] samples) {
+        final int n = samples.length;
+        if (n < 2) {
+            return Double.NaN;
+        }
+        final double t = n - 1 <= T_975.length ? T_975[n - 2] : Z_975;
+        return t * standardDeviation(samples) / Math.sqrt(n);
+    }
+
+    static String describe(final double[] samples) {
+        return String.format(Locale.ROOT, "%.2f +/- %.2f (sd %.2f, n=%d)",
+                mean(samples), confidenceInterval(samples), standardDeviation(samples), samples.length);
+    }
+
+    /**
+     * Returns the U statistic of the first set of samples: the number of pairs
+     * in which its sample is greater, with ties counted as one half.
+     */
+    static double mannWhitneyU(final double[] x, final double[] y) {
+        double u = 0;
+        for (final double a : x) {
+            for (final double b : y) {
+                if (a > b) {
+                    u += 1;
+                } else if (a == b) {
+                    u += 0.5;
+                }
+            }
+        }
+        return u;
+    }
+
+    /**
+     * Returns the two-sided p-value of the Mann-Whitney U test. It is exact for
+     * small sets of samples without ties, otherwise based on the normal
+     * approximation with tie correction.
+     */
+    static double mannWhitneyP(final double[] x, final double[] y) {
+        final int m = x.length;
+        final int n = y.length;
+        if (m == 0 || n == 0) {
+            return Double.NaN;
+        }
+        final double u = mannWhitneyU(x, y);
+        final double[] all = new double[m + n];
+        System.arraycopy(x, 0, all, 0, m);
+        System.arraycopy(y, 0, all, m, n);
+        Arrays.sort(all);
+        double tieSum = 0;
+        for (int i = 0; i < all.length; ) {
+            int j = i;
+            while (j < all.length && all[j] == all[i]) {
+                j++;
+            }
+            final double t = j - i;
+            tieSum += t * t * t - t;
+            i = j;
+        }
+        if (tieSum == 0 && m <= MAX_EXACT_SIZE && n <= MAX_EXACT_SIZE) {
+            return exactP(u, m, n);
+        }
+        final double mu = m * n / 2d;
+        final double variance = m * n / 12d * ((m + n + 1) - tieSum / ((double) (m + n) * (m + n - 1)));
+        if (variance <= 0) {
+            return 1;
+        }
+        final double z = (Math.abs(u - mu) - 0.5) / Math.sqrt(variance);
+        return Math.min(1, 2 * (1 - normalCdf(Math.max(z, 0))));
+    }
+
+    /**
+     * Returns the exact two-sided p-value from the number of arrangements of
+     * the samples giving each value of U.
+     */
+    private static double exactP(final double u, final int m, final int n) {
+        // prev[j][k]: arrangements of i - 1 samples of the first set and j of the second giving U = k
+        final int max = m * n;
+        double[][] prev = new double[n + 1][];
+        for (int j = 0; j <= n; j++) {
+            prev[j] = new double[max + 1];
+            prev[j][0] = 1;
+        }
+        for (int i = 1; i <= m; i++) {
+            final double[][] cur = new double[n + 1][max + 1];
+            cur[0][0] = 1;
+            for (int j = 1; j <= n; j++) {
+                for (int k = 0; k <= i * j; k++) {
+                    // The greatest sample is from the first set and beats all j of the second
+                    cur[j][k] = (k >= j ? prev[j][k - j] : 0) + cur[j - 1][k];
+                }
+            }
+            prev = cur;
+        }
+        final double[] counts = prev[n];
+        double total = 0;
+        for (final double count : counts) {
+            total += count;
+        }
+        final double mu = max / 2d;
+        final double distance = Math.abs(u - mu);
+        double extreme = 0;
+        for (int k = 0; k <= max; k++) {
+            if (Math.abs(k - mu) >= distance - 1e-9) {
+                extreme += counts[k];
+            }
+        }
+        return Math.min(1, extreme / total);
+    }
+
+    /**
+     * Standard normal distribution function (Abramowitz and Stegun 26.2.17).
+     */
+    static double normalCdf(final double z) {
+        final double t = 1 / (1 + 0.2316419 * Math.abs(z));
+        final double d = 0.3989422804014327 * Math.exp(-z * z / 2);
+        final double p = d * t * (0.319381530 + t * (-0.356563782 + t * (1.781477937
+                + t * (-1.821255978 + t * 1.330274429))));
+        return z >= 0 ? 1 - p : p;
+    }
+
+}
@@ -16,9 +16,71 @@
 package com.ok2c.http.client.benchmark;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 
 public class Stats {
 
+    /**
+     * Lease time of requests the agent cannot track connection leasing for.
+     */
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    /**
+     * Observes all runs started while it is installed, such as the run of a load profile.
+     */
+    interface Observer {
+
+        void opened(Stats stats);
+
+        void completed(long completionTime, long latency, boolean success);
+
+    }
+
+    /**
+     * Outcome of requests of one method of a mixed workload.
+     */
+    public static final class MethodStats {
+
+        private final String name;
+        private final Histogram latency;
+
+        private int successCount;
+        private int failureCount;
+        private long totalContentLen;
+
+        MethodStats(final String name) {
+            this.name = name;
+            this.latency = new Histogram();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getSuccessCount() {
+            return successCount;
+        }
+
+        public int getFailureCount() {
+            return failureCount;
+        }
+
+        public long getTotalContentLen() {
+            return totalContentLen;
+        }
+
+        public Histogram getLatency() {
+            return latency;
+        }
+
+    }
+
+    private static volatile Observer observer;
+    private static volatile EventLog eventLog;
+
     private final int expectedCount;
     private final int concurrency;
 
@@ -26,37 +88,220 @@ public class Stats {
     private int failureCount = 0;
     private long contentLen = 0;
     private long totalContentLen = 0;
+    private long peakBuffered = -1;
+    private long headerCount = 0;
+    private long headerLen = 0;
+    private MethodStats[] methodStats = new MethodStats[0];
+    private volatile boolean closed;
+
+    private final Histogram latency;
+    private final Histogram admission;
+    private final Histogram lease;
+    private final Histogram exchange;
+    private final Histogram dns;
+    private final Histogram connect;
+    private final Histogram ttfb;
+    private final Histogram body;
 
     public Stats(final int expectedCount, final int concurrency) {
         super();
         this.expectedCount = expectedCount;
         this.concurrency = concurrency;
+        this.latency = new Histogram();
+        this.admission = new Histogram();
+        this.lease = new Histogram();
+        this.exchange = new Histogram();
+        this.dns = new Histogram();
+        this.connect = new Histogram();
+        this.ttfb = new Histogram();
+        this.body = new Histogram();
+        final Observer current = observer;
+        if (current != null) {
+            current.opened(this);
+        }
+    }
+
+    /**
+     * Returns {@code true} for status codes of successful requests, including
+     * {@code 204} responses without content.
+     */
+    public static boolean isSuccessful(final int status) {
+        return status >= 200 && status < 300;
+    }
+
+    static void setObserver(final Observer observer) {
+        Stats.observer = observer;
+    }
+
+    /**
+     * Sets the log every completed request gets appended to, if any.
+     */
+    static void setEventLog(final EventLog eventLog) {
+        Stats.eventLog = eventLog;
     }
 
     public synchronized boolean isComplete() {
-        return this.successCount + this.failureCount >= this.expectedCount;
+        return this.closed || this.successCount + this.failureCount >= this.expectedCount;
     }
 
-    public synchronized void success(final long contentLen) {
+    /**
+     * Returns {@code true} if the run has been ended before the expected number
+     * of requests completed. Cheap enough to be checked for every request.
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Ends a run of open-ended duration. Requests completing afterwards are not counted.
+     */
+    public synchronized void close() {
+        this.closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Records time the submission loop spent waiting for a permit before
+     * the request could be handed to the client.
+     */
+    public void admission(final long admissionTime, final long startTime) {
+        this.admission.record(startTime - admissionTime);
+    }
+
+    /**
+     * Records time spent resolving the target host name.
+     */
+    public void dns(final long startTime, final long endTime) {
+        this.dns.record(endTime - startTime);
+    }
+
+    /**
+     * Records time spent establishing a new connection.
+     */
+    public void connect(final long startTime, final long endTime) {
+        this.connect.record(endTime - startTime);
+    }
+
+    /**
+     * Records time to the response headers and returns the time they were received.
+     */
+    public long responseHeaders(final long startTime, final int status) {
+        final long headersTime = System.nanoTime();
+        this.ttfb.record(headersTime - startTime);
+        BenchmarkEvents.responseHeaders(startTime, status);
+        return headersTime;
+    }
+
+    /**
+     * Records time from the response headers to the end of the response body.
+     */
+    public void responseBody(final long headersTime) {
+        this.body.record(System.nanoTime() - headersTime);
+    }
+
+    /**
+     * Records the number of response headers the agent read through its API
+     * and the length of their names and values in characters.
+     */
+    public synchronized void headersRead(final int count, final long len) {
+        this.headerCount += count;
+        this.headerLen += len;
+    }
+
+    /**
+     * Records a successful request. If the lease time is known, time spent
+     * waiting for a pooled connection and time on the wire are recorded
+     * separately as well. The status and the local port of the connection,
+     * or {@code 0} if unknown, go to the event log. The method is that of a
+     * mixed workload, or {@code null} for the plain run.
+     */
+    public synchronized void success(
+            final long startTime,
+            final long leaseTime,
+            final int status,
+            final long connectionId,
+            final long contentLen,
+            final MethodMix.Method method) {
         if (isComplete()) {
             return;
         }
+        final long elapsed = record(startTime, leaseTime, true, status, connectionId, contentLen);
+        if (method != null) {
+            final MethodStats current = getMethodStats(method);
+            current.latency.record(elapsed);
+            current.successCount++;
+            current.totalContentLen += contentLen;
+        }
+        BenchmarkEvents.bodyComplete(startTime, elapsed, contentLen);
         this.successCount++;
         this.contentLen = contentLen;
         this.totalContentLen += contentLen;
         notifyAll();
     }
 
-    public synchronized void failure(final long contentLen) {
+    /**
+     * Records a failed request. The status is {@code 0} if no response was
+     * received, the local port of the connection {@code 0} if unknown.
+     */
+    public synchronized void failure(
+            final long startTime,
+            final long leaseTime,
+            final int status,
+            final long connectionId,
+            final long contentLen,
+            final MethodMix.Method method) {
         if (isComplete()) {
             return;
         }
+        final long elapsed = record(startTime, leaseTime, false, status, connectionId, contentLen);
+        if (method != null) {
+            final MethodStats current = getMethodStats(method);
+            current.latency.record(elapsed);
+            current.failureCount++;
+            current.totalContentLen += contentLen;
+        }
+        BenchmarkEvents.failure(startTime, elapsed, contentLen);
         this.failureCount++;
         this.contentLen = contentLen;
         this.totalContentLen += contentLen;
         notifyAll();
     }
 
+    private MethodStats getMethodStats(final MethodMix.Method method) {
+        final int index = method.getIndex();
+        if (index >= this.methodStats.length) {
+            this.methodStats = Arrays.copyOf(this.methodStats, index + 1);
+        }
+        if (this.methodStats[index] == null) {
+            this.methodStats[index] = new MethodStats(method.getName());
+        }
+        return this.methodStats[index];
+    }
+
+    private long record(
+            final long startTime,
+            final long leaseTime,
+            final boolean success,
+            final int status,
+            final long connectionId,
+            final long contentLen) {
+        final long now = System.nanoTime();
+        final EventLog log = eventLog;
+        if (log != null) {
+            log.append(startTime, now, status, success, contentLen, connectionId);
+        }
+        this.latency.record(now - startTime);
+        if (leaseTime != UNKNOWN) {
+            this.lease.record(leaseTime - startTime);
+            this.exchange.record(now - leaseTime);
+        }
+        final Observer current = observer;
+        if (current != null) {
+            current.completed(now, now - startTime, success);
+        }
+        return now - startTime;
+    }
+
     public int getConcurrency() {
         return this.concurrency;
     }
@@ -77,6 +322,103 @@ public class Stats {
         return totalContentLen;
     }
 
+    /**
+     * Returns outcomes of requests by method of a mixed workload, in the order
+     * of methods of the mix.
+     */
+    public synchronized List<MethodStats> getMethodStats() {
+        final List<MethodStats> list = new ArrayList<>();
+        for (final MethodStats current : this.methodStats) {
+            if (current != null) {
+                list.add(current);
+            }
+        }
+        return list;
+    }
+
+    public synchronized long getHeaderCount() {
+        return headerCount;
+    }
+
+    public synchronized long getHeaderLen() {
+        return headerLen;
+    }
+
+    /**
+     * Returns distribution of request execution times in nanoseconds.
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns distribution of time spent waiting for a permit in nanoseconds.
+     */
+    public Histogram getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Returns distribution of time spent waiting for a pooled connection
+     * in nanoseconds. Empty if the agent cannot observe connection leasing.
+     */
+    public Histogram getLease() {
+        return lease;
+    }
+
+    /**
+     * Returns distribution of time from connection lease to request completion
+     * in nanoseconds. Empty if the agent cannot observe connection leasing.
+     */
+    public Histogram getExchange() {
+        return exchange;
+    }
+
+    /**
+     * Returns the maximum amount of content in bytes received but not yet
+     * processed by a slow consumer, or {@code -1} if not applicable.
+     */
+    public synchronized long getPeakBuffered() {
+        return peakBuffered;
+    }
+
+    public synchronized void setPeakBuffered(final long peakBuffered) {
+        this.peakBuffered = peakBuffered;
+    }
+
+    /**
+     * Returns distribution of host name resolution times in nanoseconds.
+     * Empty if the agent cannot observe name resolution.
+     */
+    public Histogram getDns() {
+        return dns;
+    }
+
+    /**
+     * Returns distribution of connect times of new connections in nanoseconds.
+     * Clients that resolve host names while connecting include resolution.
+     * Empty if the agent cannot observe connection setup.
+     */
+    public Histogram getConnect() {
+        return connect;
+    }
+
+    /**
+     * Returns distribution of times from request start to response headers
+     * in nanoseconds.
+     */
+    public Histogram getTtfb() {
+        return ttfb;
+    }
+
+    /**
+     * Returns distribution of times from response headers to the end of
+     * the response body in nanoseconds.
+     */
+    public Histogram getBody() {
+        return body;
+    }
+
     public synchronized void waitFor() throws InterruptedException {
         while (!isComplete()) {
             wait();
@@ -108,6 +450,64 @@ public class Stats {
         System.out.print("Requests per second:\t");
         System.out.print(reqsPerSec);
         System.out.println(" [#/sec] (mean)");
+        printPercentiles("Latency p50/p99/max:\t", stats.getLatency());
+        if (stats.getAdmission().getCount() > 0) {
+            printPercentiles("Admission p50/p99/max:\t", stats.getAdmission());
+        }
+        if (stats.getLease().getCount() > 0) {
+            printPercentiles("Pool lease p50/p99/max:\t", stats.getLease());
+            printPercentiles("Exchange p50/p99/max:\t", stats.getExchange());
+        }
+        if (stats.getDns().getCount() > 0) {
+            printPercentiles("DNS p50/p99/max:\t", stats.getDns());
+        }
+        if (stats.getConnect().getCount() > 0) {
+            printPercentiles("Connect p50/p99/max:\t", stats.getConnect());
+        }
+        if (stats.getTtfb().getCount() > 0) {
+            printPercentiles("TTFB p50/p99/max:\t", stats.getTtfb());
+        }
+        if (stats.getBody().getCount() > 0) {
+            printPercentiles("Body p50/p99/max:\t", stats.getBody());
+        }
+        final int completed = stats.getSuccessCount() + stats.getFailureCount();
+        if (stats.getHeaderCount() > 0 && completed > 0) {
+            System.out.println(String.format(Locale.ROOT, "Headers read:\t\t%.1f per request, %.0f chars",
+                    (double) stats.getHeaderCount() / completed, (double) stats.getHeaderLen() / completed));
+        }
+        final List<MethodStats> methodStats = stats.getMethodStats();
+        if (methodStats.size() > 1) {
+            System.out.println("Method\t\tComplete\tFailed\t   Content\tp50/p99/max [ms]");
+            for (final MethodStats current : methodStats) {
+                System.out.println(String.format(Locale.ROOT, "%-8s\t%8d\t%6d\t%10d\t%s / %s / %s",
+                        current.getName(),
+                        current.getSuccessCount(),
+                        current.getFailureCount(),
+                        current.getTotalContentLen(),
+                        toMillis(current.getLatency().getPercentile(50)),
+                        toMillis(current.getLatency().getPercentile(99)),
+                        toMillis(current.getLatency().getMax())));
+            }
+        }
+        if (stats.getPeakBuffered() >= 0) {
+            System.out.print("Peak buffered content:\t");
+            System.out.print(stats.getPeakBuffered());
+            System.out.println(" bytes");
+        }
+    }
+
+    static void printPercentiles(final String label, final Histogram histogram) {
+        System.out.print(label);
+        System.out.print(toMillis(histogram.getPercentile(50)));
+        System.out.print(" / ");
+        System.out.print(toMillis(histogram.getPercentile(99)));
+        System.out.print(" / ");
+        System.out.print(toMillis(histogram.getMax()));
+        System.out.println(" [ms]");
+    }
+
+    static String toMillis(final long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000d);
     }
 
 }
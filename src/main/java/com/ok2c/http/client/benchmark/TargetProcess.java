@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TargetServer} running in a separate JVM, so that its CPU time and memory
+ * do not get attributed to the agent under test.
+ */
+final class TargetProcess implements Closeable {
+
+    private final Process process;
+    private final int port;
+
+    private TargetProcess(final Process process, final int port) {
+        this.process = process;
+        this.port = port;
+    }
+
+    static TargetProcess start(final String... args) throws IOException {
+        final List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(TargetServer.class.getName());
+        command.add("--attached");
+        command.add("--port");
+        command.add("0");
+        command.addAll(Arrays.asList(args));
+        final Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .start();
+        final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(TargetServer.LISTENING)) {
+                final int port = Integer.parseInt(line.substring(TargetServer.LISTENING.length()).trim());
+                final Thread pump = new Thread(() -> {
+                    try {
+                        String s;
+                        while ((s = reader.readLine()) != null) {
+                            System.out.println("[target] " + s);
+                        }
+                    } catch (final IOException ignore) {
+                    }
+                }, "target-output");
+                pump.setDaemon(true);
+                pump.start();
+                return new TargetProcess(process, port);
+            }
+            System.out.println("[target] " + line);
+        }
+        process.destroyForcibly();
+        throw new IOException("Target server process failed to start");
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    URI getUri(final String path) {
+        return getUri("127.0.0.1", path);
+    }
+
+    /**
+     * Returns a URI of the given path at the given local address. The target
+     * listens on all of them.
+     */
+    URI getUri(final String address, final String path) {
+        return URI.create("http://" + address + ":" + port + path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        process.getOutputStream().close();
+        try {
+            if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (final InterruptedException ex) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,679 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Minimal non-blocking HTTP/1.1 target used by the benchmark scenarios
+ * that need control over responses. Responses are pre-encoded and cached,
+ * so the server spends next to no CPU per request. Request content is
+ * read and discarded. Optionally the server also listens on a Unix domain
+ * socket, which requires Java 16 or newer.
+ * <p>
+ * Supported resources:
+ * <ul>
+ *     <li>{@code /gzip/<ratio>?size=<n>} - {@code n} bytes of content compressible
+ *     approximately at the given ratio, gzip encoded if the request accepts it</li>
+ *     <li>{@code /bytes/<n>} - {@code n} bytes of content or, if {@code n} is
+ *     {@code 0}, {@code 204 No Content}</li>
+ *     <li>{@code /headers/<count>?size=<n>} - default content with {@code count}
+ *     synthetic headers of the header profile, {@code n} bytes per value</li>
+ *     <li>{@code /hold} - default content, held back until released</li>
+ *     <li>{@code /_release} - releases all held responses</li>
+ *     <li>{@code /_stats} - number of open connections, other than the one
+ *     asking, and number of held responses</li>
+ *     <li>any other resource - default content</li>
+ * </ul>
+ */
+public class TargetServer implements Closeable {
+
+    static final String LISTENING = "Listening on port ";
+
+    static final int DEFAULT_CONTENT_LENGTH = 9754;
+
+    private static final int MAX_HEAD_SIZE = 1024 * 1024;
+
+    private final InetSocketAddress address;
+    private final Path unixSocket;
+    private final int contentLength;
+    private final Worker[] workers;
+    private final ConcurrentMap<String, ByteBuffer> responseCache;
+    private final AtomicInteger openConnections;
+    private final AtomicInteger heldResponses;
+    private final AtomicInteger releaseCount;
+
+    private volatile ServerSocketChannel serverChannel;
+    private volatile ServerSocketChannel unixServerChannel;
+    private volatile boolean shutdown;
+
+    public TargetServer(final InetSocketAddress address, final int workerCount, final int contentLength) {
+        this(address, null, workerCount, contentLength);
+    }
+
+    /**
+     * Creates a server listening on the given address and, unless {@code null},
+     * on a Unix domain socket at the given path.
+     */
+    public TargetServer(
+            final InetSocketAddress address,
+            final Path unixSocket,
+            final int workerCount,
+            final int contentLength) {
+        this.address = address;
+        this.unixSocket = unixSocket;
+        this.contentLength = contentLength;
+        this.workers = new Worker[workerCount];
+        this.responseCache = new ConcurrentHashMap<>();
+        this.openConnections = new AtomicInteger();
+        this.heldResponses = new AtomicInteger();
+        this.releaseCount = new AtomicInteger();
+    }
+
+    public void start() throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        this.serverChannel.bind(this.address, 4096);
+        if (this.unixSocket != null) {
+            // A stale socket file of an earlier run fails the bind
+            Files.deleteIfExists(this.unixSocket);
+            this.unixServerChannel = UnixDomainSockets.openServerChannel();
+            this.unixServerChannel.bind(UnixDomainSockets.address(this.unixSocket), 4096);
+        }
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i] = new Worker(Selector.open());
+            final Thread thread = new Thread(this.workers[i], "target-worker-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        final Thread acceptor = new Thread(() -> accept(this.serverChannel, true), "target-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        if (this.unixServerChannel != null) {
+            final Thread unixAcceptor = new Thread(
+                    () -> accept(this.unixServerChannel, false), "target-acceptor-unix");
+            unixAcceptor.setDaemon(true);
+            unixAcceptor.start();
+        }
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) this.serverChannel.getLocalAddress()).getPort();
+    }
+
+    private void accept(final ServerSocketChannel serverChannel, final boolean tcp) {
+        int next = 0;
+        while (!this.shutdown) {
+            try {
+                final SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                if (tcp) {
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+                this.workers[next++ % this.workers.length].register(channel);
+            } catch (final ClosedChannelException ex) {
+                return;
+            } catch (final IOException ex) {
+                if (!this.shutdown) {
+                    System.err.println("I/O error accepting connection: " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.shutdown = true;
+        final ServerSocketChannel channel = this.serverChannel;
+        if (channel != null) {
+            channel.close();
+        }
+        final ServerSocketChannel unixChannel = this.unixServerChannel;
+        if (unixChannel != null) {
+            unixChannel.close();
+            Files.deleteIfExists(this.unixSocket);
+        }
+        for (final Worker worker : this.workers) {
+            if (worker != null) {
+                worker.selector.wakeup();
+            }
+        }
+    }
+
+    ByteBuffer handle(final RequestHead head) {
+        final String resource = head.getResource();
+        if (resource.equals("/_stats")) {
+            final String stats = "connections=" + (this.openConnections.get() - 1) +
+                    "\nheld=" + this.heldResponses.get() + "\n";
+            return encodeResponse(head, stats.getBytes(StandardCharsets.US_ASCII), null);
+        }
+        if (resource.equals("/_release")) {
+            final int held = this.heldResponses.get();
+            release();
+            return encodeResponse(head, ("released=" + held + "\n").getBytes(StandardCharsets.US_ASCII), null);
+        }
+        final String key = head.path + (head.acceptGzip ? "|gzip" : "") + (head.close ? "|close" : "")
+                + (head.method.equals("HEAD") ? "|head" : "");
+        final ByteBuffer response = this.responseCache.computeIfAbsent(key, k -> createResponse(head));
+        return response.duplicate();
+    }
+
+    /**
+     * Releases responses held at the time of the call. Workers write them out
+     * once woken up.
+     */
+    void release() {
+        this.releaseCount.incrementAndGet();
+        for (final Worker worker : this.workers) {
+            if (worker != null) {
+                worker.selector.wakeup();
+            }
+        }
+    }
+
+    private ByteBuffer createResponse(final RequestHead head) {
+        final String resource = head.getResource();
+        if (resource.startsWith("/gzip/")) {
+            final int ratio = Math.max(1, parseInt(resource.substring("/gzip/".length()), 1));
+            final int size = parseInt(head.getParameter("size"), this.contentLength);
+            final byte[] content = content(size, ratio);
+            if (head.acceptGzip) {
+                return encodeResponse(head, gzip(content), "Content-Encoding: gzip\r\n");
+            }
+            return encodeResponse(head, content, null);
+        }
+        if (resource.startsWith("/bytes/")) {
+            final int size = parseInt(resource.substring("/bytes/".length()), this.contentLength);
+            if (size <= 0) {
+                return encodeNoContent(head);
+            }
+            return encodeResponse(head, content(size, 1), null);
+        }
+        if (resource.startsWith("/headers/")) {
+            final int count = parseInt(resource.substring("/headers/".length()), 0);
+            final int size = parseInt(head.getParameter("size"), HeaderProfile.DEFAULT_SIZE);
+            final StringBuilder headers = new StringBuilder();
+            for (final Map.Entry<String, String> header : HeaderProfile.generate(count, size)) {
+                headers.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            return encodeResponse(head, content(this.contentLength, 1), headers.toString());
+        }
+        return encodeResponse(head, content(this.contentLength, 1), null);
+    }
+
+    private static ByteBuffer encodeResponse(final RequestHead head, final byte[] content, final String extraHeaders) {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("HTTP/1.1 200 OK\r\n");
+        buf.append("Content-Type: application/octet-stream\r\n");
+        buf.append("Content-Length: ").append(content.length).append("\r\n");
+        if (extraHeaders != null) {
+            buf.append(extraHeaders);
+        }
+        if (head.close) {
+            buf.append("Connection: close\r\n");
+        }
+        buf.append("\r\n");
+        final byte[] b = buf.toString().getBytes(StandardCharsets.US_ASCII);
+        // Responses to HEAD carry the headers of the content, but not the content itself
+        final boolean withContent = !head.method.equals("HEAD");
+        final ByteBuffer response = ByteBuffer.allocate(b.length + (withContent ? content.length : 0));
+        response.put(b);
+        if (withContent) {
+            response.put(content);
+        }
+        response.flip();
+        return response.asReadOnlyBuffer();
+    }
+
+    private static ByteBuffer encodeNoContent(final RequestHead head) {
+        final String response = "HTTP/1.1 204 No Content\r\n" + (head.close ? "Connection: close\r\n" : "") + "\r\n";
+        return ByteBuffer.wrap(response.getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+    }
+
+    private static int parseInt(final String s, final int defaultValue) {
+        if (s == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(s);
+        } catch (final NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Generates content that deflates approximately at the given ratio: every
+     * 1 KiB block starts with {@code 1024 / ratio} random bytes followed by zeros.
+     */
+    static byte[] content(final int size, final int ratio) {
+        final byte[] content = new byte[size];
+        final Random random = new Random(size);
+        final int randomLen = 1024 / Math.max(1, ratio);
+        final byte[] block = new byte[randomLen];
+        for (int off = 0; off < size; off += 1024) {
+            random.nextBytes(block);
+            System.arraycopy(block, 0, content, off, Math.min(randomLen, size - off));
+        }
+        return content;
+    }
+
+    static byte[] gzip(final byte[] content) {
+        final ByteArrayOutputStream outstream = new ByteArrayOutputStream(content.length / 2 + 64);
+        try (final GZIPOutputStream gzipstream = new GZIPOutputStream(outstream)) {
+            gzipstream.write(content);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return outstream.toByteArray();
+    }
+
+    static final class RequestHead {
+
+        final String method;
+        final String path;
+        final long contentLength;
+        final boolean chunked;
+        final boolean close;
+        final boolean acceptGzip;
+
+        RequestHead(
+                final String method,
+                final String path,
+                final long contentLength,
+                final boolean chunked,
+                final boolean close,
+                final boolean acceptGzip) {
+            this.method = method;
+            this.path = path;
+            this.contentLength = contentLength;
+            this.chunked = chunked;
+            this.close = close;
+            this.acceptGzip = acceptGzip;
+        }
+
+        static RequestHead parse(final String s) throws IOException {
+            final String[] lines = s.split("\r\n");
+            final String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3) {
+                throw new IOException("Invalid request line: " + lines[0]);
+            }
+            long contentLength = 0;
+            boolean chunked = false;
+            boolean close = requestLine[2].equals("HTTP/1.0");
+            boolean acceptGzip = false;
+            for (int i = 1; i < lines.length; i++) {
+                final String line = lines[i];
+                final int idx = line.indexOf(':');
+                if (idx <= 0) {
+                    continue;
+                }
+                final String name = line.substring(0, idx).trim();
+                final String value = line.substring(idx + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    try {
+                        contentLength = Long.parseLong(value);
+                    } catch (final NumberFormatException ex) {
+                        throw new IOException("Invalid Content-Length: " + value);
+                    }
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    close = value.equalsIgnoreCase("close");
+                } else if (name.equalsIgnoreCase("Accept-Encoding")) {
+                    acceptGzip = value.toLowerCase(Locale.ROOT).contains("gzip");
+                }
+            }
+            return new RequestHead(requestLine[0], requestLine[1], contentLength, chunked, close, acceptGzip);
+        }
+
+        String getResource() {
+            final int idx = path.indexOf('?');
+            return idx >= 0 ? path.substring(0, idx) : path;
+        }
+
+        String getParameter(final String name) {
+            final int idx = path.indexOf('?');
+            if (idx < 0) {
+                return null;
+            }
+            for (final String param : path.substring(idx + 1).split("&")) {
+                final int eq = param.indexOf('=');
+                if (eq > 0 && param.substring(0, eq).equals(name)) {
+                    return param.substring(eq + 1);
+                }
+            }
+            return null;
+        }
+
+    }
+
+    final class Worker implements Runnable {
+
+        private final Selector selector;
+        private final Queue<SocketChannel> newChannels;
+
+        private int releaseCount;
+
+        Worker(final Selector selector) {
+            this.selector = selector;
+            this.newChannels = new ConcurrentLinkedQueue<>();
+        }
+
+        void register(final SocketChannel channel) {
+            this.newChannels.add(channel);
+            this.selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!shutdown) {
+                    this.selector.select();
+                    SocketChannel channel;
+                    while ((channel = this.newChannels.poll()) != null) {
+                        channel.register(this.selector, SelectionKey.OP_READ, new Connection(channel));
+                        openConnections.incrementAndGet();
+                    }
+                    final int currentReleaseCount = TargetServer.this.releaseCount.get();
+                    if (currentReleaseCount != this.releaseCount) {
+                        this.releaseCount = currentReleaseCount;
+                        for (final SelectionKey key : this.selector.keys()) {
+                            final Connection conn = (Connection) key.attachment();
+                            try {
+                                conn.release(key);
+                            } catch (final IOException ex) {
+                                conn.close(key);
+                            }
+                        }
+                    }
+                    final Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        final SelectionKey key = it.next();
+                        it.remove();
+                        final Connection conn = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                conn.onReadable(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                conn.flush(key);
+                            }
+                        } catch (final IOException ex) {
+                            conn.close(key);
+                        }
+                    }
+                }
+                for (final SelectionKey key : this.selector.keys()) {
+                    ((Connection) key.attachment()).close(key);
+                }
+                this.selector.close();
+            } catch (final IOException ex) {
+                System.err.println("I/O error in target worker: " + ex.getMessage());
+            }
+        }
+
+    }
+
+    final class Connection {
+
+        private final SocketChannel channel;
+        private final Queue<ByteBuffer> outQueue;
+
+        private ByteBuffer inbuf;
+        private ByteBuffer pendingResponse;
+        private long bodyRemaining;
+        private boolean closeAfterWrite;
+        private boolean holdPending;
+        private int held;
+        private boolean closed;
+
+        Connection(final SocketChannel channel) {
+            this.channel = channel;
+            this.outQueue = new ArrayDeque<>();
+            this.inbuf = ByteBuffer.allocate(16 * 1024);
+        }
+
+        void onReadable(final SelectionKey key) throws IOException {
+            final int n = this.channel.read(this.inbuf);
+            if (n < 0) {
+                close(key);
+                return;
+            }
+            this.inbuf.flip();
+            try {
+                processInput();
+            } finally {
+                this.inbuf.compact();
+            }
+            flush(key);
+        }
+
+        private void processInput() throws IOException {
+            for (;;) {
+                if (this.pendingResponse != null) {
+                    final long skip = Math.min(this.bodyRemaining, this.inbuf.remaining());
+                    this.inbuf.position(this.inbuf.position() + (int) skip);
+                    this.bodyRemaining -= skip;
+                    if (this.bodyRemaining > 0) {
+                        return;
+                    }
+                    this.outQueue.add(this.pendingResponse);
+                    this.pendingResponse = null;
+                    if (this.holdPending) {
+                        // Responses following a held one have to wait for it
+                        this.holdPending = false;
+                        this.held++;
+                        heldResponses.incrementAndGet();
+                    }
+                    if (this.closeAfterWrite) {
+                        this.inbuf.position(this.inbuf.limit());
+                        return;
+                    }
+                }
+                final int end = findHeadEnd();
+                if (end < 0) {
+                    if (this.inbuf.position() == 0 && this.inbuf.limit() == this.inbuf.capacity()) {
+                        if (this.inbuf.capacity() >= MAX_HEAD_SIZE) {
+                            throw new IOException("Request head too large");
+                        }
+                        final ByteBuffer newbuf = ByteBuffer.allocate(this.inbuf.capacity() * 2);
+                        newbuf.put(this.inbuf).flip();
+                        this.inbuf = newbuf;
+                    }
+                    return;
+                }
+                final int start = this.inbuf.position();
+                final String s = new String(
+                        this.inbuf.array(), this.inbuf.arrayOffset() + start, end - start, StandardCharsets.ISO_8859_1);
+                this.inbuf.position(end + 4);
+                final RequestHead head = RequestHead.parse(s);
+                if (head.chunked) {
+                    throw new IOException("Chunk coded request content is not supported");
+                }
+                this.pendingResponse = handle(head);
+                this.bodyRemaining = head.contentLength;
+                this.closeAfterWrite = head.close;
+                this.holdPending = head.getResource().equals("/hold");
+            }
+        }
+
+        private int findHeadEnd() {
+            final byte[] b = this.inbuf.array();
+            final int off = this.inbuf.arrayOffset();
+            for (int i = this.inbuf.position(); i + 3 < this.inbuf.limit(); i++) {
+                if (b[off + i] == '\r' && b[off + i + 1] == '\n' && b[off + i + 2] == '\r' && b[off + i + 3] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void flush(final SelectionKey key) throws IOException {
+            if (this.held > 0) {
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            ByteBuffer buf;
+            while ((buf = this.outQueue.peek()) != null) {
+                this.channel.write(buf);
+                if (buf.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                this.outQueue.poll();
+            }
+            if (this.closeAfterWrite && this.pendingResponse == null) {
+                close(key);
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void release(final SelectionKey key) throws IOException {
+            if (this.held > 0) {
+                heldResponses.addAndGet(-this.held);
+                this.held = 0;
+                flush(key);
+            }
+        }
+
+        void close(final SelectionKey key) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            if (this.held > 0) {
+                heldResponses.addAndGet(-this.held);
+                this.held = 0;
+            }
+            openConnections.decrementAndGet();
+            key.cancel();
+            try {
+                this.channel.close();
+            } catch (final IOException ignore) {
+            }
+        }
+
+    }
+
+    public static void main(final String... args) throws Exception {
+        final Option popt = new Option("p", "port", true, "Port to listen on. The default is 8080");
+        popt.setRequired(false);
+        popt.setArgName("port");
+
+        final Option wopt = new Option("w", "workers", true, "Number of I/O worker threads. " +
+                "The default is the number of available processors");
+        wopt.setRequired(false);
+        wopt.setArgName("count");
+
+        final Option sopt = new Option("s", "size", true, "Length of the default content. " +
+                "The default is " + DEFAULT_CONTENT_LENGTH + " bytes");
+        sopt.setRequired(false);
+        sopt.setArgName("size");
+
+        final Option uopt = new Option(null, "unix-socket", true, "Also listen on a Unix domain socket " +
+                "at the given path. Requires Java 16 or newer");
+        uopt.setRequired(false);
+        uopt.setArgName("path");
+
+        final Option aopt = new Option(null, "attached", false, "Terminate once standard input " +
+                "gets closed by the parent process");
+        aopt.setRequired(false);
+
+        final Options options = new Options();
+        options.addOption(popt);
+        options.addOption(wopt);
+        options.addOption(sopt);
+        options.addOption(uopt);
+        options.addOption(aopt);
+
+        final int port;
+        final int workers;
+        final int size;
+        final Path unixSocket;
+        final boolean attached;
+        try {
+            final CommandLine cmd = new DefaultParser().parse(options, args);
+            attached = cmd.hasOption("attached");
+            unixSocket = cmd.hasOption("unix-socket") ? Paths.get(cmd.getOptionValue("unix-socket")) : null;
+            port = Integer.parseInt(cmd.getOptionValue('p', "8080"));
+            workers = Integer.parseInt(cmd.getOptionValue('w',
+                    Integer.toString(Runtime.getRuntime().availableProcessors())));
+            size = BenchmarkRunner.parseIntSize(cmd.getOptionValue('s', Integer.toString(DEFAULT_CONTENT_LENGTH)));
+        } catch (final ParseException | NumberFormatException ex) {
+            System.out.println(ex.getMessage());
+            System.out.println();
+            new HelpFormatter().printHelp("target-server [options]", options);
+            return;
+        }
+
+        final TargetServer server = new TargetServer(new InetSocketAddress(port), unixSocket, workers, size);
+        server.start();
+        if (unixSocket != null) {
+            System.out.println("Listening on Unix domain socket " + unixSocket);
+        }
+        System.out.println(LISTENING + server.getPort());
+        System.out.flush();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (final IOException ignore) {
+            }
+        }));
+        if (attached) {
+            while (System.in.read() >= 0) {
+                // Keep running until the parent process goes away
+            }
+            server.close();
+        } else {
+            Thread.currentThread().join();
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Unix domain socket channels of Java 16 or newer. The source level is
+ * Java 11, so they are only available through reflection.
+ */
+final class UnixDomainSockets {
+
+    /**
+     * Agents able to connect to the target over a Unix domain socket.
+     */
+    interface Capable {
+    }
+
+    private UnixDomainSockets() {
+    }
+
+    static boolean isSupported() {
+        try {
+            Class.forName("java.net.UnixDomainSocketAddress");
+            return true;
+        } catch (final ClassNotFoundException ex) {
+            return false;
+        }
+    }
+
+    static SocketAddress address(final Path path) {
+        try {
+            return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                    .getMethod("of", Path.class)
+                    .invoke(null, path);
+        } catch (final ReflectiveOperationException ex) {
+            throw unsupported();
+        }
+    }
+
+    static ServerSocketChannel openServerChannel() throws IOException {
+        return (ServerSocketChannel) open(ServerSocketChannel.class);
+    }
+
+    static SocketChannel openChannel() throws IOException {
+        return (SocketChannel) open(SocketChannel.class);
+    }
+
+    private static Object open(final Class<?> channelClass) throws IOException {
+        final ProtocolFamily family;
+        try {
+            family = StandardProtocolFamily.valueOf("UNIX");
+        } catch (final IllegalArgumentException ex) {
+            throw unsupported();
+        }
+        try {
+            return channelClass.getMethod("open", ProtocolFamily.class).invoke(null, family);
+        } catch (final InvocationTargetException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        } catch (final ReflectiveOperationException ex) {
+            throw unsupported();
+        }
+    }
+
+    /**
+     * Returns a path for a new socket in a new temporary directory. Socket
+     * paths are limited to about a hundred bytes, so names are kept short.
+     */
+    static Path createSocketPath() throws IOException {
+        final Path dir = Files.createTempDirectory("uds");
+        dir.toFile().deleteOnExit();
+        return dir.resolve("target.sock");
+    }
+
+    private static UnsupportedOperationException unsupported() {
+        return new UnsupportedOperationException("Unix domain sockets require Java 16 or newer");
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Executes the benchmark against a local {@link TargetServer} over TCP loopback
+ * and over a Unix domain socket of the same server, and reports throughput,
+ * latency and CPU time per request of both transports side by side. Both
+ * transports run in turn, see {@link MeasuredRun#executeInTurn}.
+ */
+final class UnixSocketScenario {
+
+    static void execute(final HttpAgent agent, final BenchmarkConfig config) throws Exception {
+        System.out.println("=================================");
+        System.out.println("HTTP agent: " + agent.getClientName());
+        System.out.println("=================================");
+
+        final Path unixSocket = UnixDomainSockets.createSocketPath();
+        final List<String> labels = Arrays.asList("TCP", "UDS");
+        final List<MeasuredRun> runs;
+        try (final TargetProcess target = TargetProcess.start("--unix-socket", unixSocket.toString())) {
+            final BenchmarkConfig.Builder builder = BenchmarkConfig.copy(config)
+                    .setUri(target.getUri("/"))
+                    .setUnixSocketCompare(false);
+            runs = MeasuredRun.executeInTurn(agent, labels, Arrays.asList(
+                    builder.setUnixSocket(null).build(),
+                    builder.setUnixSocket(unixSocket.toFile()).build()));
+        }
+        System.out.println("---------------------------------");
+        System.out.println("Transport\t     Req/s\t Mean [us]\t  p50 [us]\t  p99 [us]\tCPU/req [us]\tFailed");
+        for (int i = 0; i < runs.size(); i++) {
+            final MeasuredRun run = runs.get(i);
+            System.out.println(String.format(Locale.ROOT, "%-8s\t%10.2f\t%10.2f\t%10.2f\t%10.2f\t%12s\t%6d",
+                    labels.get(i),
+                    run.getReqsPerSec(),
+                    run.getLatency(),
+                    run.getLatency(50),
+                    run.getLatency(99),
+                    MeasuredRun.format(run.getCpuPerRequest()),
+                    run.getStats().getFailureCount()));
+        }
+        final MeasuredRun tcp = runs.get(0);
+        final MeasuredRun uds = runs.get(1);
+        if (tcp.getReqsPerSec() > 0) {
+            System.out.println(String.format(Locale.ROOT,
+                    "UDS relative to TCP: %+.1f%% throughput, %+.2f us mean latency",
+                    (uds.getReqsPerSec() / tcp.getReqsPerSec() - 1) * 100, uds.getLatency() - tcp.getLatency()));
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+/**
+ * Executes the same agent against several versions of its HTTP client side by
+ * side in one JVM and reports the performance delta of every version relative
+ * to the first one.
+ * <p>
+ * Every version gets a class loader of its own with a complete class path
+ * of the benchmark classes and the client version, isolated from this class
+ * loader and from each other. Agents of all versions are initialized and
+ * warmed up first. Iterations then take turns across versions, so drift of
+ * the machine over time affects all versions alike.
+ * <p>
+ * Class paths of versions are usually resolved by the {@code versionMatrix}
+ * Gradle task.
+ */
+public class VersionMatrix {
+
+    private static final String SEPARATOR = "--";
+
+    public static void main(final String... args) throws Exception {
+        final int separator = Arrays.asList(args).indexOf(SEPARATOR);
+        if (separator < 3) {
+            System.out.println("usage: version-matrix <agent class> <label>=<class path> " +
+                    "<label>=<class path> [...] -- <benchmark options> <target URI>");
+            return;
+        }
+        final String agentClassName = args[0];
+        final List<String> labels = new ArrayList<>();
+        final List<URL[]> classPaths = new ArrayList<>();
+        for (int i = 1; i < separator; i++) {
+            final int eq = args[i].indexOf('=');
+            if (eq <= 0) {
+                System.out.println("Invalid version: " + args[i]);
+                return;
+            }
+            labels.add(args[i].substring(0, eq));
+            classPaths.add(toUrls(args[i].substring(eq + 1)));
+        }
+        final String[] benchmarkArgs = Arrays.copyOfRange(args, separator + 1, args.length);
+        final int iterations = BenchmarkRunner.parseConfig(
+                BenchmarkRunner.getOptions(), benchmarkArgs).getIterations();
+
+        final List<URLClassLoader> classLoaders = new ArrayList<>();
+        final List<Object> sessions = new ArrayList<>();
+        try {
+            for (int v = 0; v < labels.size(); v++) {
+                // The platform class loader as parent keeps classes of this class path out
+                final URLClassLoader classLoader = new URLClassLoader(
+                        "version-" + labels.get(v), classPaths.get(v), ClassLoader.getPlatformClassLoader());
+                classLoaders.add(classLoader);
+                final Method open = classLoader.loadClass(VersionMatrix.class.getName())
+                        .getMethod("open", String.class, String[].class);
+                sessions.add(withClassLoader(classLoader,
+                        () -> open.invoke(null, agentClassName, benchmarkArgs)));
+            }
+            final double[][] reqsPerSec = new double[labels.size()][iterations];
+            final double[][] p99 = new double[labels.size()][iterations];
+            for (int i = 0; i < iterations; i++) {
+                for (int v = 0; v < labels.size(); v++) {
+                    @SuppressWarnings("unchecked")
+                    final Callable<double[]> session = (Callable<double[]>) sessions.get(v);
+                    final double[] result = withClassLoader(classLoaders.get(v), session);
+                    reqsPerSec[v][i] = result[0];
+                    p99[v][i] = result[1];
+                    System.out.println(String.format(Locale.ROOT, "%s, iteration %3d: %.2f [#/sec], p99 %.3f [ms]",
+                            labels.get(v), i + 1, result[0], result[1]));
+                }
+            }
+            print(labels, reqsPerSec, p99);
+        } finally {
+            for (int v = 0; v < sessions.size(); v++) {
+                final AutoCloseable session = (AutoCloseable) sessions.get(v);
+                withClassLoader(classLoaders.get(v), () -> {
+                    session.close();
+                    return null;
+                });
+            }
+            for (final URLClassLoader classLoader : classLoaders) {
+                classLoader.close();
+            }
+        }
+    }
+
+    static URL[] toUrls(final String classPath) throws Exception {
+        final List<URL> urls = new ArrayList<>();
+        for (final String entry : classPath.split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                urls.add(new File(entry).toURI().toURL());
+            }
+        }
+        return urls.toArray(new URL[0]);
+    }
+
+    static <T> T withClassLoader(final ClassLoader classLoader, final Callable<T> callable) throws Exception {
+        // Some clients look up their version and resources through the context class loader
+        final Thread thread = Thread.currentThread();
+        final ClassLoader contextClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(classLoader);
+        try {
+            return callable.call();
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+        }
+    }
+
+    static void print(final List<String> labels, final double[][] reqsPerSec, final double[][] p99) {
+        System.out.println("=================================");
+        System.out.println("Version matrix (delta relative to " + labels.get(0) + ")");
+        System.out.println("=================================");
+        for (int v = 0; v < labels.size(); v++) {
+            System.out.println(labels.get(v));
+            System.out.println("Requests per second:\t" + Statistics.describe(reqsPerSec[v]) + " [#/sec]"
+                    + (v > 0 ? formatDelta(reqsPerSec[v], reqsPerSec[0]) : ""));
+            System.out.println("Latency p99:\t\t" + Statistics.describe(p99[v]) + " [ms]"
+                    + (v > 0 ? formatDelta(p99[v], p99[0]) : ""));
+        }
+    }
+
+    static String formatDelta(final double[] samples, final double[] baseline) {
+        final double p = Statistics.mannWhitneyP(samples, baseline);
+        return String.format(Locale.ROOT, ", %+.2f%% (p=%.4f, %s)",
+                (Statistics.mean(samples) - Statistics.mean(baseline)) / Statistics.mean(baseline) * 100,
+                p,
+                p < Statistics.SIGNIFICANCE_LEVEL ? "significant" : "not significant");
+    }
+
+    /**
+     * Creates, initializes and warms up the agent of the given class. Invoked
+     * reflectively in the class loader of a version, hence the result is
+     * handed back only through interfaces of the platform.
+     */
+    public static Object open(final String agentClassName, final String... args) throws Exception {
+        final BenchmarkConfig config = BenchmarkRunner.parseConfig(BenchmarkRunner.getOptions(), args);
+        final HttpAgent agent = (HttpAgent) Class.forName(agentClassName, true,
+                VersionMatrix.class.getClassLoader()).getDeclaredConstructor().newInstance();
+        agent.init(config);
+        try {
+            System.out.println("=================================");
+            System.out.println("HTTP agent: " + agent.getClientName());
+            System.out.println("=================================");
+            Warmup.execute(agent, config);
+        } catch (final Exception ex) {
+            agent.shutdown();
+            throw ex;
+        }
+        return new Session(agent, config);
+    }
+
+    static final class Session implements Callable<double[]>, AutoCloseable {
+
+        private final HttpAgent agent;
+        private final BenchmarkConfig config;
+
+        Session(final HttpAgent agent, final BenchmarkConfig config) {
+            this.agent = agent;
+            this.config = config;
+        }
+
+        /**
+         * Executes one iteration and returns its throughput and p99 latency in milliseconds.
+         */
+        @Override
+        public double[] call() throws Exception {
+            final long startTime = System.currentTimeMillis();
+            final Stats stats = agent.execute(config);
+            final long finishTime = System.currentTimeMillis();
+            return new double[] {
+                    stats.getSuccessCount() * 1000d / Math.max(finishTime - startTime, 1),
+                    stats.getLatency().getPercentile(99) / 1_000_000d};
+        }
+
+        @Override
+        public void close() throws Exception {
+            agent.shutdown();
+        }
+
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 OK2 Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ok2c.http.client.benchmark;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * Drives the agent at the target concurrency in windows of requests until
+ * the JIT compiler goes quiet and throughput stops changing from one window
+ * to the next.
+ * <p>
+ * A window is considered stable when the JIT spent less than 2% of the window
+ * compiling and throughput is within 5% of the previous window. Warmup ends
+ * after {@link #STABLE_WINDOWS} stable windows in a row or once the configured
+ * maximum warmup time has elapsed.
+ */
+final class Warmup {
+
+    static final int DEFAULT_MAX_TIME = 60;
+
+    static final int STABLE_WINDOWS = 3;
+
+    private static final double MAX_COMPILATION_SHARE = 0.02;
+    private static final double MAX_THROUGHPUT_CHANGE = 0.05;
+    private static final long MIN_WINDOW_TIME = 500;
+    private static final int MAX_WINDOW_REQUESTS = 1000000;
+
+    static void execute(final HttpAgent agent, final BenchmarkConfig config) throws Exception {
+        if (config.getWarmupTime() <= 0) {
+            return;
+        }
+        System.out.println("warming up...");
+
+        final CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+        final boolean compilationMonitored = compiler != null && compiler.isCompilationTimeMonitoringSupported();
+        final long deadline = System.currentTimeMillis() + config.getWarmupTime() * 1000L;
+
+        // Give every connection a chance to execute a few requests
+        int windowRequests = Math.max(config.getConcurrency() * 10, 100);
+        long totalRequests = 0;
+        int windows = 0;
+        int stable = 0;
+        double lastReqsPerSec = -1;
+        final long startTime = System.currentTimeMillis();
+        while (stable < STABLE_WINDOWS && System.currentTimeMillis() < deadline) {
+            final long compilationStart = compilationMonitored ? compiler.getTotalCompilationTime() : 0;
+            final long windowStart = System.currentTimeMillis();
+            final Stats stats = agent.execute(BenchmarkConfig.copy(config)
+                    .setRequests(windowRequests)
+                    .build());
+            final long windowTime = Math.max(System.currentTimeMillis() - windowStart, 1);
+            final long compilationTime = compilationMonitored
+                    ? compiler.getTotalCompilationTime() - compilationStart : 0;
+            totalRequests += windowRequests;
+            windows++;
+
+            if (windowTime < MIN_WINDOW_TIME && windowRequests < MAX_WINDOW_REQUESTS) {
+                // Windows this short are dominated by noise
+                windowRequests = Math.min(windowRequests * 2, MAX_WINDOW_REQUESTS);
+                stable = 0;
+                lastReqsPerSec = -1;
+                continue;
+            }
+            final double reqsPerSec = stats.getSuccessCount() * 1000d / windowTime;
+            final boolean compilationQuiet = compilationTime <= windowTime * MAX_COMPILATION_SHARE;
+            final boolean throughputSteady = lastReqsPerSec > 0
+                    && Math.abs(reqsPerSec - lastReqsPerSec) <= lastReqsPerSec * MAX_THROUGHPUT_CHANGE;
+            stable = compilationQuiet && throughputSteady ? stable + 1 : 0;
+            lastReqsPerSec = reqsPerSec;
+        }
+        final long totalTime = System.currentTimeMillis() - startTime;
+        System.out.println(String.format(Locale.ROOT, "warmup %s after %.3f sec, %d requests in %d windows%s",
+                stable >= STABLE_WINDOWS ? "completed" : "timed out",
+                totalTime / 1000d,
+                totalRequests,
+                windows,
+                compilationMonitored
+                        ? ", total JIT compilation time " + compiler.getTotalCompilationTime() + " ms"
+                        : ""));
+    }
+
+}